@@ -41,6 +41,9 @@ EOF
 # Expose the Karaf shell
 sed -i s/sshHost.*/sshHost=0.0.0.0/g "${OPENNMS_HOME}/etc/org.apache.karaf.shell.cfg"
 
+# Expose the Eventd XML listener
+sed -i 's/TCPAddress="[^"]*"/TCPAddress="0.0.0.0"/' "${OPENNMS_HOME}/etc/eventd-configuration.xml"
+
 # Expose ActiveMQ
 grep '<transportConnector name="openwire" uri="tcp://0.0.0.0:61616' /opt/opennms/etc/opennms-activemq.xml | grep -v '<!--' >/dev/null
 if [ $? != 0 ]; then
@@ -85,8 +88,18 @@ while ! $(timeout 1 bash -c 'cat < /dev/null > /dev/tcp/$POSTGRES_PORT_5432_TCP_
   fi
 done
 
+# Containers restored from a snapshot have already been installed
+if [ "${OPENNMS_SNAPSHOT}" == "restore" ] && [ -e "${OPENNMS_HOME}/etc/configured" ]; then
+	echo "Restored from a snapshot. Skipping the installer."
+	SKIP_INSTALL=true
+else
+	SKIP_INSTALL=false
+fi
+
 # Initialize JRE
-${OPENNMS_HOME}/bin/runjava -s
+if [ "${SKIP_INSTALL}" != "true" ]; then
+	${OPENNMS_HOME}/bin/runjava -s
+fi
 
 # Initialize newts
 if [ ${USE_NEWTS} == "true" ]; then
@@ -94,6 +107,8 @@ if [ ${USE_NEWTS} == "true" ]; then
 fi
 
 # Start OpenNMS
-rm -rf ${OPENNMS_HOME}/data
-${OPENNMS_HOME}/bin/install -dis
+if [ "${SKIP_INSTALL}" != "true" ]; then
+	rm -rf ${OPENNMS_HOME}/data
+	${OPENNMS_HOME}/bin/install -dis
+fi
 "${OPENNMS_HOME}/bin/opennms" -f start
@@ -27,8 +27,13 @@
  *******************************************************************************/
 package org.opennms.test.system.api;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
 import org.opennms.test.system.api.junit.ExternalResourceRule;
@@ -42,8 +47,91 @@ import com.spotify.docker.client.messages.PortBinding;
 public abstract class AbstractTestEnvironment extends ExternalResourceRule implements TestEnvironment {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractTestEnvironment.class);
 
+    /**
+     * Containers that use the OpenNMS database
+     */
+    private static final List<ContainerAlias> DATABASE_CLIENTS = Arrays.asList(ContainerAlias.OPENNMS, ContainerAlias.SENTINEL);
+
+    /**
+     * An operation on the database, run while its clients are paused.
+     */
+    @FunctionalInterface
+    private static interface DatabaseOperation {
+        void run() throws Exception;
+    }
+
+    private OverlayWatcher overlayWatcher;
+
     public abstract DockerClient getDockerClient();
 
+    /**
+     * Starts watching the overlays, if enabled in the given properties.
+     */
+    @SuppressWarnings("unchecked")
+    protected void startWatchingOverlays(final Map<TestEnvironmentProperty, Object> properties) throws IOException {
+        if (!(Boolean)properties.getOrDefault(TestEnvironmentProperty.WATCH_OVERLAYS, Boolean.FALSE)) {
+            return;
+        }
+        final Map<ContainerAlias, Map<Path, String>> sources = (Map<ContainerAlias, Map<Path, String>>)properties.get(TestEnvironmentProperty.OVERLAY_SOURCES);
+        if (sources == null || sources.isEmpty()) {
+            LOG.warn("No overlay sources to watch.");
+            return;
+        }
+        overlayWatcher = new OverlayWatcher(this, sources, (OverlayWatcher.RefreshHook)properties.get(TestEnvironmentProperty.OVERLAY_REFRESH_HOOK));
+        overlayWatcher.start();
+    }
+
+    protected void stopWatchingOverlays() {
+        if (overlayWatcher != null) {
+            overlayWatcher.close();
+            overlayWatcher = null;
+        }
+    }
+
+    @Override
+    public synchronized void checkpoint() throws Exception {
+        withDatabaseClientsPaused(() -> getDatabaseCheckpoint().checkpoint());
+    }
+
+    @Override
+    public synchronized void reset() throws Exception {
+        withDatabaseClientsPaused(() -> getDatabaseCheckpoint().reset());
+    }
+
+    /**
+     * @return true if {@link #checkpoint()} was called for the database of this environment
+     */
+    public boolean hasCheckpoint() throws Exception {
+        return getDatabaseCheckpoint().exists();
+    }
+
+    protected DatabaseCheckpoint getDatabaseCheckpoint() {
+        return new DatabaseCheckpoint(getServiceAddress(ContainerAlias.POSTGRES, 5432));
+    }
+
+    /**
+     * Pauses the containers that use the database while running the given operation, so that
+     * they don't notice their connections being terminated.
+     */
+    private void withDatabaseClientsPaused(final DatabaseOperation operation) throws Exception {
+        final List<String> paused = new ArrayList<>();
+        try {
+            for (final ContainerAlias alias : DATABASE_CLIENTS) {
+                final ContainerInfo info = getContainerInfo(alias);
+                if (info != null) {
+                    LOG.debug("Pausing container {} ({})", alias, info.id());
+                    getDockerClient().pauseContainer(info.id());
+                    paused.add(info.id());
+                }
+            }
+            operation.run();
+        } finally {
+            for (final String containerId : paused) {
+                getDockerClient().unpauseContainer(containerId);
+            }
+        }
+    }
+
     @Override
     public InetSocketAddress getServiceAddress(ContainerAlias alias, int port) {
         return getServiceAddress(alias, port, "tcp");
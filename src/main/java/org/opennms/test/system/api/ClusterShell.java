@@ -0,0 +1,321 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+import org.opennms.test.system.api.utils.SshClient;
+import org.opennms.test.system.api.utils.SshClient.CommandResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a Karaf command concurrently on every container of a given kind, i.e. on all of
+ * the Minions, and aggregates the results.
+ *
+ * The commands are run on exec channels of the pooled SSH sessions, so the time it
+ * takes is that of the slowest container, rather than the sum over all of them.
+ */
+public class ClusterShell {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterShell.class);
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(0);
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        final Thread thread = new Thread(r, "cluster-shell-" + THREAD_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The kinds of containers that run a Karaf shell.
+     */
+    public static enum Kind {
+        OPENNMS(8101, ContainerAlias.OPENNMS),
+        MINION(8201, ContainerAlias.MINION, ContainerAlias.MINION_SAME_LOCATION, ContainerAlias.MINION_OTHER_LOCATION),
+        SENTINEL(8301, ContainerAlias.SENTINEL);
+
+        private final int port;
+        private final List<ContainerAlias> aliases;
+
+        private Kind(final int port, final ContainerAlias... aliases) {
+            this.port = port;
+            this.aliases = Collections.unmodifiableList(Arrays.asList(aliases));
+        }
+
+        /**
+         * @return the port on which the Karaf shell listens
+         */
+        public int getPort() {
+            return port;
+        }
+
+        public List<ContainerAlias> getAliases() {
+            return aliases;
+        }
+
+        /**
+         * @return the kind of the given container, or null if it does not run a Karaf shell
+         */
+        public static Kind of(final ContainerAlias alias) {
+            for (final Kind kind : values()) {
+                if (kind.aliases.contains(alias)) {
+                    return kind;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The outcome of a command on a single container.
+     */
+    public static class Result {
+        private final ContainerAlias alias;
+        private final CommandResult commandResult;
+        private final Throwable failure;
+        private final long durationMs;
+
+        private Result(final ContainerAlias alias, final CommandResult commandResult, final Throwable failure, final long durationMs) {
+            this.alias = alias;
+            this.commandResult = commandResult;
+            this.failure = failure;
+            this.durationMs = durationMs;
+        }
+
+        public ContainerAlias getAlias() {
+            return alias;
+        }
+
+        /**
+         * @return the result of the command, or null if it could not be run
+         */
+        public CommandResult getCommandResult() {
+            return commandResult;
+        }
+
+        /**
+         * @return the reason the command could not be run, or null if it was run
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return the time it took to run the command, including the time to connect
+         */
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public String getStdout() {
+            return commandResult != null ? commandResult.getStdout() : null;
+        }
+
+        public boolean isSuccess() {
+            return commandResult != null && commandResult.isSuccess();
+        }
+
+        @Override
+        public String toString() {
+            if (commandResult == null) {
+                return String.format("%s: failed after %dms (%s)", alias, durationMs, failure);
+            }
+            return String.format("%s: exit status %d after %dms", alias, commandResult.getExitStatus(), durationMs);
+        }
+    }
+
+    /**
+     * The outcomes of a command on all of the containers it was run on.
+     */
+    public static class Results {
+        private final String command;
+        private final Map<ContainerAlias, Result> resultsByAlias;
+        private final long durationMs;
+
+        private Results(final String command, final Map<ContainerAlias, Result> resultsByAlias, final long durationMs) {
+            this.command = command;
+            this.resultsByAlias = Collections.unmodifiableMap(resultsByAlias);
+            this.durationMs = durationMs;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public Map<ContainerAlias, Result> getResultsByAlias() {
+            return resultsByAlias;
+        }
+
+        public Result get(final ContainerAlias alias) {
+            return resultsByAlias.get(alias);
+        }
+
+        /**
+         * @return the wall clock time it took to run the command on all of the containers
+         */
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public int getSuccessCount() {
+            return (int)resultsByAlias.values().stream().filter(Result::isSuccess).count();
+        }
+
+        public List<Result> getFailures() {
+            return resultsByAlias.values().stream().filter(r -> !r.isSuccess()).collect(Collectors.toList());
+        }
+
+        public boolean allSucceeded() {
+            return !resultsByAlias.isEmpty() && getSuccessCount() == resultsByAlias.size();
+        }
+
+        /**
+         * @return true if the command succeeded on at least the given number of containers
+         */
+        public boolean hasQuorum(final int quorum) {
+            return getSuccessCount() >= quorum;
+        }
+
+        /**
+         * @throws IllegalStateException if the results don't match the given predicate
+         */
+        public Results require(final Predicate<Results> predicate) {
+            if (!predicate.test(this)) {
+                throw new IllegalStateException("'" + command + "' did not succeed as required: " + this);
+            }
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("'%s' succeeded on %d/%d container(s) in %dms: %s", command,
+                    getSuccessCount(), resultsByAlias.size(), durationMs, resultsByAlias.values());
+        }
+    }
+
+    /**
+     * Succeeds when the command succeeded on all of the containers.
+     */
+    public static Predicate<Results> allSucceed() {
+        return Results::allSucceeded;
+    }
+
+    /**
+     * Succeeds when the command succeeded on at least the given number of containers.
+     */
+    public static Predicate<Results> quorum(final int quorum) {
+        return results -> results.hasQuorum(quorum);
+    }
+
+    /**
+     * Succeeds when the command succeeded on more than half of the containers.
+     */
+    public static Predicate<Results> majority() {
+        return results -> results.getSuccessCount() > results.getResultsByAlias().size() / 2;
+    }
+
+    private final TestEnvironment environment;
+    private final String username;
+    private final String password;
+
+    public ClusterShell(final TestEnvironment environment) {
+        this(environment, "admin", "admin");
+    }
+
+    public ClusterShell(final TestEnvironment environment, final String username, final String password) {
+        this.environment = environment;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Runs the given command on every container of the given kind in the environment.
+     */
+    public Results run(final Kind kind, final String command) {
+        return run(kind, command, SshClient.DEFAULT_EXEC_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the given command on every container of the given kind in the environment.
+     */
+    public Results run(final Kind kind, final String command, final long timeout, final TimeUnit unit) {
+        final List<ContainerAlias> aliases = kind.getAliases().stream()
+                .filter(environment.getContainerAliases()::contains)
+                .collect(Collectors.toList());
+        return run(aliases, command, timeout, unit);
+    }
+
+    /**
+     * Runs the given command on each of the given containers.
+     *
+     * @throws IllegalArgumentException if any of the containers does not run a Karaf shell
+     */
+    public Results run(final Collection<ContainerAlias> aliases, final String command, final long timeout, final TimeUnit unit) {
+        final long start = System.currentTimeMillis();
+        final Map<ContainerAlias, CompletableFuture<Result>> futures = new EnumMap<>(ContainerAlias.class);
+        for (final ContainerAlias alias : aliases) {
+            final Kind kind = Kind.of(alias);
+            if (kind == null) {
+                throw new IllegalArgumentException("Container " + alias + " does not run a Karaf shell.");
+            }
+            futures.put(alias, CompletableFuture.supplyAsync(() -> runOn(alias, kind, command, timeout, unit), EXECUTOR));
+        }
+
+        final Map<ContainerAlias, Result> resultsByAlias = new EnumMap<>(ContainerAlias.class);
+        futures.forEach((alias, future) -> resultsByAlias.put(alias, future.join()));
+        final Results results = new Results(command, resultsByAlias, System.currentTimeMillis() - start);
+        LOG.info("{}", results);
+        return results;
+    }
+
+    private Result runOn(final ContainerAlias alias, final Kind kind, final String command, final long timeout, final TimeUnit unit) {
+        final long start = System.currentTimeMillis();
+        try (final SshClient sshClient = new SshClient(environment.getServiceAddress(alias, kind.getPort()), username, password)) {
+            final CommandResult commandResult = sshClient.exec(command, timeout, unit);
+            return new Result(alias, commandResult, null, System.currentTimeMillis() - start);
+        } catch (final Exception e) {
+            LOG.debug("Failed to run '{}' on {}.", command, alias, e);
+            return new Result(alias, null, e, System.currentTimeMillis() - start);
+        }
+    }
+}
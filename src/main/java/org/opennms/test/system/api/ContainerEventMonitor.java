@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.EventsParam;
+import com.spotify.docker.client.EventStream;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.Event;
+
+/**
+ * Follows the Docker daemon's event stream for the containers we create.
+ *
+ * Containers that die or are killed by the OOM killer are recorded as failures,
+ * which allows the waiters to give up immediately instead of waiting until they
+ * time out. Any event related to a watched container (i.e. a health status change)
+ * also wakes up the waiters blocked in {@link #awaitEvent(long, TimeUnit)}, so that
+ * they can re-evaluate their condition without waiting for the next poll.
+ *
+ * If the event stream is unavailable, the waiters simply fall back to polling.
+ */
+public class ContainerEventMonitor implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContainerEventMonitor.class);
+
+    private final DockerClient docker;
+
+    private final Map<String, ContainerAlias> aliasesById = new ConcurrentHashMap<>();
+
+    private final Map<ContainerAlias, String> failuresByAlias = new ConcurrentHashMap<>();
+
+    private final Object lock = new Object();
+
+    private volatile EventStream eventStream;
+
+    private volatile boolean closed = false;
+
+    public ContainerEventMonitor(final DockerClient docker) {
+        this.docker = docker;
+    }
+
+    /**
+     * Subscribes to the event stream and starts dispatching events in the background.
+     */
+    public void start() {
+        try {
+            eventStream = docker.events(EventsParam.type(Event.Type.CONTAINER));
+        } catch (final DockerException | InterruptedException e) {
+            LOG.warn("Failed to subscribe to the Docker event stream. Falling back to polling.", e);
+            return;
+        }
+
+        final Thread thread = new Thread(this::dispatch, "docker-event-monitor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts tracking the given container. This should be called before the
+     * container is started, so that no events are missed.
+     */
+    public void watch(final String containerId, final ContainerAlias alias) {
+        aliasesById.put(containerId, alias);
+    }
+
+    /**
+     * @throws IllegalStateException if any of the watched containers have died
+     */
+    public void checkFailures() {
+        if (!failuresByAlias.isEmpty()) {
+            throw new IllegalStateException("Container(s) failed before the environment was ready: " + failuresByAlias);
+        }
+    }
+
+    /**
+     * Blocks until an event is received for any of the watched containers,
+     * or until the given time elapses.
+     */
+    public void awaitEvent(final long time, final TimeUnit unit) throws InterruptedException {
+        final long millis = Math.max(1, unit.toMillis(time));
+        synchronized (lock) {
+            lock.wait(millis);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        final EventStream stream = eventStream;
+        eventStream = null;
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (final Exception e) {
+                LOG.debug("Failed to close the event stream.", e);
+            }
+        }
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    private void dispatch() {
+        final EventStream stream = eventStream;
+        try {
+            while (!closed && stream != null && stream.hasNext()) {
+                handle(stream.next());
+            }
+        } catch (final Exception e) {
+            if (!closed) {
+                LOG.warn("Lost the Docker event stream. Falling back to polling.", e);
+            }
+        }
+    }
+
+    private void handle(final Event event) {
+        final String containerId = event.actor() != null ? event.actor().id() : event.id();
+        final ContainerAlias alias = containerId == null ? null : aliasesById.get(containerId);
+        if (alias == null) {
+            return;
+        }
+
+        final String action = event.action() != null ? event.action() : event.status();
+        LOG.debug("Received event '{}' for container {} ({})", action, alias, containerId);
+        if ("die".equals(action) || "oom".equals(action)) {
+            final Map<String, String> attributes = event.actor() != null ? event.actor().attributes() : null;
+            final String exitCode = attributes != null ? attributes.get("exitCode") : null;
+            final String reason = "oom".equals(action) ? "killed by the OOM killer" : "died with exit code " + exitCode;
+            if (!closed) {
+                LOG.error("************************************************************");
+                LOG.error("Container {} ({}) {}.", alias, containerId, reason);
+                LOG.error("************************************************************");
+            }
+            failuresByAlias.putIfAbsent(alias, reason);
+        } else if (action != null && action.startsWith("health_status")) {
+            LOG.info("Container {} ({}) reported {}", alias, containerId, action);
+        }
+
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api;
+
+import java.net.InetSocketAddress;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.postgresql.Driver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checkpoints the OpenNMS database by cloning it to a template database,
+ * and resets it by recreating it from that template.
+ *
+ * PostgreSQL copies the template at the file level, so a reset takes
+ * milliseconds for a freshly installed database. Neither operation can run
+ * while other sessions are connected to the source database, so any existing
+ * connections are terminated and new ones are refused for the duration.
+ */
+public class DatabaseCheckpoint {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DatabaseCheckpoint.class);
+
+    public static final String DEFAULT_DATABASE = "opennms";
+
+    private static final String OBJECT_IN_USE = "55006";
+
+    private static final long IN_USE_TIMEOUT_MS = 10 * 1000;
+
+    private final InetSocketAddress address;
+
+    private final String database;
+
+    private final String template;
+
+    private final String username;
+
+    private final String password;
+
+    public DatabaseCheckpoint(final InetSocketAddress address) {
+        this(address, DEFAULT_DATABASE, "postgres", "");
+    }
+
+    public DatabaseCheckpoint(final InetSocketAddress address, final String database, final String username, final String password) {
+        this.address = address;
+        this.database = database;
+        this.template = database + "_checkpoint";
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Opens a connection to the given database on the PostgreSQL server at the given address.
+     */
+    public static Connection connect(final InetSocketAddress address, final String database, final String username, final String password) throws SQLException {
+        final String url = String.format("jdbc:postgresql://%s:%d/%s", address.getHostString(), address.getPort(), database);
+        final Properties props = new Properties();
+        props.setProperty("user", username);
+        props.setProperty("password", password);
+        final Connection connection = new Driver().connect(url, props);
+        if (connection == null) {
+            throw new SQLException("Invalid JDBC URL: " + url);
+        }
+        return connection;
+    }
+
+    /**
+     * @return true if a checkpoint was taken for this database
+     */
+    public boolean exists() throws SQLException {
+        try (final Connection connection = connectToMaintenanceDatabase()) {
+            return getOwner(connection, template) != null;
+        }
+    }
+
+    /**
+     * Replaces the checkpoint with the current contents of the database.
+     */
+    public void checkpoint() throws SQLException, InterruptedException {
+        final long start = System.currentTimeMillis();
+        try (final Connection connection = connectToMaintenanceDatabase();
+             final Statement statement = connection.createStatement()) {
+            disconnect(connection, database);
+            try {
+                statement.execute("DROP DATABASE IF EXISTS " + quote(template));
+                createDatabase(connection, template, database, getOwner(connection, database));
+                // Nobody should connect to the template, or the next reset will fail
+                statement.execute("ALTER DATABASE " + quote(template) + " ALLOW_CONNECTIONS false");
+            } finally {
+                statement.execute("ALTER DATABASE " + quote(database) + " ALLOW_CONNECTIONS true");
+            }
+        }
+        LOG.info("Checkpointed database {} in {}ms.", database, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Recreates the database from the last checkpoint.
+     *
+     * @throws IllegalStateException if no checkpoint was taken
+     */
+    public void reset() throws SQLException, InterruptedException {
+        final long start = System.currentTimeMillis();
+        try (final Connection connection = connectToMaintenanceDatabase();
+             final Statement statement = connection.createStatement()) {
+            if (getOwner(connection, template) == null) {
+                throw new IllegalStateException("No checkpoint was taken for database " + database);
+            }
+            final String owner = getOwner(connection, database);
+            if (owner != null) {
+                disconnect(connection, database);
+                executeWhileInUse(statement, "DROP DATABASE " + quote(database));
+            }
+            // The new database accepts connections by default
+            createDatabase(connection, database, template, owner != null ? owner : getOwner(connection, template));
+        }
+        LOG.info("Reset database {} in {}ms.", database, System.currentTimeMillis() - start);
+    }
+
+    private Connection connectToMaintenanceDatabase() throws SQLException {
+        final Connection connection = connect(address, "postgres", username, password);
+        connection.setAutoCommit(true);
+        return connection;
+    }
+
+    /**
+     * Refuses new connections to the given database and terminates the existing ones.
+     */
+    private static void disconnect(final Connection connection, final String database) throws SQLException {
+        try (final Statement statement = connection.createStatement()) {
+            statement.execute("ALTER DATABASE " + quote(database) + " ALLOW_CONNECTIONS false");
+        }
+        try (final PreparedStatement statement = connection.prepareStatement(
+                "SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE datname = ? AND pid <> pg_backend_pid()")) {
+            statement.setString(1, database);
+            try (final ResultSet rs = statement.executeQuery()) {
+                int terminated = 0;
+                while (rs.next()) {
+                    terminated++;
+                }
+                LOG.debug("Terminated {} connection(s) to database {}.", terminated, database);
+            }
+        }
+    }
+
+    private static void createDatabase(final Connection connection, final String database, final String template, final String owner) throws SQLException, InterruptedException {
+        try (final Statement statement = connection.createStatement()) {
+            executeWhileInUse(statement, "CREATE DATABASE " + quote(database) + " TEMPLATE " + quote(template)
+                + (owner != null ? " OWNER " + quote(owner) : ""));
+        }
+    }
+
+    /**
+     * Terminated backends take a moment to exit, so retry the statement for as
+     * long as the database is reported as being in use.
+     */
+    private static void executeWhileInUse(final Statement statement, final String sql) throws SQLException, InterruptedException {
+        final long deadline = System.currentTimeMillis() + IN_USE_TIMEOUT_MS;
+        while (true) {
+            try {
+                statement.execute(sql);
+                return;
+            } catch (final SQLException e) {
+                if (!OBJECT_IN_USE.equals(e.getSQLState()) || System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                LOG.debug("Database is still in use, retrying: {}", e.getMessage());
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static String getOwner(final Connection connection, final String database) throws SQLException {
+        try (final PreparedStatement statement = connection.prepareStatement(
+                "SELECT pg_get_userbyid(datdba) FROM pg_database WHERE datname = ?")) {
+            statement.setString(1, database);
+            try (final ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private static String quote(final String identifier) {
+        return "\"" + identifier.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -0,0 +1,377 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bulk loads generated rows into the OpenNMS database using the COPY protocol.
+ *
+ * The rows are encoded in COPY's text format into a fixed size buffer, which is
+ * sent to the server whenever it fills up, so that no more than the buffer is
+ * ever held in memory, regardless of the number of rows.
+ */
+public class DatabaseSeeder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DatabaseSeeder.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The id of the OpenNMS system in the monitoringsystems table, which the
+     * events and alarms of the OpenNMS instance itself refer to.
+     */
+    public static final String DEFAULT_SYSTEM_ID = "00000000-0000-0000-0000-000000000000";
+
+    /**
+     * The distributed poller name used by schemas that predate the system ids.
+     */
+    private static final String LEGACY_DISTPOLLER_NAME = "localhost";
+
+    /**
+     * Generates the values of a row.
+     */
+    @FunctionalInterface
+    public static interface RowGenerator {
+        /**
+         * Adds the values of the given row, in the order of the columns.
+         */
+        void generate(long index, Row row) throws Exception;
+    }
+
+    /**
+     * The outcome of {@link DatabaseSeeder#seed(String, List, long, RowGenerator)}.
+     */
+    public static class SeedResult {
+        private final String table;
+        private final long rows;
+        private final long durationMs;
+
+        private SeedResult(final String table, final long rows, final long durationMs) {
+            this.table = table;
+            this.rows = rows;
+            this.durationMs = durationMs;
+        }
+
+        public String getTable() {
+            return table;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public double getRowsPerSecond() {
+            return rows * 1000d / Math.max(1, durationMs);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Loaded %d rows into %s in %dms (%.0f rows/s)", rows, table, durationMs, getRowsPerSecond());
+        }
+    }
+
+    /**
+     * Encodes the values of a row in COPY's text format.
+     */
+    public static class Row {
+        private final CopyIn copyIn;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0;
+        private boolean first = true;
+
+        private Row(final CopyIn copyIn) {
+            this.copyIn = copyIn;
+        }
+
+        public Row add(final long value) throws SQLException {
+            separate();
+            if (value == Long.MIN_VALUE) {
+                return appendAscii(Long.toString(value));
+            }
+            ensureCapacity(20);
+            long remaining = value;
+            if (remaining < 0) {
+                buffer[position++] = '-';
+                remaining = -remaining;
+            }
+            final int start = position;
+            do {
+                buffer[position++] = (byte)('0' + remaining % 10);
+                remaining /= 10;
+            } while (remaining > 0);
+            // The digits were written in reverse
+            for (int i = start, j = position - 1; i < j; i++, j--) {
+                final byte b = buffer[i];
+                buffer[i] = buffer[j];
+                buffer[j] = b;
+            }
+            return this;
+        }
+
+        public Row add(final Integer value) throws SQLException {
+            return value == null ? addNull() : add(value.longValue());
+        }
+
+        public Row add(final Long value) throws SQLException {
+            return value == null ? addNull() : add(value.longValue());
+        }
+
+        public Row add(final String value) throws SQLException {
+            if (value == null) {
+                return addNull();
+            }
+            separate();
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                switch (c) {
+                case '\\': appendEscaped('\\'); break;
+                case '\t': appendEscaped('t'); break;
+                case '\n': appendEscaped('n'); break;
+                case '\r': appendEscaped('r'); break;
+                default:
+                    if (c < 0x80) {
+                        ensureCapacity(1);
+                        buffer[position++] = (byte)c;
+                    } else {
+                        appendUtf8(value, i);
+                        // Skip the low surrogate, if any
+                        if (Character.isHighSurrogate(c) && i + 1 < value.length()) {
+                            i++;
+                        }
+                    }
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Adds a timestamp, in UTC.
+         */
+        public Row addTimestamp(final long epochMillis) throws SQLException {
+            separate();
+            return appendAscii(Instant.ofEpochMilli(epochMillis).toString());
+        }
+
+        public Row addNull() throws SQLException {
+            separate();
+            ensureCapacity(2);
+            buffer[position++] = '\\';
+            buffer[position++] = 'N';
+            return this;
+        }
+
+        private void endRow() throws SQLException {
+            ensureCapacity(1);
+            buffer[position++] = '\n';
+            first = true;
+        }
+
+        private void separate() throws SQLException {
+            if (first) {
+                first = false;
+            } else {
+                ensureCapacity(1);
+                buffer[position++] = '\t';
+            }
+        }
+
+        private Row appendAscii(final String value) throws SQLException {
+            ensureCapacity(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                buffer[position++] = (byte)value.charAt(i);
+            }
+            return this;
+        }
+
+        private void appendEscaped(final char c) throws SQLException {
+            ensureCapacity(2);
+            buffer[position++] = '\\';
+            buffer[position++] = (byte)c;
+        }
+
+        private void appendUtf8(final String value, final int index) throws SQLException {
+            final int end = Character.isHighSurrogate(value.charAt(index)) && index + 1 < value.length() ? index + 2 : index + 1;
+            final byte[] bytes = value.substring(index, end).getBytes(StandardCharsets.UTF_8);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+        private void ensureCapacity(final int length) throws SQLException {
+            if (position + length > buffer.length) {
+                flush();
+            }
+        }
+
+        private void flush() throws SQLException {
+            if (position > 0) {
+                copyIn.writeToCopy(buffer, 0, position);
+                position = 0;
+            }
+        }
+    }
+
+    private final InetSocketAddress address;
+
+    private final String database;
+
+    private final String username;
+
+    private final String password;
+
+    public DatabaseSeeder(final InetSocketAddress address) {
+        this(address, DatabaseCheckpoint.DEFAULT_DATABASE, "postgres", "");
+    }
+
+    public DatabaseSeeder(final InetSocketAddress address, final String database, final String username, final String password) {
+        this.address = address;
+        this.database = database;
+        this.username = username;
+        this.password = password;
+    }
+
+    /**
+     * Loads the given number of generated rows into the given columns of the given table.
+     *
+     * The rows are loaded in a single transaction, so either all or none of them are visible.
+     */
+    public SeedResult seed(final String table, final List<String> columns, final long rows, final RowGenerator generator) throws Exception {
+        final String sql = String.format("COPY %s (%s) FROM STDIN", table, String.join(", ", columns));
+        final long start = System.currentTimeMillis();
+        try (final Connection connection = DatabaseCheckpoint.connect(address, database, username, password)) {
+            final CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(sql);
+            try {
+                final Row row = new Row(copyIn);
+                for (long i = 0; i < rows; i++) {
+                    generator.generate(i, row);
+                    row.endRow();
+                }
+                row.flush();
+                final long copied = copyIn.endCopy();
+                final SeedResult result = new SeedResult(table, copied, System.currentTimeMillis() - start);
+                LOG.info("{}", result);
+                return result;
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reserves a block of consecutive values from the given sequence, so that rows can
+     * be loaded with ids that OpenNMS won't hand out again.
+     *
+     * Values handed out by other sessions while the block is being reserved may fall
+     * into it, so this should be done while nothing else is using the sequence.
+     *
+     * @return the first value of the block
+     */
+    public long reserveIds(final String sequence, final long count) throws SQLException {
+        try (final Connection connection = DatabaseCheckpoint.connect(address, database, username, password);
+             final Statement statement = connection.createStatement();
+             final ResultSet rs = statement.executeQuery(String.format("SELECT setval('%s', nextval('%s') + %d - 1)", sequence, sequence, count))) {
+            rs.next();
+            return rs.getLong(1) - count + 1;
+        }
+    }
+
+    /**
+     * Loads the given number of events with the given UEI into the events table, spaced
+     * by the given interval starting at the given time. The ids are reserved from eventsNxtId.
+     *
+     * The events belong to the OpenNMS system, see {@link #DEFAULT_SYSTEM_ID}.
+     */
+    public SeedResult seedEvents(final long count, final String uei, final long startMillis, final long intervalMs) throws Exception {
+        return seedEvents(count, uei, startMillis, intervalMs, DEFAULT_SYSTEM_ID);
+    }
+
+    /**
+     * @param systemId the id of the system the events belong to, which must exist in the monitoringsystems
+     *        table, and is ignored by older schemas that have a distributed poller name instead
+     */
+    public SeedResult seedEvents(final long count, final String uei, final long startMillis, final long intervalMs, final String systemId) throws Exception {
+        final String systemColumn = getSystemColumn("events");
+        final String system = "eventdpname".equals(systemColumn) ? LEGACY_DISTPOLLER_NAME : systemId;
+        final long firstId = reserveIds("eventsNxtId", count);
+        final List<String> columns = Arrays.asList("eventid", "eventuei", systemColumn, "eventtime", "eventsource", "eventcreatetime",
+                "eventseverity", "eventdescr", "eventlogmsg", "eventlog", "eventdisplay");
+        return seed("events", columns, count, (i, row) -> {
+            final long time = startMillis + i * intervalMs;
+            row.add(firstId + i)
+                .add(uei)
+                .add(system)
+                .addTimestamp(time)
+                .add("DatabaseSeeder")
+                .addTimestamp(time)
+                .add(1L)
+                .add("Seeded event")
+                .add("Seeded event #" + i)
+                .add("Y")
+                .add("Y");
+        });
+    }
+
+    /**
+     * Returns the required column that identifies the system of the rows of the given table:
+     * systemid in current schemas, or the distributed poller name in older ones.
+     */
+    private String getSystemColumn(final String table) throws SQLException {
+        try (final Connection connection = DatabaseCheckpoint.connect(address, database, username, password);
+             final PreparedStatement statement = connection.prepareStatement("SELECT column_name FROM information_schema.columns"
+                     + " WHERE table_name = ? AND column_name IN ('systemid', 'eventdpname') ORDER BY column_name DESC")) {
+            statement.setString(1, table);
+            try (final ResultSet rs = statement.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("The " + table + " table has neither a systemid nor an eventdpname column.");
+                }
+                return rs.getString(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+import org.opennms.test.system.api.utils.Fingerprint;
+import org.opennms.test.system.api.utils.OverlayStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.spotify.docker.client.DefaultDockerClient;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerClient.ListContainersParam;
+import com.spotify.docker.client.DockerClient.RemoveContainerParam;
+import com.spotify.docker.client.exceptions.ContainerNotFoundException;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.messages.Container;
+
+/**
+ * Keeps started environments around so that they can be reused by other test classes,
+ * including test classes running in other JVMs (i.e. surefire forks).
+ *
+ * Environments are identified by a key computed from the set of containers, their images
+ * and the contents of the overlays. The containers of a pooled environment are labeled
+ * with this key, which allows any JVM on the same host to find them again using the
+ * Docker API.
+ *
+ * Leases are coordinated with file locks in the temporary directory: a slot is in use
+ * for as long as a JVM holds its lock. When a lease is released, the time is recorded
+ * and the environment is destroyed by the next sweep once it has been idle for longer
+ * than the TTL.
+ */
+public class EnvironmentPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EnvironmentPool.class);
+
+    public static final String KEY_LABEL = "org.opennms.test.system.pool.key";
+
+    public static final String SLOT_LABEL = "org.opennms.test.system.pool.slot";
+
+    public static final String ALIAS_LABEL = "org.opennms.test.system.pool.alias";
+
+    public static final long DEFAULT_IDLE_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * Maximum number of identical environments that can be running at the same time,
+     * when the same environment is leased by concurrent forks.
+     */
+    public static final int MAX_SLOTS = 4;
+
+    private static final Path STATE_DIRECTORY = Paths.get(System.getProperty("java.io.tmpdir"), "opennms-system-test-pool");
+
+    private static volatile boolean shutdownSweepRegistered = false;
+
+    private final DockerClient docker;
+
+    private final long idleTtlMs;
+
+    /**
+     * An environment that is in use by this JVM.
+     */
+    public static class Lease {
+        private final String key;
+        private final int slot;
+        private final FileChannel channel;
+        private final FileLock lock;
+        private final Map<ContainerAlias, String> containerIds;
+
+        private Lease(final String key, final int slot, final FileChannel channel, final FileLock lock, final Map<ContainerAlias, String> containerIds) {
+            this.key = key;
+            this.slot = slot;
+            this.channel = channel;
+            this.lock = lock;
+            this.containerIds = containerIds;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        /**
+         * Returns the IDs of the running containers that were found in the pool,
+         * or an empty map if the environment needs to be created.
+         */
+        public Map<ContainerAlias, String> getContainerIds() {
+            return Collections.unmodifiableMap(containerIds);
+        }
+
+        /**
+         * Returns the labels that must be applied to the containers of this environment.
+         */
+        public Map<String, String> getLabels(final ContainerAlias alias) {
+            return ImmutableMap.of(KEY_LABEL, key,
+                    SLOT_LABEL, Integer.toString(slot),
+                    ALIAS_LABEL, alias.name());
+        }
+    }
+
+    public EnvironmentPool(final DockerClient docker, final long idleTtlMs) {
+        this.docker = docker;
+        this.idleTtlMs = idleTtlMs;
+    }
+
+    /**
+     * Computes the key for an environment with the given containers, overlays and any
+     * other settings that affect the way the containers are created.
+     */
+    public static String computeKey(final Collection<ContainerAlias> aliases, final Map<ContainerAlias, String> images, final Map<String, ?> settings, final Path... overlays) throws IOException {
+        final Fingerprint fingerprint = new Fingerprint();
+        for (final ContainerAlias alias : new TreeSet<>(aliases)) {
+            fingerprint.update(alias.name()).update(images.get(alias));
+        }
+        for (final Map.Entry<String, ?> setting : new TreeMap<>(settings).entrySet()) {
+            fingerprint.update(setting.getKey()).update(String.valueOf(setting.getValue()));
+        }
+        for (final Path overlay : overlays) {
+            fingerprint.update(OverlayStore.getInstance().fingerprint(overlay));
+        }
+        return fingerprint.toHex();
+    }
+
+    /**
+     * Leases an environment with the given key.
+     *
+     * If a complete and running environment is available, the returned lease contains
+     * its containers. Otherwise, the lease is empty and the caller is expected to create
+     * the containers with the labels of the lease.
+     *
+     * @return the lease, or null if all of the slots for this key are in use
+     */
+    public Lease lease(final String key, final Collection<ContainerAlias> aliases) throws IOException, DockerException, InterruptedException {
+        Files.createDirectories(STATE_DIRECTORY);
+        for (int slot = 0; slot < MAX_SLOTS; slot++) {
+            final FileChannel channel = FileChannel.open(getLockFile(key, slot), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            final FileLock lock = tryLock(channel);
+            if (lock == null) {
+                channel.close();
+                continue;
+            }
+
+            final Map<ContainerAlias, String> containerIds = new EnumMap<>(ContainerAlias.class);
+            final List<Container> containers = findContainers(key, slot);
+            final boolean complete = containers.stream().allMatch(c -> "running".equals(c.state()))
+                    && containers.stream().map(c -> c.labels().get(ALIAS_LABEL)).collect(Collectors.toSet())
+                        .equals(aliases.stream().map(ContainerAlias::name).collect(Collectors.toSet()));
+            if (complete) {
+                containers.forEach(c -> containerIds.put(ContainerAlias.valueOf(c.labels().get(ALIAS_LABEL)), c.id()));
+                LOG.info("Leased pooled environment {} (slot {}): {}", key, slot, containerIds.keySet());
+            } else {
+                if (!containers.isEmpty()) {
+                    LOG.info("Pooled environment {} (slot {}) is incomplete. Replacing it.", key, slot);
+                    removeContainers(containers);
+                }
+                LOG.info("Leased empty slot {} for environment {}.", slot, key);
+            }
+            Files.deleteIfExists(getIdleFile(key, slot));
+            return new Lease(key, slot, channel, lock, containerIds);
+        }
+        LOG.warn("All {} slots of pooled environment {} are in use.", MAX_SLOTS, key);
+        return null;
+    }
+
+    /**
+     * Returns the environment to the pool, making it available to other test classes.
+     */
+    public void release(final Lease lease) throws IOException {
+        Files.write(getIdleFile(lease.key, lease.slot), Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8));
+        unlock(lease);
+        LOG.info("Released pooled environment {} (slot {}).", lease.key, lease.slot);
+    }
+
+    /**
+     * Gives up the lease without returning the environment to the pool. The caller
+     * is expected to have destroyed the containers.
+     */
+    public void discard(final Lease lease) throws IOException {
+        Files.deleteIfExists(getIdleFile(lease.key, lease.slot));
+        unlock(lease);
+    }
+
+    /**
+     * Destroys the pooled environments that are not leased and that have been idle
+     * for longer than the TTL, or that were never released.
+     *
+     * @return the number of environments that were destroyed
+     */
+    public int sweep() throws IOException, DockerException, InterruptedException {
+        return sweep(idleTtlMs);
+    }
+
+    /**
+     * Destroys all of the pooled environments that are not leased, regardless of how
+     * long they have been idle. Meant to be run once the last test class of a build
+     * is done, see {@link #main(String[])}.
+     *
+     * @return the number of environments that were destroyed
+     */
+    public int reap() throws IOException, DockerException, InterruptedException {
+        return sweep(0);
+    }
+
+    private int sweep(final long ttlMs) throws IOException, DockerException, InterruptedException {
+        final Map<String, List<Container>> containersBySlot = docker.listContainers(ListContainersParam.allContainers(), ListContainersParam.withLabel(KEY_LABEL))
+                .stream()
+                // Containers restored from a snapshot carry empty labels
+                .filter(c -> !Strings.isNullOrEmpty(c.labels().get(KEY_LABEL)))
+                .collect(Collectors.groupingBy(c -> c.labels().get(KEY_LABEL) + "/" + c.labels().get(SLOT_LABEL)));
+        if (containersBySlot.isEmpty()) {
+            return 0;
+        }
+
+        Files.createDirectories(STATE_DIRECTORY);
+        int destroyed = 0;
+        for (final Map.Entry<String, List<Container>> entry : containersBySlot.entrySet()) {
+            final String key = entry.getKey().substring(0, entry.getKey().indexOf('/'));
+            final int slot;
+            try {
+                slot = Integer.parseInt(entry.getKey().substring(entry.getKey().indexOf('/') + 1));
+            } catch (final NumberFormatException e) {
+                LOG.warn("Ignoring pooled containers with an invalid slot: {}", entry.getKey());
+                continue;
+            }
+
+            try (final FileChannel channel = FileChannel.open(getLockFile(key, slot), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                final FileLock lock = tryLock(channel);
+                if (lock == null) {
+                    // Leased
+                    continue;
+                }
+                try {
+                    final Long idleSince = getIdleSince(key, slot);
+                    final long now = System.currentTimeMillis();
+                    if (idleSince == null || now - idleSince >= ttlMs) {
+                        LOG.info("Destroying pooled environment {} (slot {}), {}.", key, slot,
+                                idleSince == null ? "which was never released" : "which has been idle for " + (now - idleSince) + "ms");
+                        removeContainers(entry.getValue());
+                        Files.deleteIfExists(getIdleFile(key, slot));
+                        destroyed++;
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+        return destroyed;
+    }
+
+    /**
+     * Sweeps the pool when the JVM exits, so that expired environments
+     * don't outlive the last test run.
+     *
+     * The environments released by the last test classes have not expired yet when
+     * their JVM exits, and this JVM cannot tell whether another fork is about to lease
+     * them, so they are left running. Run {@link #main(String[])} at the end of the
+     * build to destroy them.
+     */
+    public static synchronized void registerShutdownSweep(final long idleTtlMs) {
+        if (shutdownSweepRegistered) {
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try (final DockerClient docker = DefaultDockerClient.fromEnv().build()) {
+                new EnvironmentPool(docker, idleTtlMs).sweep();
+            } catch (final Exception e) {
+                LOG.warn("Failed to sweep the environment pool.", e);
+            }
+        }, "environment-pool-sweeper"));
+        shutdownSweepRegistered = true;
+    }
+
+    /**
+     * Destroys all of the pooled environments that are not leased, i.e. from a
+     * post-integration-test step of the build.
+     */
+    public static void main(final String[] args) throws Exception {
+        try (final DockerClient docker = DefaultDockerClient.fromEnv().build()) {
+            final int destroyed = new EnvironmentPool(docker, DEFAULT_IDLE_TTL_MS).reap();
+            LOG.info("Destroyed {} pooled environment(s).", destroyed);
+        }
+    }
+
+    private List<Container> findContainers(final String key, final int slot) throws DockerException, InterruptedException {
+        return docker.listContainers(ListContainersParam.allContainers(),
+                ListContainersParam.withLabel(KEY_LABEL, key),
+                ListContainersParam.withLabel(SLOT_LABEL, Integer.toString(slot)));
+    }
+
+    private void removeContainers(final List<Container> containers) throws InterruptedException {
+        for (final Container container : containers) {
+            try {
+                docker.removeContainer(container.id(), RemoveContainerParam.forceKill(), RemoveContainerParam.removeVolumes());
+            } catch (final ContainerNotFoundException e) {
+                LOG.debug("Container {} is already gone.", container.id());
+            } catch (final DockerException e) {
+                LOG.warn("Failed to remove pooled container {}.", container.id(), e);
+            }
+        }
+    }
+
+    private Long getIdleSince(final String key, final int slot) {
+        final Path idleFile = getIdleFile(key, slot);
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(idleFile), StandardCharsets.UTF_8).trim());
+        } catch (final IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static FileLock tryLock(final FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (final OverlappingFileLockException e) {
+            // Already leased by this JVM
+            return null;
+        }
+    }
+
+    private static void unlock(final Lease lease) throws IOException {
+        try {
+            lease.lock.release();
+        } finally {
+            lease.channel.close();
+        }
+    }
+
+    private static Path getLockFile(final String key, final int slot) {
+        return STATE_DIRECTORY.resolve(key + "-" + slot + ".lock");
+    }
+
+    private static Path getIdleFile(final String key, final int slot) {
+        return STATE_DIRECTORY.resolve(key + "-" + slot + ".idle");
+    }
+}
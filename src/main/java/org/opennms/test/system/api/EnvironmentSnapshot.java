@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+import org.opennms.test.system.api.utils.Fingerprint;
+import org.opennms.test.system.api.utils.OverlayStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableMap;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+import com.spotify.docker.client.exceptions.ImageNotFoundException;
+import com.spotify.docker.client.messages.ContainerConfig;
+import com.spotify.docker.client.messages.ContainerInfo;
+
+/**
+ * Snapshots of a fully installed PostgreSQL and OpenNMS pair.
+ *
+ * The first environment to start commits its PostgreSQL and OpenNMS containers to locally
+ * tagged images once OpenNMS is ready. Later environments start from these images instead,
+ * and the OpenNMS bootstrap script skips the installer, so that neither the schema nor
+ * Karaf's first boot need to be repeated.
+ *
+ * The tag is derived from the IDs of the base images, the contents of the OpenNMS overlay
+ * and the set of containers that OpenNMS is configured to talk to, so that a snapshot
+ * is never restored into an environment that would have been installed differently.
+ */
+public class EnvironmentSnapshot {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EnvironmentSnapshot.class);
+
+    public static final String REPOSITORY_PREFIX = "stests/snapshot-";
+
+    /**
+     * Tells the OpenNMS bootstrap script that it is started from a snapshot.
+     */
+    public static final String RESTORE_ENV = "OPENNMS_SNAPSHOT=restore";
+
+    /**
+     * The PostgreSQL image stores its data on a volume, which is not included when committing
+     * the container, so the data is kept in the container's file system instead.
+     */
+    public static final String PGDATA_ENV = "PGDATA=/var/lib/postgresql/snapshot-data";
+
+    public static final List<ContainerAlias> ALIASES = Arrays.asList(ContainerAlias.POSTGRES, ContainerAlias.OPENNMS);
+
+    /**
+     * Containers that alter the OpenNMS configuration when they are enabled.
+     */
+    private static final List<ContainerAlias> INTEGRATIONS = Arrays.asList(ContainerAlias.CASSANDRA, ContainerAlias.KAFKA,
+            ContainerAlias.ELASTICSEARCH_2, ContainerAlias.ELASTICSEARCH_5, ContainerAlias.ELASTICSEARCH_6);
+
+    private final DockerClient docker;
+
+    private final String tag;
+
+    private final boolean available;
+
+    private EnvironmentSnapshot(final DockerClient docker, final String tag, final boolean available) {
+        this.docker = docker;
+        this.tag = tag;
+        this.available = available;
+    }
+
+    /**
+     * Looks up the snapshot for an environment with the given containers and overlay.
+     */
+    public static EnvironmentSnapshot lookup(final DockerClient docker, final Map<ContainerAlias, String> images, final Collection<ContainerAlias> containers, final Path overlayDirectory) throws DockerException, InterruptedException, IOException {
+        final Fingerprint fingerprint = new Fingerprint();
+        for (final ContainerAlias alias : ALIASES) {
+            fingerprint.update(alias.name()).update(docker.inspectImage(images.get(alias)).id());
+        }
+        for (final ContainerAlias alias : INTEGRATIONS) {
+            fingerprint.update(alias.name()).update(Boolean.toString(containers.contains(alias)));
+        }
+        fingerprint.update(OverlayStore.getInstance().fingerprint(overlayDirectory));
+        final String tag = fingerprint.toHex().substring(0, 20);
+
+        boolean available = true;
+        for (final ContainerAlias alias : ALIASES) {
+            try {
+                docker.inspectImage(getImage(alias, tag));
+            } catch (final ImageNotFoundException e) {
+                available = false;
+            }
+        }
+        LOG.info("Snapshot {} is {}.", tag, available ? "available" : "not available yet");
+        return new EnvironmentSnapshot(docker, tag, available);
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * @return true if the images of the snapshot exist, false if they still need to be committed
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Returns the images to use in place of the default images when restoring the snapshot.
+     */
+    public Map<ContainerAlias, String> getImages() {
+        final Map<ContainerAlias, String> images = new EnumMap<>(ContainerAlias.class);
+        ALIASES.forEach(alias -> images.put(alias, getImage(alias, tag)));
+        return images;
+    }
+
+    /**
+     * Returns the alias of the container that was started from the given snapshot image,
+     * or null if the image is not a snapshot.
+     */
+    public static ContainerAlias getAlias(final String image) {
+        for (final ContainerAlias alias : ALIASES) {
+            if (image != null && image.startsWith(REPOSITORY_PREFIX + alias.name().toLowerCase() + ":")) {
+                return alias;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Commits the given PostgreSQL and OpenNMS containers to the images of this snapshot.
+     *
+     * OpenNMS is paused while both containers are committed, so that its files
+     * (i.e. the Karaf data, etc and the RRDs) cannot move past the committed database.
+     * Docker only pauses a container for the commit if it isn't paused already, so
+     * OpenNMS stays paused throughout.
+     */
+    public void commit(final ContainerInfo postgres, final ContainerInfo opennms) throws DockerException, InterruptedException {
+        final long start = System.currentTimeMillis();
+        LOG.info("************************************************************");
+        LOG.info("Committing snapshot {}", tag);
+        LOG.info("************************************************************");
+
+        docker.pauseContainer(opennms.id());
+        try {
+            commit(ContainerAlias.POSTGRES, postgres);
+            commit(ContainerAlias.OPENNMS, opennms);
+        } finally {
+            docker.unpauseContainer(opennms.id());
+        }
+
+        LOG.info("Committed snapshot {} in {}ms.", tag, System.currentTimeMillis() - start);
+    }
+
+    private void commit(final ContainerAlias alias, final ContainerInfo containerInfo) throws DockerException, InterruptedException {
+        // The labels of the container are merged into the image, so clear the
+        // pool's labels to keep them from propagating to the restored containers
+        final ContainerConfig config = containerInfo.config().toBuilder()
+                .labels(ImmutableMap.of(EnvironmentPool.KEY_LABEL, "",
+                        EnvironmentPool.SLOT_LABEL, "",
+                        EnvironmentPool.ALIAS_LABEL, ""))
+                .build();
+        final String image = getImage(alias, tag);
+        docker.commitContainer(containerInfo.id(), image.substring(0, image.indexOf(':')), tag, config,
+                "Snapshot of a fully installed " + alias + " container", null);
+    }
+
+    private static String getImage(final ContainerAlias alias, final String tag) {
+        return REPOSITORY_PREFIX + alias.name().toLowerCase() + ":" + tag;
+    }
+}
@@ -27,6 +27,7 @@
  *******************************************************************************/
 package org.opennms.test.system.api;
 
+import java.util.EnumMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -57,6 +58,16 @@ public class ExistingTestEnvironment extends AbstractTestEnvironment implements
 
     private final Map<ContainerAlias, ContainerInfo> containerInfo = Maps.newHashMap();
 
+    private final EnumMap<TestEnvironmentProperty,Object> properties;
+
+    public ExistingTestEnvironment() {
+        this(new EnumMap<>(TestEnvironmentProperty.class));
+    }
+
+    public ExistingTestEnvironment(final EnumMap<TestEnvironmentProperty,Object> properties) {
+        this.properties = properties;
+    }
+
     @Override
     protected void before() throws Throwable {
         // Invert the map
@@ -67,16 +78,20 @@ public class ExistingTestEnvironment extends AbstractTestEnvironment implements
 
         docker = DefaultDockerClient.fromEnv().build();
         for (final Container container : docker.listContainers()) {
-            final ContainerAlias alias = aliasesByImage.get(container.image());
+            final ContainerAlias alias = aliasesByImage.containsKey(container.image()) ?
+                    aliasesByImage.get(container.image()) : EnvironmentSnapshot.getAlias(container.image());
             if (alias == null) {
                 continue;
             }
             containerInfo.put(alias, docker.inspectContainer(container.id()));
         }
+
+        startWatchingOverlays(properties);
     }
 
     @Override
     protected void after(final boolean didFail, final Throwable failure) {
+        stopWatchingOverlays();
         if (docker == null) {
             return;
         }
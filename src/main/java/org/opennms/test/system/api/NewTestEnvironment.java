@@ -27,21 +27,11 @@
  *******************************************************************************/
 package org.opennms.test.system.api;
 
-import static com.jayway.awaitility.Awaitility.await;
-import static java.util.concurrent.TimeUnit.MINUTES;
-import static java.util.concurrent.TimeUnit.SECONDS;
-import static org.hamcrest.Matchers.is;
-import static org.hamcrest.Matchers.notNullValue;
-
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.PrintStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
-import java.net.Socket;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -53,18 +43,23 @@ import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.Callable;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
-import org.apache.commons.lang.StringUtils;
 import org.apache.cxf.helpers.FileUtils;
-import org.opennms.test.system.api.utils.RestClient;
-import org.opennms.test.system.api.utils.SshClient;
+import org.opennms.test.system.api.utils.ContainerOutputCapture;
+import org.opennms.test.system.api.utils.OverlayArchive;
+import org.opennms.test.system.api.utils.OverlayStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -80,6 +75,7 @@ import com.spotify.docker.client.exceptions.ContainerNotFoundException;
 import com.spotify.docker.client.exceptions.DockerException;
 import com.spotify.docker.client.messages.ContainerConfig;
 import com.spotify.docker.client.messages.ContainerCreation;
+import com.spotify.docker.client.messages.ContainerExit;
 import com.spotify.docker.client.messages.ContainerInfo;
 import com.spotify.docker.client.messages.HostConfig;
 import com.spotify.docker.client.messages.HostConfig.Builder;
@@ -109,6 +105,22 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
     private static final Logger LOG = LoggerFactory.getLogger(NewTestEnvironment.class);
     private static final Random m_random = new Random();
 
+    private static final int DEFAULT_TEARDOWN_THREADS = 4;
+
+    private static final long OUTPUT_FOLLOWER_GRACE_PERIOD_MS = 30 * 1000;
+
+    private static final String CLEAN_DISABLED = "etc/clean.disabled";
+
+    private static class OutputFollower {
+        private final Thread thread;
+        private final LogStream logStream;
+
+        private OutputFollower(final Thread thread, final LogStream logStream) {
+            this.thread = thread;
+            this.logStream = logStream;
+        }
+    }
+
     /**
      * Aliases used to refer to the containers within the tests
      * Note that these are not the container IDs or names
@@ -165,6 +177,12 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
             .put(ContainerAlias.CASSANDRA, "cassandra:3.11")
             .build();
 
+    /**
+     * Mapping from the alias to the Docker image name used by this environment,
+     * which differs from the defaults when restoring a snapshot
+     */
+    private final Map<ContainerAlias, String> imagesByAlias = new EnumMap<>(IMAGES_BY_ALIAS);
+
     /**
      * The name of this test environment.
      */
@@ -199,23 +217,68 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
      * Keeps track of the IDs for all the created containers so we can
      * (possibly) tear them down later
      */
-    private final Set<String> createdContainerIds = Sets.newLinkedHashSet();
+    private final Set<String> createdContainerIds = Collections.synchronizedSet(Sets.newLinkedHashSet());
 
     /**
      * Keep track of container meta-data
      */
-    private final Map<ContainerAlias, ContainerInfo> containerInfoByAlias = Maps.newHashMap();
+    private final Map<ContainerAlias, ContainerInfo> containerInfoByAlias = Maps.newConcurrentMap();
 
     /**
-     * Keep track of used ports
+     * Background threads streaming the output of the containers to disk, by container ID
      */
-    private final Map<ContainerAlias, Set<Integer>> ports = Maps.newConcurrentMap();
+    private final Map<String, OutputFollower> outputFollowers = Maps.newConcurrentMap();
+
+    /**
+     * Time taken to stop and remove each container during tear down, in milliseconds
+     */
+    private final Map<ContainerAlias, Long> teardownTimes = Maps.newConcurrentMap();
+
+    /**
+     * Memory used by the tmpfs mounts of each container, in bytes
+     */
+    private final Map<ContainerAlias, Long> storageBudget = Maps.newConcurrentMap();
 
     /**
      * The Docker daemon client
      */
     private DockerClient docker;
 
+    /**
+     * Used to spawn and wait on the containers in parallel
+     */
+    private StartupScheduler startupScheduler;
+
+    /**
+     * Follows the Docker events for the created containers, so we can fail fast
+     */
+    private ContainerEventMonitor eventMonitor;
+
+    /**
+     * Decides when the containers are ready for use
+     */
+    private ReadinessEngine readinessEngine;
+
+    /**
+     * The pool from which the environment was leased, if pooling is enabled
+     */
+    private EnvironmentPool pool;
+
+    /**
+     * The lease on the pooled environment, or null if the environment is not pooled
+     */
+    private EnvironmentPool.Lease lease;
+
+    /**
+     * Set once all of the containers are ready
+     */
+    private volatile boolean started = false;
+
+    /**
+     * The snapshot of the PostgreSQL and OpenNMS containers, if snapshots are enabled
+     */
+    private EnvironmentSnapshot snapshot;
+
     public NewTestEnvironment(final String name, final EnumMap<TestEnvironmentProperty,Object> properties, final Path overlayDirectory, final Path minionOverlayDirectory, final Collection<ContainerAlias> containers) {
         this.properties = properties;
         this.overlayDirectory = overlayDirectory;
@@ -241,35 +304,183 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
     protected void before() throws Throwable {
         docker = DefaultDockerClient.fromEnv().build();
 
-        spawnKafka();
-        spawnElasticsearch2();
-        spawnElasticsearch5();
-        spawnElasticsearch6();
-        spawnCassandra();
-        waitForCassandra();
+        // Subscribe before creating any containers, so that no events are missed
+        eventMonitor = new ContainerEventMonitor(docker);
+        eventMonitor.start();
 
-        spawnPostgres();
-        waitForPostgres();
+        if ((Boolean)properties.getOrDefault(TestEnvironmentProperty.SNAPSHOT, Boolean.FALSE)) {
+            lookupSnapshot();
+        }
+        if (isPooled()) {
+            leaseFromPool();
+        }
 
         LOG.debug("Starting containers: {}", start);
 
-        spawnOpenNMS();
-        spawnSnmpd();
-        spawnTomcat();
-        spawnMinions();
+        readinessEngine = createReadinessEngine();
+        startupScheduler = createStartupScheduler();
+        startupScheduler.execute();
 
-        LOG.debug("Waiting for other containers to be ready: {}", start);
+        if (!storageBudget.isEmpty()) {
+            LOG.info("Ephemeral storage may use up to {}MB of memory: {}",
+                    storageBudget.values().stream().mapToLong(Long::longValue).sum() / (1024 * 1024), storageBudget);
+        }
 
-        waitForOpenNMS();
+        if ((Boolean)properties.getOrDefault(TestEnvironmentProperty.DATABASE_CHECKPOINT, Boolean.FALSE)
+                && isEnabled(ContainerAlias.POSTGRES) && isEnabled(ContainerAlias.OPENNMS)) {
+            if (isAdopted() && hasCheckpoint()) {
+                // Discard the changes made by the previous tenant of the pooled environment
+                reset();
+            } else {
+                checkpoint();
+            }
+        }
+        started = true;
+
+        startWatchingOverlays(properties);
+    }
+
+    /**
+     * Looks up the snapshot for this environment, and uses its images if they are available.
+     */
+    private void lookupSnapshot() throws DockerException, InterruptedException, IOException {
+        if (!(isEnabled(ContainerAlias.POSTGRES) && isEnabled(ContainerAlias.OPENNMS))) {
+            LOG.warn("Snapshots require both the PostgreSQL and the OpenNMS containers. Ignoring.");
+            return;
+        }
+        snapshot = EnvironmentSnapshot.lookup(docker, imagesByAlias, start, overlayDirectory);
+        if (snapshot.isAvailable()) {
+            LOG.info("Restoring PostgreSQL and OpenNMS from snapshot {}.", snapshot.getTag());
+            imagesByAlias.putAll(snapshot.getImages());
+        }
+    }
 
-        // Sentinel may require database access and opennms sets it up on first start,
-        // therefore we must wait for opennms, before sentinel can be spawned
-        spawnSentinel();
+    /**
+     * Commits the snapshot once OpenNMS is ready, unless it already exists.
+     * Containers adopted from the pool may have been modified by other tests,
+     * so they are never committed.
+     */
+    private StartupScheduler.Step commitSnapshotWhenReady(final StartupScheduler.Step waitForOpenNMS) {
+        return () -> {
+            if (waitForOpenNMS != null) {
+                waitForOpenNMS.run();
+            }
+            if (snapshot != null && !snapshot.isAvailable() && !isAdopted()) {
+                snapshot.commit(containerInfoByAlias.get(ContainerAlias.POSTGRES), containerInfoByAlias.get(ContainerAlias.OPENNMS));
+            }
+        };
+    }
+
+    /**
+     * @return true if the containers were adopted from the pool, instead of being created
+     */
+    private boolean isAdopted() {
+        return lease != null && !lease.getContainerIds().isEmpty();
+    }
+
+    private boolean isPooled() {
+        return (Boolean)properties.getOrDefault(TestEnvironmentProperty.POOLED, Boolean.FALSE);
+    }
+
+    /**
+     * Leases an identical environment from the pool. Any running containers found in
+     * the pool are adopted, so they are skipped when spawning the containers, and are
+     * only checked for readiness.
+     */
+    private void leaseFromPool() throws IOException, DockerException, InterruptedException {
+        final long idleTtlMs = (Long)properties.getOrDefault(TestEnvironmentProperty.POOL_IDLE_TTL, EnvironmentPool.DEFAULT_IDLE_TTL_MS);
+        pool = new EnvironmentPool(docker, idleTtlMs);
+        EnvironmentPool.registerShutdownSweep(idleTtlMs);
+        pool.sweep();
+
+        final Map<String, Object> settings = ImmutableMap.of(
+                TestEnvironmentProperty.KAFKA_PARTITIONS.name(), properties.getOrDefault(TestEnvironmentProperty.KAFKA_PARTITIONS, 10),
+                TestEnvironmentProperty.STORAGE_PROFILE.name(), getStorageProfile(),
+                TestEnvironmentProperty.TMPFS_SIZES.name(), String.valueOf(properties.get(TestEnvironmentProperty.TMPFS_SIZES)));
+        final String key = EnvironmentPool.computeKey(start, imagesByAlias, settings,
+                overlayDirectory, minionOverlayDirectory, sentinelOverlayDirectory);
+        lease = pool.lease(key, start);
+        if (lease == null) {
+            LOG.warn("No pooled environment is available. Starting a dedicated environment instead.");
+            return;
+        }
+
+        for (final Map.Entry<ContainerAlias, String> entry : lease.getContainerIds().entrySet()) {
+            final ContainerInfo containerInfo = docker.inspectContainer(entry.getValue());
+            createdContainerIds.add(containerInfo.id());
+            eventMonitor.watch(containerInfo.id(), entry.getKey());
+            containerInfoByAlias.put(entry.getKey(), containerInfo);
+        }
+    }
+
+    /**
+     * Builds the dependency graph between the enabled containers.
+     *
+     * A container depends on another being {@link StartupScheduler.Phase#SPAWNED} when it
+     * only needs to link to it, and on it being {@link StartupScheduler.Phase#READY} when
+     * it needs to use it while starting up.
+     */
+    private StartupScheduler createStartupScheduler() {
+        final StartupScheduler scheduler = new StartupScheduler();
+        final List<ContainerAlias> elasticsearchAliases = Arrays.asList(ContainerAlias.ELASTICSEARCH_2, ContainerAlias.ELASTICSEARCH_5, ContainerAlias.ELASTICSEARCH_6);
+
+        if (isEnabled(ContainerAlias.KAFKA)) {
+            scheduler.add(ContainerAlias.KAFKA, this::spawnKafka, waitFor(ContainerAlias.KAFKA));
+        }
+        for (final ContainerAlias alias : elasticsearchAliases) {
+            if (isEnabled(alias)) {
+                scheduler.add(alias, () -> spawnElasticsearch(alias), waitFor(alias));
+            }
+        }
+        if (isEnabled(ContainerAlias.CASSANDRA)) {
+            scheduler.add(ContainerAlias.CASSANDRA, this::spawnCassandra, waitFor(ContainerAlias.CASSANDRA));
+        }
+        if (isEnabled(ContainerAlias.POSTGRES)) {
+            scheduler.add(ContainerAlias.POSTGRES, this::spawnPostgres, waitFor(ContainerAlias.POSTGRES));
+        }
+        if (isEnabled(ContainerAlias.OPENNMS)) {
+            final StartupScheduler.Node opennms = scheduler.add(ContainerAlias.OPENNMS, this::spawnOpenNMS, commitSnapshotWhenReady(waitFor(ContainerAlias.OPENNMS)))
+                    .dependsOn(ContainerAlias.POSTGRES, StartupScheduler.Phase.READY)
+                    .dependsOn(ContainerAlias.CASSANDRA, StartupScheduler.Phase.READY)
+                    .dependsOn(ContainerAlias.KAFKA, StartupScheduler.Phase.SPAWNED);
+            elasticsearchAliases.forEach(alias -> opennms.dependsOn(alias, StartupScheduler.Phase.SPAWNED));
+        }
+        if (isEnabled(ContainerAlias.SNMPD)) {
+            scheduler.add(ContainerAlias.SNMPD, this::spawnSnmpd, waitFor(ContainerAlias.SNMPD));
+        }
+        if (isEnabled(ContainerAlias.TOMCAT)) {
+            scheduler.add(ContainerAlias.TOMCAT, this::spawnTomcat, waitFor(ContainerAlias.TOMCAT));
+        }
+        for (final ContainerAlias alias : Arrays.asList(ContainerAlias.MINION, ContainerAlias.MINION_SAME_LOCATION, ContainerAlias.MINION_OTHER_LOCATION)) {
+            if (isEnabled(alias)) {
+                scheduler.add(alias, () -> spawnMinion(alias), waitFor(alias))
+                    .dependsOn(ContainerAlias.OPENNMS, StartupScheduler.Phase.SPAWNED)
+                    .dependsOn(ContainerAlias.SNMPD, StartupScheduler.Phase.SPAWNED)
+                    .dependsOn(ContainerAlias.TOMCAT, StartupScheduler.Phase.SPAWNED)
+                    .dependsOn(ContainerAlias.KAFKA, StartupScheduler.Phase.SPAWNED);
+            }
+        }
+        if (isEnabled(ContainerAlias.SENTINEL)) {
+            // Sentinel may require database access and opennms sets it up on first start,
+            // therefore we must wait for opennms, before sentinel can be spawned
+            final StartupScheduler.Node sentinel = scheduler.add(ContainerAlias.SENTINEL, this::spawnSentinel, waitFor(ContainerAlias.SENTINEL))
+                    .dependsOn(ContainerAlias.POSTGRES, StartupScheduler.Phase.READY)
+                    .dependsOn(ContainerAlias.OPENNMS, StartupScheduler.Phase.READY)
+                    .dependsOn(ContainerAlias.CASSANDRA, StartupScheduler.Phase.SPAWNED)
+                    .dependsOn(ContainerAlias.KAFKA, StartupScheduler.Phase.SPAWNED);
+            elasticsearchAliases.forEach(alias -> sentinel.dependsOn(alias, StartupScheduler.Phase.SPAWNED));
+        }
+        return scheduler;
+    }
 
-        waitForSnmpd();
-        waitForTomcat();
-        waitForMinions();
-        waitForSentinel();
+    /**
+     * Returns the scheduler used to start the containers, which exposes the
+     * computed startup plan and the timings of every container.
+     *
+     * @return the scheduler, or null if the environment was not started
+     */
+    public StartupScheduler getStartupScheduler() {
+        return startupScheduler;
     }
 
     @Override
@@ -282,6 +493,14 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
         if (didFail) {
             LOG.error("Test failed!", failure);
         }
+
+        stopWatchingOverlays();
+
+        if (eventMonitor != null) {
+            // Stop following the events before we start stopping containers
+            eventMonitor.close();
+            eventMonitor = null;
+        }
         /* TODO: Gathering the log files can cause the tests to hang indefinitely.
         // Ideally, we would only gather the logs and container output
         // when we fail, but we can't detect this when using @ClassRules
@@ -331,85 +550,137 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
         final List<String> containerIds = new ArrayList<>(createdContainerIds);
         Collections.reverse(containerIds);
 
-        LOG.info("************************************************************");
-        LOG.info("Gathering container output...");
-        LOG.info("************************************************************");
-        for (final String containerId : containerIds) {
-            try {
-                LogStream logStream = docker.logs(containerId, LogsParam.stdout(), LogsParam.stderr());
-                /*
-                LOG.info("************************************************************");
-                LOG.info("Start of stdout/stderr for {}:", containerId);
-                LOG.info("************************************************************");
-                 */
-                final ContainerAlias container = getContainerName(containerId);
-                final String containerName = container == null? containerId : container.toString().toLowerCase();
-                final Path outputPath = Paths.get("target", getName() + "-" + containerName + "-output.log");
-                LOG.info("* writing stdout/stderr for {} to {}", containerId, outputPath);
-                try (final FileWriter fw = new FileWriter(outputPath.toFile())) {
-                    fw.write(logStream.readFully());
-                } catch (final IOException e) {
-                    LOG.warn("Unable to write to {}", outputPath, e);
+        if (isFollowingOutput()) {
+            LOG.info("Container output is being followed, and will be complete once the containers are stopped.");
+        } else {
+            LOG.info("************************************************************");
+            LOG.info("Gathering container output...");
+            LOG.info("************************************************************");
+            for (final String containerId : containerIds) {
+                try (final LogStream logStream = docker.logs(containerId, LogsParam.stdout(), LogsParam.stderr());
+                     final ContainerOutputCapture capture = createOutputCapture(containerId)) {
+                    LOG.info("* writing stdout/stderr for {} to {}", containerId, capture.getPath());
+                    capture.copy(logStream);
+                } catch (final DockerException | InterruptedException | IOException e) {
+                    LOG.warn("Failed to get stdout/stderr for container {}.", containerId, e);
                 }
-                /*
-                LOG.info(logStream.readFully());
-                LOG.info("************************************************************");
-                LOG.info("End of stdout/stderr for {}:", containerId);
-                LOG.info("************************************************************");
-                 */
-            } catch (final DockerException | InterruptedException e) {
-                LOG.warn("Failed to get stdout/stderr for container {}.", e);
             }
         }
 
-        if (!(Boolean)properties.getOrDefault(TestEnvironmentProperty.SKIP_TEAR_DOWN, Boolean.FALSE)) {
-            for (final String containerId : containerIds) {
-                destroyContainer(containerId);
-            }
+        if (lease != null && started) {
+            LOG.info("Releasing the containers to the pool.");
+            returnToPool(true);
+        } else if (!(Boolean)properties.getOrDefault(TestEnvironmentProperty.SKIP_TEAR_DOWN, Boolean.FALSE)) {
+            destroyContainers(containerIds);
 
             containerInfoByAlias.clear();
             createdContainerIds.clear();
-            ports.clear();
         } else {
             LOG.info("Skipping tear down.");
         }
+        if (lease != null) {
+            // The environment never became ready, so don't let anyone else use it
+            returnToPool(false);
+        }
+
+        // Stop following the output of any containers that are still running
+        for (final String containerId : containerIds) {
+            stopFollowingOutput(containerId, 0);
+        }
 
         docker.close();
     }
 
+    private void returnToPool(final boolean release) {
+        try {
+            if (release) {
+                pool.release(lease);
+            } else {
+                pool.discard(lease);
+            }
+        } catch (final IOException e) {
+            LOG.warn("Failed to return the environment to the pool.", e);
+        }
+        lease = null;
+    }
+
+    /**
+     * Destroys the given containers in parallel, in the reverse order of the startup plan:
+     * a container is only destroyed once all of the containers that depend on it are gone.
+     */
+    private void destroyContainers(final List<String> containerIds) {
+        // Group the containers by their level in the startup plan, unknown containers go first
+        final Map<ContainerAlias, Integer> levels = Maps.newHashMap();
+        if (startupScheduler != null) {
+            startupScheduler.getNodes().forEach(node -> levels.put(node.getAlias(), node.getLevel()));
+        }
+        final TreeMap<Integer, List<String>> containerIdsByLevel = new TreeMap<>(Collections.reverseOrder());
+        for (final String containerId : containerIds) {
+            final ContainerAlias alias = getContainerName(containerId);
+            final int level = alias != null && levels.containsKey(alias) ? levels.get(alias) : Integer.MAX_VALUE;
+            containerIdsByLevel.computeIfAbsent(level, l -> new ArrayList<>()).add(containerId);
+        }
+
+        final int threads = Math.max(1, Math.min(containerIds.size(),
+                (Integer)properties.getOrDefault(TestEnvironmentProperty.TEARDOWN_THREADS, DEFAULT_TEARDOWN_THREADS)));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final long start = System.currentTimeMillis();
+        try {
+            for (final List<String> level : containerIdsByLevel.values()) {
+                final List<Future<?>> futures = new ArrayList<>(level.size());
+                for (final String containerId : level) {
+                    futures.add(executor.submit(() -> destroyContainer(containerId)));
+                }
+                for (final Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (final ExecutionException e) {
+                        LOG.error("Failed to destroy container.", e.getCause());
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            LOG.warn("Interrupted while destroying the containers.", e);
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        LOG.info("************************************************************");
+        LOG.info("Tear down completed in {}ms: {}", System.currentTimeMillis() - start, teardownTimes);
+        LOG.info("************************************************************");
+    }
+
     protected void destroyContainer(final String containerId) {
         final ContainerAlias alias = getContainerName(containerId);
+        final long start = System.currentTimeMillis();
 
         LOG.info("************************************************************");
         LOG.info("Shutting down container {} ({})", alias, containerId);
         LOG.info("************************************************************");
 
-        final Set<InetSocketAddress> containerSockets;
-
-        if (ports.containsKey(alias)) {
-            containerSockets = ports.get(alias).stream().map(port -> {
-                return getServiceAddress(alias, port);
-            }).collect(Collectors.toSet());
-        } else {
-            containerSockets = Collections.emptySet();
-        }
-
         try {
-            await().atMost(5, MINUTES).pollInterval(5, SECONDS).until(() -> {
-                try {
-                    LOG.debug("Stopping container {} ({})", alias, containerId);
-                    docker.stopContainer(containerId, 3);
-                } catch (final Exception e) {
-                    LOG.error("Attempt to stop container {} ({}) failed.  Will try again.", alias, containerId, e);
-                }
-
-                return containerSockets.parallelStream().map(addr -> {
-                    if (addr == null) {
-                        return true;
-                    }
-                    return checkSocket(addr);
-                }).allMatch(Predicate.isEqual(Boolean.TRUE));
-            });
+            try {
+                LOG.debug("Stopping container {} ({})", alias, containerId);
+                // The daemon kills the container if it doesn't stop within the grace period
+                docker.stopContainer(containerId, 3);
+            } catch (final ContainerNotFoundException e) {
+                throw e;
+            } catch (final DockerException e) {
+                LOG.warn("Attempt to stop container {} ({}) failed. Killing it.", alias, containerId, e);
+                docker.killContainer(containerId);
+            }
+            // Blocks until the container has exited
+            final ContainerExit exit = docker.waitContainer(containerId);
+            LOG.debug("Container {} ({}) exited with status {}", alias, containerId, exit.statusCode());
+            // Give the follower a chance to write the remaining output before the container is removed
+            stopFollowingOutput(containerId, OUTPUT_FOLLOWER_GRACE_PERIOD_MS);
+        } catch (final ContainerNotFoundException e) {
+            LOG.debug("Container {} ({}) is already gone.", alias, containerId);
+            return;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
         } catch (final Exception e) {
             LOG.error("************************************************************");
             LOG.error("Failed to shut down container {} ({}).  Giving up.", alias, containerId, e);
@@ -421,6 +692,8 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
         LOG.debug("************************************************************");
         try {
             docker.removeContainer(containerId);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (final Exception e) {
             if (!(e instanceof ContainerNotFoundException)) {
                 LOG.error("************************************************************");
@@ -428,17 +701,20 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
                 LOG.error("************************************************************");
             }
         }
-    };
 
-    private Boolean checkSocket(final InetSocketAddress addr) {
-        try (final Socket sock = new Socket()) {
-            sock.connect(addr, 50);
-        } catch (final Exception e) {
-            LOG.debug("Port {} is available!", addr);
-            return true;
+        final long elapsed = System.currentTimeMillis() - start;
+        if (alias != null) {
+            teardownTimes.put(alias, elapsed);
         }
-        LOG.debug("Port {} is still active. :(", addr);
-        return false;
+        LOG.info("Container {} ({}) was destroyed in {}ms.", alias, containerId, elapsed);
+    }
+
+    /**
+     * Returns the time it took to stop and remove each of the containers
+     * during tear down, in milliseconds.
+     */
+    public Map<ContainerAlias, Long> getTeardownTimesMs() {
+        return Collections.unmodifiableMap(teardownTimes);
     }
 
     @Override
@@ -472,21 +748,19 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
 
         LOG.debug("Starting PostgreSQL");
 
+        final List<String> env = new ArrayList<>();
+        if (snapshot != null) {
+            env.add(EnvironmentSnapshot.PGDATA_ENV);
+        }
+
         final Builder builder = HostConfig.builder()
                 .publishAllPorts(true);
-        spawnContainer(alias, builder, Collections.emptyList());
-    }
-
-    private void spawnElasticsearch2() throws DockerException, InterruptedException, IOException {
-        spawnElasticsearch(ContainerAlias.ELASTICSEARCH_2);
-    }
-
-    private void spawnElasticsearch5() throws DockerException, InterruptedException, IOException {
-        spawnElasticsearch(ContainerAlias.ELASTICSEARCH_5);
-    }
-
-    private void spawnElasticsearch6() throws DockerException, InterruptedException, IOException {
-        spawnElasticsearch(ContainerAlias.ELASTICSEARCH_6);
+        final List<String> cmd = new ArrayList<>();
+        if (applyStorageProfile(alias, builder)) {
+            // Trade durability for speed, since the data is thrown away anyway
+            cmd.addAll(Arrays.asList("postgres", "-c", "fsync=off", "-c", "synchronous_commit=off", "-c", "full_page_writes=off"));
+        }
+        spawnContainer(alias, builder, env, cmd);
     }
 
     /**
@@ -501,7 +775,12 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
 
         final Builder builder = HostConfig.builder()
                 .publishAllPorts(true);
-        spawnContainer(alias, builder);
+        final List<String> cmd = new ArrayList<>();
+        if (applyStorageProfile(alias, builder) && alias == ContainerAlias.ELASTICSEARCH_2) {
+            // Don't fsync the translog on every request. Later versions only support this as an index setting.
+            cmd.addAll(Arrays.asList("elasticsearch", "-Des.index.translog.durability=async"));
+        }
+        spawnContainer(alias, builder, Collections.emptyList(), cmd);
     }
 
     /**
@@ -534,6 +813,8 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
 
         final Builder builder = HostConfig.builder()
                 .portBindings(portBindings);
+        // Kafka leaves flushing to the OS by default, so moving the logs to tmpfs is enough
+        applyStorageProfile(alias, builder);
         spawnContainer(alias, builder, env);
     }
 
@@ -556,7 +837,7 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
             return;
         }
 
-        final Path overlayRoot = initializeOverlayRoot(alias);
+        final Path overlayRoot = initializeOverlayRoot(alias, "opennms-overlay");
 
         final Path opennmsOverlay = overlayRoot.resolve("opennms-overlay");
         final Path opennmsLogs = overlayRoot.resolve("opennms-logs");
@@ -566,26 +847,16 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
         Files.createDirectories(opennmsLogs);
         Files.createDirectories(opennmsKarafLogs);
 
-        if (this.overlayDirectory != null) {
-            Files.find(this.overlayDirectory, 10, (path, attr) -> {
-                return path.toFile().isFile();
-            }).forEach(path -> {
-                final Path relative = Paths.get(this.overlayDirectory.toFile().toURI().relativize(path.toFile().toURI()).getPath());
-                final Path to = Paths.get(opennmsOverlay.toString(), relative.toString());
-                LOG.debug("Copying {} to {}", path.toAbsolutePath(), to.toAbsolutePath());
-                try {
-                    Files.createDirectories(to.getParent());
-                    Files.copy(path.toAbsolutePath(), to.toAbsolutePath(), StandardCopyOption.REPLACE_EXISTING);
-                } catch (final Exception e) {
-                    throw new RuntimeException(e);
-                }
-            });
-        }
-
         final List<String> env = new ArrayList<>();
 
         final List<String> binds = new ArrayList<>();
-        binds.add(opennmsOverlay.toString() + ":/opennms-docker-overlay");
+        OverlayArchive archive = null;
+        if (isDeliveringOverlayArchives()) {
+            archive = new OverlayArchive("/opennms-docker-overlay").addDirectory(this.overlayDirectory);
+        } else {
+            OverlayStore.getInstance().materialize(this.overlayDirectory, opennmsOverlay);
+            binds.add(opennmsOverlay.toString() + ":/opennms-docker-overlay");
+        }
         binds.add(opennmsLogs.toString() + ":/var/log/opennms");
         binds.add(opennmsKarafLogs.toString() + ":/opt/opennms/data/log");
 
@@ -608,6 +879,9 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
             links.add(String.format("%s:cassandra", containerInfoByAlias.get(ContainerAlias.CASSANDRA).name()));
             env.add("USE_NEWTS=true");
         }
+        if (snapshot != null && snapshot.isAvailable()) {
+            env.add(EnvironmentSnapshot.RESTORE_ENV);
+        }
 
         Builder builder = HostConfig.builder()
                 .privileged(true)
@@ -615,7 +889,7 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
                 .links(links)
                 .binds(binds);
 
-        spawnContainer(alias, builder, env);
+        spawnContainer(alias, builder, env, Collections.emptyList(), archive);
     }
 
     /**
@@ -627,7 +901,8 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
             return;
         }
 
-        spawnContainer(alias, HostConfig.builder(), Collections.emptyList());
+        // Publish the SNMP port so we can probe the agent
+        spawnContainer(alias, HostConfig.builder().publishAllPorts(true), Collections.emptyList());
     }
 
     /**
@@ -639,37 +914,25 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
             return;
         }
 
-        final Path overlayRoot = initializeOverlayRoot(alias);
+        final Path overlayRoot = initializeOverlayRoot(alias, "sentinel-overlay");
 
         final Path sentinelOverlay = overlayRoot.resolve("sentinel-overlay");
         final Path sentinelKarafLogs = overlayRoot.resolve("sentinel-karaf-logs");
 
-        Files.createDirectories(sentinelOverlay.resolve("etc"));
         Files.createDirectories(sentinelKarafLogs);
 
-        try (final FileWriter fw = new FileWriter(sentinelOverlay.resolve("etc/clean.disabled").toFile())) {
-            fw.write("true\n".toCharArray());
-        }
-
-        if (this.sentinelOverlayDirectory != null) {
-            Files.find(this.sentinelOverlayDirectory, 10, (path, attr) -> {
-                return path.toFile().isFile();
-            }).forEach(path -> {
-                final Path relative = Paths.get(this.sentinelOverlayDirectory.toFile().toURI().relativize(path.toFile().toURI()).getPath());
-                final Path to = Paths.get(sentinelOverlay.toString(), relative.toString());
-                LOG.debug("Copying {} to {}", path.toAbsolutePath(), to.toAbsolutePath());
-                try {
-                    Files.createDirectories(to.getParent());
-                    Files.deleteIfExists(to.toAbsolutePath());
-                    Files.copy(path.toAbsolutePath(), to.toAbsolutePath(), StandardCopyOption.REPLACE_EXISTING);
-                } catch (final Exception e) {
-                    throw new RuntimeException(e);
-                }
-            });
-        }
-
         final List<String> binds = new ArrayList<>();
-        binds.add(sentinelOverlay.toString() + ":/sentinel-docker-overlay");
+        OverlayArchive archive = null;
+        if (isDeliveringOverlayArchives()) {
+            archive = new OverlayArchive("/sentinel-docker-overlay")
+                    .addDirectory(this.sentinelOverlayDirectory)
+                    .addFile(CLEAN_DISABLED, "true\n");
+        } else {
+            OverlayStore.getInstance().materialize(this.sentinelOverlayDirectory, sentinelOverlay);
+            Files.createDirectories(sentinelOverlay.resolve("etc"));
+            writeCleanDisabled(sentinelOverlay);
+            binds.add(sentinelOverlay.toString() + ":/sentinel-docker-overlay");
+        }
         binds.add(sentinelKarafLogs.toString() + ":/opt/sentinel/data/log");
 
         final List<String> links = Lists.newArrayList();
@@ -696,7 +959,7 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
                 .links(links)
                 .binds(binds);
 
-        spawnContainer(alias, builder, Collections.emptyList());
+        spawnContainer(alias, builder, Collections.emptyList(), Collections.emptyList(), archive);
     }
 
     /**
@@ -708,7 +971,8 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
             return;
         }
 
-        spawnContainer(alias, HostConfig.builder(), Collections.emptyList());
+        // Publish the HTTP and JMX ports so we can probe them
+        spawnContainer(alias, HostConfig.builder().publishAllPorts(true), Collections.emptyList());
     }
 
     /**
@@ -716,97 +980,167 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
      */
     private void spawnCassandra() throws InterruptedException, DockerException, IOException {
         final ContainerAlias alias = ContainerAlias.CASSANDRA;
-        if (! isEnabled(alias) && isSpawned(alias)) {
+        if (!(isEnabled(alias) && isSpawned(alias))) {
             return;
         }
         final List<String> env = Arrays.asList(new String[] {
                 "CASSANDRA_BROADCAST_ADDRESS=" + System.getProperty("org.opennms.advertised-host-address", InetAddress.getLocalHost().getHostAddress()),
         });
-        spawnContainer(alias, HostConfig.builder().publishAllPorts(true), env);
+        final Builder builder = HostConfig.builder()
+                .publishAllPorts(true);
+        final List<String> cmd = new ArrayList<>();
+        if (applyStorageProfile(alias, builder)) {
+            // Acknowledge writes without waiting for the commit log to be synced. The entrypoint only configures
+            // Cassandra when its first argument is 'cassandra', so it is invoked again once the configuration is edited.
+            cmd.addAll(Arrays.asList("sh", "-c", "sed -i"
+                    + " -e 's/^commitlog_sync:.*/commitlog_sync: periodic/'"
+                    + " -e 's/^commitlog_sync_period_in_ms:.*/commitlog_sync_period_in_ms: 60000/'"
+                    + " /etc/cassandra/cassandra.yaml && exec docker-entrypoint.sh cassandra -f"));
+        }
+        spawnContainer(alias, builder, env, cmd);
     }
 
     /**
-     * Spawns the Minion container, linked to OpenNMS, Net-SNMP and Tomcat.
+     * Spawns a Minion container, linked to OpenNMS, Net-SNMP and Tomcat.
      */
-    private void spawnMinions() throws DockerException, InterruptedException, IOException {
-        for (final ContainerAlias alias : Arrays.asList(ContainerAlias.MINION, ContainerAlias.MINION_SAME_LOCATION, ContainerAlias.MINION_OTHER_LOCATION)) {
-            if (!(isEnabled(alias) && isSpawned(alias))) {
-                continue;
-            }
+    private void spawnMinion(final ContainerAlias alias) throws DockerException, InterruptedException, IOException {
+        if (!(isEnabled(alias) && isSpawned(alias))) {
+            return;
+        }
+
+        final Path overlayRoot = initializeOverlayRoot(alias, "minion-overlay");
 
-            final Path overlayRoot = initializeOverlayRoot(alias);
+        final Path minionOverlay = overlayRoot.resolve("minion-overlay");
+        final Path minionKarafLogs = overlayRoot.resolve("minion-karaf-logs");
 
-            final Path minionOverlay = overlayRoot.resolve("minion-overlay");
-            final Path minionKarafLogs = overlayRoot.resolve("minion-karaf-logs");
+        Files.createDirectories(minionKarafLogs);
 
+        final List<String> binds = new ArrayList<>();
+        OverlayArchive archive = null;
+        if (isDeliveringOverlayArchives()) {
+            archive = new OverlayArchive("/minion-docker-overlay")
+                    .addDirectory(this.minionOverlayDirectory)
+                    .addFile(CLEAN_DISABLED, "true\n");
+        } else {
+            OverlayStore.getInstance().materialize(this.minionOverlayDirectory, minionOverlay);
             Files.createDirectories(minionOverlay.resolve("etc"));
-            Files.createDirectories(minionKarafLogs);
+            writeCleanDisabled(minionOverlay);
+            binds.add(minionOverlay.toString() + ":/minion-docker-overlay");
+        }
+        binds.add(minionKarafLogs.toString() + ":/opt/minion/data/log");
 
-            try (final FileWriter fw = new FileWriter(minionOverlay.resolve("etc/clean.disabled").toFile())) {
-                fw.write("true\n".toCharArray());
-            }
+        final List<String> links = Lists.newArrayList();
+        if (isEnabled(ContainerAlias.OPENNMS)) {
+            links.add(String.format("%s:opennms", containerInfoByAlias.get(ContainerAlias.OPENNMS).name()));
+        }
+        if (isEnabled(ContainerAlias.SNMPD)) {
+            links.add(String.format("%s:snmpd", containerInfoByAlias.get(ContainerAlias.SNMPD).name()));
+        }
+        if (isEnabled(ContainerAlias.TOMCAT)) {
+            links.add(String.format("%s:tomcat", containerInfoByAlias.get(ContainerAlias.TOMCAT).name()));
+        }
+        if (isEnabled(ContainerAlias.KAFKA)) {
+            links.add(String.format("%s:kafka", containerInfoByAlias.get(ContainerAlias.KAFKA).name()));
+        }
 
-            if (this.minionOverlayDirectory != null) {
-                Files.find(this.minionOverlayDirectory, 10, (path, attr) -> {
-                    return path.toFile().isFile();
-                }).forEach(path -> {
-                    final Path relative = Paths.get(this.minionOverlayDirectory.toFile().toURI().relativize(path.toFile().toURI()).getPath());
-                    final Path to = Paths.get(minionOverlay.toString(), relative.toString());
-                    LOG.debug("Copying {} to {}", path.toAbsolutePath(), to.toAbsolutePath());
-                    try {
-                        Files.createDirectories(to.getParent());
-                        Files.deleteIfExists(to.toAbsolutePath());
-                        Files.copy(path.toAbsolutePath(), to.toAbsolutePath(), StandardCopyOption.REPLACE_EXISTING);
-                    } catch (final Exception e) {
-                        throw new RuntimeException(e);
-                    }
-                });
-            }
+        final Builder builder = HostConfig.builder()
+                .publishAllPorts(true)
+                .links(links)
+                .binds(binds);
 
-            final List<String> binds = new ArrayList<>();
-            binds.add(minionOverlay.toString() + ":/minion-docker-overlay");
-            binds.add(minionKarafLogs.toString() + ":/opt/minion/data/log");
+        final List<String> env = Arrays.asList(
+                                               "MINION_LOCATION=" + MINION_LOCATIONS.get(alias),
+                                               "MINION_ID=" + MINION_IDS.get(alias)
+                );
+        spawnContainer(alias, builder, env, Collections.emptyList(), archive);
+    }
 
-            final List<String> links = Lists.newArrayList();
-            if (isEnabled(ContainerAlias.OPENNMS)) {
-                links.add(String.format("%s:opennms", containerInfoByAlias.get(ContainerAlias.OPENNMS).name()));
-            }
-            if (isEnabled(ContainerAlias.SNMPD)) {
-                links.add(String.format("%s:snmpd", containerInfoByAlias.get(ContainerAlias.SNMPD).name()));
-            }
-            if (isEnabled(ContainerAlias.TOMCAT)) {
-                links.add(String.format("%s:tomcat", containerInfoByAlias.get(ContainerAlias.TOMCAT).name()));
-            }
-            if (isEnabled(ContainerAlias.KAFKA)) {
-                links.add(String.format("%s:kafka", containerInfoByAlias.get(ContainerAlias.KAFKA).name()));
+    /**
+     * Returns the directory holding the overlay and the logs of the given container.
+     *
+     * The logs are cleared the first time this is called for the container. The overlay
+     * itself is kept, since it is synchronized with the {@link OverlayStore}, which only
+     * updates the files that changed since the previous run.
+     */
+    private Path initializeOverlayRoot(final ContainerAlias alias, final String overlayName) throws IOException {
+        final Path overlayRoot = Paths.get("target", "overlays", getName(), alias.toString()).toAbsolutePath();
+
+        // Containers are spawned in parallel, so guard the shared map
+        synchronized (INITIALIZED_OVERLAYS) {
+            if (!isInitialized(alias) && Files.isDirectory(overlayRoot)) {
+                try (final Stream<Path> children = Files.list(overlayRoot)) {
+                    children.filter(child -> !child.getFileName().toString().equals(overlayName))
+                        .forEach(child -> FileUtils.removeDir(child.toFile()));
+                }
             }
 
-            final Builder builder = HostConfig.builder()
-                    .publishAllPorts(true)
-                    .links(links)
-                    .binds(binds);
+            INITIALIZED_OVERLAYS.put(alias, true);
+        }
+        return overlayRoot;
+    }
 
-            final List<String> env = Arrays.asList(
-                                                   "MINION_LOCATION=" + MINION_LOCATIONS.get(alias),
-                                                   "MINION_ID=" + MINION_IDS.get(alias)
-                    );
-            spawnContainer(alias, builder, env);
+    /**
+     * Tells the Karaf based containers not to clean their data directory on startup.
+     */
+    private static void writeCleanDisabled(final Path overlay) throws IOException {
+        final Path cleanDisabled = overlay.resolve(CLEAN_DISABLED);
+        // Never write through a link into the overlay store
+        Files.deleteIfExists(cleanDisabled);
+        try (final FileWriter fw = new FileWriter(cleanDisabled.toFile())) {
+            fw.write("true\n".toCharArray());
         }
     }
 
-    private Path initializeOverlayRoot(final ContainerAlias alias) {
-        final Path overlayRoot = Paths.get("target", "overlays", getName(), alias.toString()).toAbsolutePath();
+    private boolean isInitialized(final ContainerAlias alias) {
+        synchronized (INITIALIZED_OVERLAYS) {
+            return INITIALIZED_OVERLAYS.containsKey(alias) && INITIALIZED_OVERLAYS.get(alias);
+        }
+    }
+
+    /**
+     * The archives are extracted where the overlays would otherwise be mounted, so that the
+     * bootstrap scripts still apply them after writing their own configuration files.
+     */
+    private boolean isDeliveringOverlayArchives() {
+        return properties.getOrDefault(TestEnvironmentProperty.OVERLAY_DELIVERY, OverlayDelivery.BIND_MOUNT) == OverlayDelivery.ARCHIVE;
+    }
+
+    private StorageProfile getStorageProfile() {
+        return (StorageProfile)properties.getOrDefault(TestEnvironmentProperty.STORAGE_PROFILE, StorageProfile.DURABLE);
+    }
 
-        if (!isInitialized(alias)) {
-            FileUtils.removeDir(overlayRoot.toFile());
+    /**
+     * Mounts tmpfs on the data directories of the given container when using the ephemeral
+     * storage profile, and keeps track of the memory this may consume.
+     *
+     * @return true if the container should be configured for ephemeral storage
+     */
+    @SuppressWarnings("unchecked")
+    private boolean applyStorageProfile(final ContainerAlias alias, final Builder builder) {
+        if (getStorageProfile() != StorageProfile.EPHEMERAL) {
+            return false;
+        }
+        if (alias == ContainerAlias.POSTGRES && snapshot != null) {
+            // The data is stored outside of the default data directory, and must be committed with the container
+            LOG.info("Keeping the PostgreSQL data on disk, since it is included in the snapshot.");
+            return true;
         }
 
-        INITIALIZED_OVERLAYS.put(alias, true);
-        return overlayRoot;
+        final Map<String, Long> sizes = new LinkedHashMap<>(StorageProfile.DATA_DIRECTORIES.get(alias));
+        final Map<ContainerAlias, Long> overrides = (Map<ContainerAlias, Long>)properties.get(TestEnvironmentProperty.TMPFS_SIZES);
+        if (overrides != null && overrides.containsKey(alias)) {
+            sizes.put(sizes.keySet().iterator().next(), overrides.get(alias));
+        }
+        builder.tmpfs(StorageProfile.getTmpfs(sizes));
+        storageBudget.put(alias, sizes.values().stream().mapToLong(Long::longValue).sum());
+        return true;
     }
 
-    private boolean isInitialized(final ContainerAlias alias) {
-        return INITIALIZED_OVERLAYS.containsKey(alias) && INITIALIZED_OVERLAYS.get(alias);
+    /**
+     * Returns the maximum amount of memory used by the tmpfs mounts of each container, in bytes.
+     */
+    public Map<ContainerAlias, Long> getStorageBudgetBytes() {
+        return Collections.unmodifiableMap(storageBudget);
     }
 
     private boolean isEnabled(final ContainerAlias alias) {
@@ -820,26 +1154,42 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
     /**
      * Spawns a container.
      */
-    private void spawnContainer(final ContainerAlias alias, final Builder hostConfigBuilder) throws DockerException, InterruptedException, IOException {
-        spawnContainer(alias, hostConfigBuilder, Collections.emptyList());
+    private void spawnContainer(final ContainerAlias alias, final Builder hostConfigBuilder, final List<String> env) throws DockerException, InterruptedException, IOException {
+        spawnContainer(alias, hostConfigBuilder, env, Collections.emptyList());
     }
 
     /**
-     * Spawns a container.
+     * Spawns a container, overriding the command of the image unless the given command is empty.
      */
-    private void spawnContainer(final ContainerAlias alias, final Builder hostConfigBuilder, final List<String> env) throws DockerException, InterruptedException, IOException {
+    private void spawnContainer(final ContainerAlias alias, final Builder hostConfigBuilder, final List<String> env, final List<String> cmd) throws DockerException, InterruptedException, IOException {
+        spawnContainer(alias, hostConfigBuilder, env, cmd, null);
+    }
+
+    /**
+     * Spawns a container, streaming the given overlay archive into it before it is started.
+     */
+    private void spawnContainer(final ContainerAlias alias, final Builder hostConfigBuilder, final List<String> env, final List<String> cmd, final OverlayArchive overlay) throws DockerException, InterruptedException, IOException {
         final HostConfig hostConfig = hostConfigBuilder.build();
-        final ContainerConfig containerConfig = ContainerConfig.builder()
-                .image(IMAGES_BY_ALIAS.get(alias))
+        final ContainerConfig.Builder containerConfigBuilder = ContainerConfig.builder()
+                .image(imagesByAlias.get(alias))
                 .hostConfig(hostConfig)
                 .hostname(getName() + ".local")
                 .env(env)
-                .exposedPorts(hostConfig.portBindings() != null ? hostConfig.portBindings().keySet() : Collections.emptySet())
-                .build();
+                .labels(lease != null ? lease.getLabels(alias) : Collections.emptyMap())
+                .exposedPorts(hostConfig.portBindings() != null ? hostConfig.portBindings().keySet() : Collections.emptySet());
+        if (!cmd.isEmpty()) {
+            containerConfigBuilder.cmd(cmd);
+        }
+        final ContainerConfig containerConfig = containerConfigBuilder.build();
 
         final ContainerCreation containerCreation = docker.createContainer(containerConfig);
         final String containerId = containerCreation.id();
         createdContainerIds.add(containerId);
+        eventMonitor.watch(containerId, alias);
+
+        if (overlay != null) {
+            overlay.copyTo(docker, containerId);
+        }
 
         docker.startContainer(containerId);
 
@@ -851,247 +1201,122 @@ public class NewTestEnvironment extends AbstractTestEnvironment implements TestE
             throw new IllegalStateException("Could not start the " + alias + " container");
         }
 
-        if (hostConfig.portBindings() != null) {
-            final Set<Integer> containerPorts = Sets.newConcurrentHashSet();
-            hostConfig.portBindings().keySet().forEach(pb -> {
-                containerPorts.add(Integer.valueOf(pb));
-            });
-            ports.put(alias, containerPorts);
-        }
-
         containerInfoByAlias.put(alias, containerInfo);
-    }
 
-    /**
-     * Blocks until we can connect to the PostgreSQL data port.
-     */
-    private void waitForPostgres() {
-        final ContainerAlias alias = ContainerAlias.POSTGRES;
-        if (!isEnabled(alias)) {
-            return;
+        if (isFollowingOutput()) {
+            followOutput(containerId);
         }
+    }
 
-        final InetSocketAddress postgresAddr = getServiceAddress(alias, 5432);
-        final Callable<Boolean> isConnected = new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-                try {
-                    final Socket socket = new Socket(postgresAddr.getAddress(), postgresAddr.getPort());
-                    socket.setReuseAddress(true);
-                    final InputStream is = socket.getInputStream();
-                    final OutputStream os = socket.getOutputStream();
-                    os.write("¯\\_(ツ)_/¯\n".getBytes());
-                    os.close();
-                    is.close();
-                    socket.close();
-                    // good enough, not gonna try speaking the PostgreSQL protocol
-                    return true;
-                } catch (final Throwable t) {
-                    LOG.debug("PostgreSQL connect failed: " + t.getMessage());
-                    return null;
-                }
-            }
-        };
-        LOG.info("************************************************************");
-        LOG.info("Waiting for PostgreSQL service @ {}.", postgresAddr);
-        LOG.info("************************************************************");
-        await().atMost(5, MINUTES).pollInterval(10, SECONDS).until(isConnected, is(notNullValue()));
+    private boolean isFollowingOutput() {
+        return (Boolean)properties.getOrDefault(TestEnvironmentProperty.OUTPUT_FOLLOW, Boolean.FALSE);
     }
 
     /**
-     * Blocks until we can connect to the Cassandra client port (9042).
+     * Creates the capture for the output of the given container in target/.
      */
-    private void waitForCassandra() {
-        final ContainerAlias alias = ContainerAlias.CASSANDRA;
-        if (!isEnabled(alias)) {
-            return;
-        }
-
-        final InetSocketAddress cassandraAddress = getServiceAddress(alias, 9042);
-        final Callable<Boolean> isConnected = () -> {
-            try {
-                final Socket socket = new Socket(cassandraAddress.getAddress(), cassandraAddress.getPort());
-                socket.setReuseAddress(true);
-                final InputStream is = socket.getInputStream();
-                final OutputStream os = socket.getOutputStream();
-                os.write("¯\\_(ツ)_/¯\n".getBytes());
-                os.close();
-                is.close();
-                socket.close();
-                // good enough, not gonna try to implement the protocol
-                return true;
-            } catch (final Throwable t) {
-                LOG.debug("Cassandra connect failed: " + t.getMessage());
-                return null;
-            }
-        };
-        LOG.info("************************************************************");
-        LOG.info("Waiting for Cassandra service @ {}.", cassandraAddress);
-        LOG.info("************************************************************");
-        await().atMost(5, MINUTES).pollInterval(10, SECONDS).until(isConnected, is(notNullValue()));
+    private ContainerOutputCapture createOutputCapture(final String containerId) throws IOException {
+        final ContainerAlias container = getContainerName(containerId);
+        final String containerName = container == null? containerId : container.toString().toLowerCase();
+        final Path outputPath = Paths.get("target", getName() + "-" + containerName + "-output.log");
+        return new ContainerOutputCapture(outputPath,
+                (Boolean)properties.getOrDefault(TestEnvironmentProperty.OUTPUT_COMPRESS, Boolean.FALSE),
+                (Long)properties.getOrDefault(TestEnvironmentProperty.OUTPUT_MAX_BYTES, 0L),
+                (Integer)properties.getOrDefault(TestEnvironmentProperty.OUTPUT_MAX_FILES, 1));
     }
 
     /**
-     * Blocks until the REST and Karaf Shell services are available.
+     * Continuously streams the output of the given container to disk in the background,
+     * until the container stops.
      */
-    private void waitForOpenNMS() throws Exception {
-        final ContainerAlias alias = ContainerAlias.OPENNMS;
-        if (!isEnabled(alias)) {
-            return;
-        }
+    private void followOutput(final String containerId) throws DockerException, InterruptedException, IOException {
+        final LogStream logStream = docker.logs(containerId, LogsParam.follow(), LogsParam.stdout(), LogsParam.stderr());
+        final ContainerOutputCapture capture = createOutputCapture(containerId);
+        LOG.info("* following stdout/stderr for {} in {}", containerId, capture.getPath());
 
-        final InetSocketAddress httpAddr = getServiceAddress(alias, 8980);
-        final RestClient restClient = new RestClient(httpAddr);
-        final Callable<String> getDisplayVersion = new Callable<String>() {
-            @Override public String call() throws Exception {
+        final Thread thread = new Thread(() -> {
+            try {
+                capture.copy(logStream);
+            } catch (final Exception e) {
+                LOG.debug("Stopped following the output of {}.", containerId, e);
+            } finally {
                 try {
-                    final String displayVersion = restClient.getDisplayVersion();
-                    LOG.info("Connected to OpenNMS version {}", displayVersion);
-                    return displayVersion;
-                } catch (Throwable t) {
-                    LOG.debug("Version lookup failed: " + t.getMessage());
-                    return null;
+                    capture.close();
+                } catch (final IOException e) {
+                    LOG.warn("Unable to write to {}", capture.getPath(), e);
                 }
+                logStream.close();
             }
-        };
-
-        LOG.info("************************************************************");
-        LOG.info("Waiting for OpenNMS REST service @ {}.", httpAddr);
-        LOG.info("************************************************************");
-        // TODO: It's possible that the OpenNMS server doesn't start if there are any
-        // problems in $OPENNMS_HOME/etc. Instead of waiting the whole 5 minutes and timing out
-        // we should also poll the status of the container, so we can fail sooner.
-        await().atMost(5, MINUTES).pollInterval(10, SECONDS).until(getDisplayVersion, is(notNullValue()));
-        LOG.info("************************************************************");
-        LOG.info("OpenNMS's REST service is online.");
-        LOG.info("************************************************************");
-
-        final InetSocketAddress sshAddr = getServiceAddress(alias, 8101);
-        LOG.info("************************************************************");
-        LOG.info("Waiting for OpenNMS SSH service @ {}.", sshAddr);
-        LOG.info("************************************************************");
-        await().atMost(5, MINUTES).pollInterval(5, SECONDS).until(SshClient.canConnectViaSsh(sshAddr, "admin", "admin"));
-        await().atMost(5, MINUTES).pollInterval(5, SECONDS).until(() -> listFeatures(sshAddr, false));
-        LOG.info("************************************************************");
-        LOG.info("OpenNMS's Karaf Shell is online.");
-        LOG.info("************************************************************");
-
-        /*
-        System.setProperty("sun.rmi.transport.tcp.responseTimeout", "5000");
-        final Callable<Boolean> getJmxConnection = new Callable<Boolean>() {
-            @Override public Boolean call() throws Exception {
-                return null;
-            }
-        };
-        await().atMost(5, MINUTES).pollInterval(10, SECONDS).until(getJmxConnection, is(notNullValue()));
-         */
+        }, "output-follower-" + containerId.substring(0, Math.min(12, containerId.length())));
+        thread.setDaemon(true);
+        outputFollowers.put(containerId, new OutputFollower(thread, logStream));
+        thread.start();
     }
 
     /**
-     * TODO: Blocks until the SNMP daemon is available.
+     * Waits up to the given amount of time for the follower to reach the end of the
+     * container's output, and then closes the stream.
      */
-    private void waitForSnmpd() throws Exception {
-        final ContainerAlias alias = ContainerAlias.SNMPD;
-        if (!isEnabled(alias)) {
+    private void stopFollowingOutput(final String containerId, final long gracePeriodMs) {
+        final OutputFollower follower = outputFollowers.remove(containerId);
+        if (follower == null) {
             return;
         }
-
+        try {
+            if (gracePeriodMs > 0) {
+                follower.thread.join(gracePeriodMs);
+            }
+            follower.logStream.close();
+            follower.thread.join(OUTPUT_FOLLOWER_GRACE_PERIOD_MS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
-     * TODO: Blocks until the Tomcat HTTP daemon is available.
+     * Creates the readiness engine, registering the default probe for every container
+     * along with any probes and deadlines provided by the user.
      */
-    private void waitForTomcat() throws Exception {
-        final ContainerAlias alias = ContainerAlias.TOMCAT;
-        if (!isEnabled(alias)) {
-            return;
+    @SuppressWarnings("unchecked")
+    private ReadinessEngine createReadinessEngine() {
+        final ReadinessEngine engine = new ReadinessEngine();
+        for (final ContainerAlias alias : ContainerAlias.values()) {
+            final ReadinessProbe probe = ReadinessProbes.getDefaultProbe(alias);
+            if (probe != null) {
+                engine.register(alias, probe);
+            }
         }
 
+        final Map<ContainerAlias, ReadinessProbe> probes = (Map<ContainerAlias, ReadinessProbe>)properties.get(TestEnvironmentProperty.READINESS_PROBES);
+        if (probes != null) {
+            probes.forEach(engine::register);
+        }
+        final Map<ContainerAlias, Long> deadlines = (Map<ContainerAlias, Long>)properties.get(TestEnvironmentProperty.READINESS_DEADLINES);
+        if (deadlines != null) {
+            deadlines.forEach((alias, deadline) -> engine.setDeadline(alias, deadline, TimeUnit.MILLISECONDS));
+        }
+        return engine;
     }
 
     /**
-     * Blocks until the Karaf Shell service is available.
+     * Returns the wait step for the given container, or null if there is no probe registered for it.
      */
-    private void waitForSentinel() throws Exception {
-        final ContainerAlias alias = ContainerAlias.SENTINEL;
-        if (!isEnabled(alias)) {
-            return;
+    private StartupScheduler.Step waitFor(final ContainerAlias alias) {
+        if (!readinessEngine.hasProbe(alias)) {
+            return null;
         }
-
-        final InetSocketAddress sshAddr = getServiceAddress(alias, 8301);
-        LOG.info("************************************************************");
-        LOG.info("Waiting for Sentinel @ {} to start.", sshAddr);
-        LOG.info("************************************************************");
-        await().atMost(5, MINUTES).pollInterval(5, SECONDS).until(() -> listFeatures(sshAddr, true));
+        return () -> readinessEngine.awaitReady(this, alias, eventMonitor);
     }
 
     /**
-     * Blocks until the Karaf Shell service is available.
+     * Returns the time it took for each of the containers to become ready, in milliseconds.
      */
-    private void waitForMinions() throws Exception {
-        for (final ContainerAlias alias : Arrays.asList(ContainerAlias.MINION, ContainerAlias.MINION_SAME_LOCATION, ContainerAlias.MINION_OTHER_LOCATION)) {
-            if (!isEnabled(alias)) {
-                return;
-            }
-
-            final InetSocketAddress sshAddr = getServiceAddress(alias, 8201);
-            LOG.info("************************************************************");
-            LOG.info("Waiting for Minion @ {} to establish connectivity with OpenNMS instance.", sshAddr);
-            LOG.info("************************************************************");
-            await().atMost(5, MINUTES).pollInterval(5, SECONDS).until(() -> canMinionConnectToOpenNMS(sshAddr));
-            await().atMost(5, MINUTES).pollInterval(5, SECONDS).until(() -> listFeatures(sshAddr, true));
-        }
+    public Map<ContainerAlias, Long> getTimeToReadyMs() {
+        return readinessEngine == null ? Collections.emptyMap() : readinessEngine.getTimeToReadyMs();
     }
 
     public boolean canMinionConnectToOpenNMS(InetSocketAddress sshAddr) {
-        try (final SshClient sshClient = new SshClient(sshAddr, "admin", "admin")) {
-            // Issue the 'minion:ping' command
-            PrintStream pipe = sshClient.openShell();
-            pipe.println("minion:ping");
-            pipe.println("logout");
-
-            await().atMost(2, MINUTES).until(sshClient.isShellClosedCallable());
-
-            // Grab the output
-            String shellOutput = sshClient.getStdout();
-            LOG.info("minion:ping output: {}", shellOutput);
-
-            // We're expecting output of the form
-            // admin@minion> minion:ping
-            // Connecting to ReST...
-            // OK
-            // Connecting to Broker...
-            // OK
-            //
-            // So it is sufficient to check for 2 'OK's
-            return StringUtils.countMatches(shellOutput, "OK") >= 2;
-        } catch (Exception e) {
-            LOG.error("Failed to reach the Minion from OpenNMS.", e);
-        }
-        return false;
-    }
-
-    private static boolean listFeatures(final InetSocketAddress sshAddr, final boolean karaf4) {
-        try (final SshClient sshClient = new SshClient(sshAddr, "admin", "admin")) {
-            final PrintStream pipe = sshClient.openShell();
-            if (karaf4) {
-                pipe.println("feature:list -i");
-            } else {
-                pipe.println("features:list -i");
-            }
-            pipe.println("list");
-            pipe.println("logout");
-            try {
-                await().atMost(2, MINUTES).until(sshClient.isShellClosedCallable());
-                // exit listFeatures() on success
-                return true;
-            } finally {
-                LOG.info("Features installed:\n{}", sshClient.getStdout());
-            }
-        } catch (final Exception e) {
-            LOG.error("Failed to list features.", e);
-        }
-        return false;
+        return ReadinessProbes.canMinionConnectToOpenNMS(sshAddr);
     }
 
     @Override
@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+import org.opennms.test.system.api.utils.OverlayArchive;
+import org.opennms.test.system.api.utils.SshClient;
+import org.opennms.test.system.api.utils.SshClient.CommandResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableMap;
+import com.spotify.docker.client.messages.ContainerInfo;
+
+/**
+ * Watches the source directories of the overlays, and pushes the files that change
+ * into the running containers.
+ *
+ * Changed files are streamed into the containers as tar archives, so this works with
+ * both new and existing environments. Deleted files are not removed from the containers.
+ * Karaf picks up changes to the .cfg files on its own, other changes can be followed up
+ * by a {@link RefreshHook}.
+ */
+public class OverlayWatcher implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OverlayWatcher.class);
+
+    /**
+     * Editors often save files in several steps, so wait for the events to settle before pushing.
+     */
+    private static final long SETTLE_MS = 250;
+
+    public static final ImmutableMap<ContainerAlias, String> HOMES = new ImmutableMap.Builder<ContainerAlias, String>()
+            .put(ContainerAlias.OPENNMS, "/opt/opennms")
+            .put(ContainerAlias.MINION, "/opt/minion")
+            .put(ContainerAlias.MINION_SAME_LOCATION, "/opt/minion")
+            .put(ContainerAlias.MINION_OTHER_LOCATION, "/opt/minion")
+            .put(ContainerAlias.SENTINEL, "/opt/sentinel")
+            .build();
+
+    /**
+     * Invoked after changed files were pushed into a container.
+     */
+    public static interface RefreshHook {
+        /**
+         * @param files the paths of the files that were pushed, relative to the container's home directory
+         */
+        void refresh(AbstractTestEnvironment environment, ContainerAlias alias, List<String> files) throws Exception;
+    }
+
+    private final AbstractTestEnvironment environment;
+
+    private final Map<ContainerAlias, Map<Path, String>> sources;
+
+    private final RefreshHook refreshHook;
+
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+
+    private WatchService watchService;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param sources the source files and directories of the overlays, along with their
+     *      target path relative to the home directory, by container
+     * @param refreshHook invoked after files were pushed, may be null
+     */
+    public OverlayWatcher(final AbstractTestEnvironment environment, final Map<ContainerAlias, Map<Path, String>> sources, final RefreshHook refreshHook) {
+        this.environment = environment;
+        this.sources = sources;
+        this.refreshHook = refreshHook;
+    }
+
+    /**
+     * Starts watching the sources in the background.
+     */
+    public void start() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        for (final Map<Path, String> sourcesForAlias : sources.values()) {
+            for (final Path source : sourcesForAlias.keySet()) {
+                if (Files.isDirectory(source)) {
+                    registerAll(source, null);
+                } else if (source.getParent() != null) {
+                    register(source.getParent());
+                }
+            }
+        }
+        LOG.info("Watching {} overlay director(ies) for changes.", directories.size());
+
+        final Thread thread = new Thread(this::run, "overlay-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (final IOException e) {
+                LOG.debug("Failed to close the watch service.", e);
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                final Set<Path> changed = new LinkedHashSet<>();
+                WatchKey key = watchService.take();
+                while (key != null) {
+                    collect(key, changed);
+                    key = watchService.poll(SETTLE_MS, TimeUnit.MILLISECONDS);
+                }
+                if (!changed.isEmpty()) {
+                    push(changed);
+                }
+            }
+        } catch (final ClosedWatchServiceException e) {
+            // Closed
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void collect(final WatchKey key, final Set<Path> changed) {
+        final Path directory = directories.get(key);
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                LOG.warn("Too many changes to the overlays, some of them were missed.");
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            final Path path = directory.resolve((Path)event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                LOG.info("{} was deleted. Deleted files are not removed from the containers.", path);
+            } else if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    registerAll(path, changed);
+                }
+            } else if (Files.isRegularFile(path)) {
+                changed.add(path);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * Registers the given directory and its subdirectories, collecting any existing files.
+     */
+    private void registerAll(final Path root, final Set<Path> files) {
+        try (final Stream<Path> paths = Files.walk(root)) {
+            paths.forEach(path -> {
+                if (Files.isDirectory(path)) {
+                    register(path);
+                } else if (files != null && Files.isRegularFile(path)) {
+                    files.add(path);
+                }
+            });
+        } catch (final IOException e) {
+            LOG.warn("Failed to watch {}.", root, e);
+        }
+    }
+
+    private void register(final Path directory) {
+        if (directories.containsValue(directory)) {
+            return;
+        }
+        try {
+            directories.put(directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), directory);
+        } catch (final IOException e) {
+            LOG.warn("Failed to watch {}.", directory, e);
+        }
+    }
+
+    private void push(final Set<Path> changed) {
+        for (final Map.Entry<ContainerAlias, Map<Path, String>> entry : sources.entrySet()) {
+            final ContainerAlias alias = entry.getKey();
+            final ContainerInfo containerInfo = environment.getContainerInfo(alias);
+            if (containerInfo == null) {
+                continue;
+            }
+
+            final OverlayArchive archive = new OverlayArchive(HOMES.get(alias));
+            final List<String> files = new ArrayList<>();
+            for (final Path file : changed) {
+                final String target = getTarget(entry.getValue(), file);
+                if (target != null) {
+                    archive.addFile(file, target);
+                    files.add(target);
+                }
+            }
+            if (files.isEmpty()) {
+                continue;
+            }
+
+            try {
+                archive.copyTo(environment.getDockerClient(), containerInfo.id());
+                LOG.info("Pushed {} to {}.", files, alias);
+                if (refreshHook != null) {
+                    refreshHook.refresh(environment, alias, files);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final Exception e) {
+                LOG.warn("Failed to push {} to {}.", files, alias, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the path of the given file relative to the home directory of the container,
+     * or null if the file is not part of the given sources.
+     */
+    private static String getTarget(final Map<Path, String> sources, final Path file) {
+        for (final Map.Entry<Path, String> source : sources.entrySet()) {
+            if (file.equals(source.getKey())) {
+                return source.getValue();
+            } else if (file.startsWith(source.getKey())) {
+                return Paths.get(source.getValue()).resolve(source.getKey().relativize(file)).toString().replace('\\', '/');
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the Karaf shell commands returned by the given function for the pushed files.
+     * Files for which the function returns null are ignored, and every distinct command
+     * is only run once.
+     */
+    public static RefreshHook karafCommands(final Function<String, String> commandForFile) {
+        return (environment, alias, files) -> {
+            final List<String> commands = files.stream().map(commandForFile).filter(Objects::nonNull).distinct().collect(Collectors.toList());
+            final ClusterShell.Kind kind = ClusterShell.Kind.of(alias);
+            if (commands.isEmpty() || kind == null) {
+                return;
+            }
+            final InetSocketAddress sshAddr = environment.getServiceAddress(alias, kind.getPort());
+            try (final SshClient sshClient = new SshClient(sshAddr, "admin", "admin")) {
+                for (final String command : commands) {
+                    final CommandResult result = sshClient.exec(command, 1, MINUTES);
+                    if (result.isSuccess()) {
+                        LOG.info("Ran '{}' on {}:\n{}", command, alias, result.getStdout());
+                    } else {
+                        LOG.warn("'{}' failed on {} with exit status {}:\n{}{}", command, alias, result.getExitStatus(), result.getStdout(), result.getStderr());
+                    }
+                }
+            }
+        };
+    }
+}
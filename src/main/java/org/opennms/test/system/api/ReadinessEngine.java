@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives the {@link ReadinessProbe}s registered for the containers.
+ *
+ * Probes are first invoked at a short interval, which is doubled after every
+ * failed attempt up to a maximum, so that fast services are detected quickly
+ * while slow services are not hammered. Every container has its own deadline.
+ *
+ * The time it took for every container to become ready is recorded.
+ */
+public class ReadinessEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReadinessEngine.class);
+
+    public static final long DEFAULT_INITIAL_INTERVAL_MS = 250;
+
+    public static final long DEFAULT_MAX_INTERVAL_MS = 10 * 1000;
+
+    public static final long DEFAULT_DEADLINE_MS = 5 * 60 * 1000;
+
+    private final Map<ContainerAlias, ReadinessProbe> probes = new EnumMap<>(ContainerAlias.class);
+
+    private final Map<ContainerAlias, Long> deadlines = new EnumMap<>(ContainerAlias.class);
+
+    private final Map<ContainerAlias, Long> timeToReady = new ConcurrentHashMap<>();
+
+    private long initialIntervalMs = DEFAULT_INITIAL_INTERVAL_MS;
+
+    private long maxIntervalMs = DEFAULT_MAX_INTERVAL_MS;
+
+    /**
+     * Registers the probe for the given container, replacing any existing probe.
+     */
+    public synchronized ReadinessEngine register(final ContainerAlias alias, final ReadinessProbe probe) {
+        probes.put(alias, probe);
+        return this;
+    }
+
+    /**
+     * Registers the probe for the given container, replacing any existing probe,
+     * along with the maximum amount of time we should wait for it to be ready.
+     */
+    public synchronized ReadinessEngine register(final ContainerAlias alias, final ReadinessProbe probe, final long deadline, final TimeUnit unit) {
+        probes.put(alias, probe);
+        deadlines.put(alias, unit.toMillis(deadline));
+        return this;
+    }
+
+    public synchronized ReadinessEngine setDeadline(final ContainerAlias alias, final long deadline, final TimeUnit unit) {
+        deadlines.put(alias, unit.toMillis(deadline));
+        return this;
+    }
+
+    public synchronized ReadinessEngine setIntervals(final long initialInterval, final long maxInterval, final TimeUnit unit) {
+        if (initialInterval <= 0 || maxInterval < initialInterval) {
+            throw new IllegalArgumentException("Intervals must be positive, and the initial interval must not exceed the maximum.");
+        }
+        initialIntervalMs = unit.toMillis(initialInterval);
+        maxIntervalMs = unit.toMillis(maxInterval);
+        return this;
+    }
+
+    public synchronized boolean hasProbe(final ContainerAlias alias) {
+        return probes.containsKey(alias);
+    }
+
+    /**
+     * Blocks until the probe for the given container succeeds.
+     *
+     * @param monitor used to abort as soon as a container dies, and to re-evaluate the probe
+     *                as soon as something happens to the container, may be null
+     * @throws IllegalStateException if a monitored container dies while waiting
+     * @throws TimeoutException if the container is not ready before its deadline
+     */
+    public void awaitReady(final TestEnvironment environment, final ContainerAlias alias, final ContainerEventMonitor monitor) throws Exception {
+        final ReadinessProbe probe;
+        final long deadlineMs;
+        long intervalMs;
+        final long maxInterval;
+        synchronized (this) {
+            probe = probes.get(alias);
+            deadlineMs = deadlines.getOrDefault(alias, DEFAULT_DEADLINE_MS);
+            intervalMs = initialIntervalMs;
+            maxInterval = maxIntervalMs;
+        }
+        if (probe == null) {
+            return;
+        }
+
+        LOG.info("************************************************************");
+        LOG.info("Waiting up to {}ms for {} to be ready.", deadlineMs, alias);
+        LOG.info("************************************************************");
+
+        final long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+        int attempts = 0;
+        while (true) {
+            if (monitor != null) {
+                monitor.checkFailures();
+            }
+
+            attempts++;
+            boolean ready = false;
+            try {
+                ready = probe.isReady(environment, alias);
+            } catch (final InterruptedException e) {
+                throw e;
+            } catch (final Exception e) {
+                LOG.debug("Readiness probe for {} failed: {}", alias, e.getMessage());
+            }
+
+            if (ready) {
+                final long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                timeToReady.put(alias, elapsedMs);
+                LOG.info("************************************************************");
+                LOG.info("{} is ready after {}ms ({} attempts).", alias, elapsedMs, attempts);
+                LOG.info("************************************************************");
+                return;
+            }
+
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException(String.format("%s was not ready within %dms (%d attempts).", alias, deadlineMs, attempts));
+            }
+
+            final long sleepNanos = Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(intervalMs));
+            if (monitor != null) {
+                monitor.awaitEvent(sleepNanos, TimeUnit.NANOSECONDS);
+            } else {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            }
+            intervalMs = Math.min(intervalMs * 2, maxInterval);
+        }
+    }
+
+    /**
+     * Returns the time it took for each of the containers to become ready, in milliseconds.
+     */
+    public Map<ContainerAlias, Long> getTimeToReadyMs() {
+        final Map<ContainerAlias, Long> copy = new EnumMap<>(ContainerAlias.class);
+        copy.putAll(timeToReady);
+        return Collections.unmodifiableMap(copy);
+    }
+}
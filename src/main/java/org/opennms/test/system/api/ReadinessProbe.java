@@ -0,0 +1,47 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api;
+
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+
+/**
+ * Determines whether or not the service running in a given container is ready for use.
+ *
+ * Probes are invoked repeatedly by the {@link ReadinessEngine} until they return true,
+ * or until the deadline for the container expires. Any exception thrown by the probe
+ * is treated as "not ready yet".
+ *
+ * Probes are only used by a single environment, so they may keep state between
+ * invocations (i.e. to remember which stages have already succeeded).
+ */
+@FunctionalInterface
+public interface ReadinessProbe {
+
+    boolean isReady(TestEnvironment environment, ContainerAlias alias) throws Exception;
+
+}
@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+import org.opennms.test.system.api.utils.CqlHandshake;
+import org.opennms.test.system.api.utils.RestClient;
+import org.opennms.test.system.api.utils.SshClient;
+import org.opennms.test.system.api.utils.SshClient.CommandResult;
+import org.postgresql.Driver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The built-in {@link ReadinessProbe}s.
+ */
+public abstract class ReadinessProbes {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReadinessProbes.class);
+
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+
+    /**
+     * SNMPv2c GET request for sysUpTime.0 using the 'public' community.
+     */
+    private static final byte[] SNMP_GET_SYSUPTIME = new byte[] {
+            0x30, 0x29,                                                     // SEQUENCE
+            0x02, 0x01, 0x01,                                               // version: v2c
+            0x04, 0x06, 'p', 'u', 'b', 'l', 'i', 'c',                       // community
+            (byte)0xa0, 0x1c,                                               // GetRequest-PDU
+            0x02, 0x04, 0x01, 0x02, 0x03, 0x04,                             // request-id
+            0x02, 0x01, 0x00,                                               // error-status
+            0x02, 0x01, 0x00,                                               // error-index
+            0x30, 0x0e,                                                     // variable-bindings
+            0x30, 0x0c,                                                     // variable-binding
+            0x06, 0x08, 0x2b, 0x06, 0x01, 0x02, 0x01, 0x01, 0x03, 0x00,     // 1.3.6.1.2.1.1.3.0
+            0x05, 0x00                                                      // NULL
+    };
+
+    /**
+     * Ready when a TCP connection can be established to the given port.
+     */
+    public static ReadinessProbe tcp(final int port) {
+        return (env, alias) -> {
+            final InetSocketAddress addr = env.getServiceAddress(alias, port);
+            LOG.debug("Connecting to {} @ {}", alias, addr);
+            try (final Socket socket = new Socket()) {
+                socket.connect(addr, CONNECT_TIMEOUT_MS);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Ready when an HTTP request to the given port gets a response, regardless of the status code.
+     */
+    public static ReadinessProbe http(final int port, final String path) {
+        return (env, alias) -> {
+            final InetSocketAddress addr = env.getServiceAddress(alias, port);
+            final URL url = new URL(String.format("http://%s:%d%s", addr.getHostString(), addr.getPort(), path));
+            LOG.debug("Requesting {} for {}", url, alias);
+            final HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+            try {
+                connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+                connection.setReadTimeout(CONNECT_TIMEOUT_MS);
+                return connection.getResponseCode() > 0;
+            } finally {
+                connection.disconnect();
+            }
+        };
+    }
+
+    /**
+     * Ready when the SNMP agent listening on the given UDP port answers a GET for sysUpTime.0.
+     */
+    public static ReadinessProbe snmp(final int port) {
+        return (env, alias) -> {
+            final InetSocketAddress addr = env.getServiceAddress(alias, port, "udp");
+            LOG.debug("Sending SNMP GET to {} @ {}", alias, addr);
+            try (final DatagramSocket socket = new DatagramSocket()) {
+                socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+                socket.send(new DatagramPacket(SNMP_GET_SYSUPTIME, SNMP_GET_SYSUPTIME.length, addr));
+                final DatagramPacket response = new DatagramPacket(new byte[1500], 1500);
+                socket.receive(response);
+                // A BER encoded SEQUENCE is good enough, we only care that the agent answers
+                return response.getLength() > 0 && response.getData()[0] == 0x30;
+            }
+        };
+    }
+
+    /**
+     * Ready when the OpenNMS ReST API returns its version.
+     */
+    public static ReadinessProbe openNMSRest(final int port) {
+        return (env, alias) -> {
+            final InetSocketAddress httpAddr = env.getServiceAddress(alias, port);
+            final String displayVersion = new RestClient(httpAddr).getDisplayVersion();
+            LOG.info("Connected to OpenNMS version {}", displayVersion);
+            return displayVersion != null;
+        };
+    }
+
+    /**
+     * Ready when we can log in to the Karaf shell.
+     */
+    public static ReadinessProbe ssh(final int port) {
+        return (env, alias) -> SshClient.canConnectViaSsh(env.getServiceAddress(alias, port), "admin", "admin").call();
+    }
+
+    /**
+     * Ready when the installed features can be listed from the Karaf shell.
+     */
+    public static ReadinessProbe karafFeatures(final int port, final boolean karaf4) {
+        return (env, alias) -> listFeatures(env.getServiceAddress(alias, port), karaf4);
+    }
+
+    /**
+     * Ready when the Minion can reach OpenNMS.
+     */
+    public static ReadinessProbe minionPing(final int port) {
+        return (env, alias) -> canMinionConnectToOpenNMS(env.getServiceAddress(alias, port));
+    }
+
+    /**
+     * Ready when all of the given probes have succeeded, in order.
+     *
+     * Stages that have succeeded are not re-evaluated.
+     */
+    public static ReadinessProbe stages(final ReadinessProbe... probes) {
+        final List<ReadinessProbe> stages = Arrays.asList(probes);
+        final AtomicInteger current = new AtomicInteger(0);
+        return (env, alias) -> {
+            while (current.get() < stages.size()) {
+                if (!stages.get(current.get()).isReady(env, alias)) {
+                    return false;
+                }
+                current.incrementAndGet();
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Ready when PostgreSQL accepts a connection to the given database and answers a query.
+     */
+    public static ReadinessProbe postgres(final int port, final String database, final String username, final String password) {
+        return (env, alias) -> {
+            final InetSocketAddress addr = env.getServiceAddress(alias, port);
+            final String url = String.format("jdbc:postgresql://%s:%d/%s", addr.getHostString(), addr.getPort(), database);
+            final Properties props = new Properties();
+            props.setProperty("user", username);
+            props.setProperty("password", password);
+            props.setProperty("connectTimeout", Integer.toString(CONNECT_TIMEOUT_MS / 1000 + 1));
+            props.setProperty("loginTimeout", Integer.toString(CONNECT_TIMEOUT_MS / 1000 + 1));
+            props.setProperty("socketTimeout", Integer.toString(CONNECT_TIMEOUT_MS / 1000 + 1));
+            LOG.debug("Querying PostgreSQL @ {}", url);
+            try (final Connection connection = new Driver().connect(url, props);
+                 final Statement statement = connection.createStatement();
+                 final ResultSet rs = statement.executeQuery("SELECT 1")) {
+                return rs.next();
+            } catch (final SQLException e) {
+                if (e.getSQLState() != null && e.getSQLState().startsWith("28")) {
+                    // Invalid authorization: the server is up and processed our startup message
+                    LOG.warn("PostgreSQL @ {} rejected our credentials, assuming it is ready: {}", url, e.getMessage());
+                    return true;
+                }
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * Ready when Cassandra completes a CQL handshake and answers a query.
+     */
+    public static ReadinessProbe cql(final int port) {
+        return (env, alias) -> CqlHandshake.isAcceptingQueries(env.getServiceAddress(alias, port), CONNECT_TIMEOUT_MS);
+    }
+
+    public static ReadinessProbe postgres() {
+        return postgres(5432, "postgres", "postgres", "");
+    }
+
+    public static ReadinessProbe cassandra() {
+        return cql(9042);
+    }
+
+    public static ReadinessProbe openNMS() {
+        return stages(openNMSRest(8980), ssh(8101), karafFeatures(8101, false));
+    }
+
+    public static ReadinessProbe minion() {
+        return stages(minionPing(8201), karafFeatures(8201, true));
+    }
+
+    public static ReadinessProbe sentinel() {
+        return karafFeatures(8301, true);
+    }
+
+    public static ReadinessProbe snmpd() {
+        return snmp(161);
+    }
+
+    public static ReadinessProbe tomcat() {
+        // The HTTP connector, followed by the JMX connector
+        return stages(http(8080, "/"), tcp(8081));
+    }
+
+    /**
+     * Returns the default probe for the given container, or null if we don't wait for it.
+     */
+    public static ReadinessProbe getDefaultProbe(final ContainerAlias alias) {
+        switch (alias) {
+        case POSTGRES:
+            return postgres();
+        case CASSANDRA:
+            return cassandra();
+        case OPENNMS:
+            return openNMS();
+        case MINION:
+        case MINION_SAME_LOCATION:
+        case MINION_OTHER_LOCATION:
+            return minion();
+        case SENTINEL:
+            return sentinel();
+        case SNMPD:
+            return snmpd();
+        case TOMCAT:
+            return tomcat();
+        default:
+            return null;
+        }
+    }
+
+    public static boolean canMinionConnectToOpenNMS(final InetSocketAddress sshAddr) {
+        try (final SshClient sshClient = new SshClient(sshAddr, "admin", "admin")) {
+            final CommandResult result = sshClient.exec("minion:ping", 2, MINUTES);
+            LOG.info("minion:ping output: {}", result.getStdout());
+
+            // We're expecting output of the form
+            // Connecting to ReST...
+            // OK
+            // Connecting to Broker...
+            // OK
+            //
+            // So it is sufficient to check for 2 'OK's
+            return StringUtils.countMatches(result.getStdout(), "OK") >= 2;
+        } catch (Exception e) {
+            LOG.error("Failed to reach the Minion from OpenNMS.", e);
+        }
+        return false;
+    }
+
+    public static boolean listFeatures(final InetSocketAddress sshAddr, final boolean karaf4) {
+        try (final SshClient sshClient = new SshClient(sshAddr, "admin", "admin")) {
+            final CommandResult result = sshClient.exec(karaf4 ? "feature:list -i" : "features:list -i", 2, MINUTES);
+            LOG.info("Features installed:\n{}", result.getStdout());
+            if (!result.isSuccess()) {
+                LOG.warn("Listing the features failed with exit status {}: {}", result.getExitStatus(), result.getStderr());
+            }
+            return result.isSuccess();
+        } catch (final Exception e) {
+            LOG.error("Failed to list features.", e);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,391 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Spawns and waits on containers concurrently, honoring the dependencies
+ * declared between them.
+ *
+ * Each container is a node with a spawn step and an optional wait step.
+ * A node may depend on another node having been spawned (i.e. when it only
+ * needs to link to it) or on it being ready (i.e. when it needs to talk to it
+ * while starting up). Independent nodes are processed in parallel, so the total
+ * startup time is bounded by the critical path rather than by the sum of all
+ * the nodes.
+ */
+public class StartupScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StartupScheduler.class);
+
+    /**
+     * The phase of a node that a dependent node waits for.
+     */
+    public static enum Phase {
+        SPAWNED,
+        READY
+    }
+
+    /**
+     * A unit of work performed for a given container.
+     */
+    @FunctionalInterface
+    public static interface Step {
+        void run() throws Exception;
+    }
+
+    public static class Node {
+        private final ContainerAlias alias;
+        private final Step spawn;
+        private final Step waitFor;
+        private final Map<ContainerAlias, Phase> dependencies = new EnumMap<>(ContainerAlias.class);
+        private final CompletableFuture<Void> spawned = new CompletableFuture<>();
+        private final CompletableFuture<Void> ready = new CompletableFuture<>();
+        private int level = 0;
+        private volatile long startedAt = -1;
+        private volatile long spawnedAt = -1;
+        private volatile long readyAt = -1;
+
+        private Node(final ContainerAlias alias, final Step spawn, final Step waitFor) {
+            this.alias = alias;
+            this.spawn = spawn;
+            this.waitFor = waitFor;
+        }
+
+        /**
+         * Declares that this node cannot be spawned before the given
+         * node has reached the given phase.
+         *
+         * Dependencies on containers that are not part of the schedule are ignored.
+         */
+        public Node dependsOn(final ContainerAlias dependency, final Phase phase) {
+            final Phase existing = dependencies.get(dependency);
+            if (existing == null || existing.compareTo(phase) < 0) {
+                dependencies.put(dependency, phase);
+            }
+            return this;
+        }
+
+        public ContainerAlias getAlias() {
+            return alias;
+        }
+
+        public Map<ContainerAlias, Phase> getDependencies() {
+            return Collections.unmodifiableMap(dependencies);
+        }
+
+        /**
+         * The depth of this node in the dependency graph, root nodes have a level of 0.
+         */
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * Offset from the start of the schedule at which the spawn began, in milliseconds,
+         * or -1 if it has not started.
+         */
+        public long getStartedAtMs() {
+            return startedAt;
+        }
+
+        /**
+         * Offset from the start of the schedule at which the container was spawned, in milliseconds,
+         * or -1 if it has not been spawned.
+         */
+        public long getSpawnedAtMs() {
+            return spawnedAt;
+        }
+
+        /**
+         * Offset from the start of the schedule at which the container was ready, in milliseconds,
+         * or -1 if it is not ready.
+         */
+        public long getReadyAtMs() {
+            return readyAt;
+        }
+
+        public long getSpawnDurationMs() {
+            return spawnedAt < 0 || startedAt < 0 ? -1 : spawnedAt - startedAt;
+        }
+
+        public long getWaitDurationMs() {
+            return readyAt < 0 || spawnedAt < 0 ? -1 : readyAt - spawnedAt;
+        }
+
+        private long getCompletedAtMs(final Phase phase) {
+            return phase == Phase.SPAWNED ? spawnedAt : readyAt;
+        }
+
+        private CompletableFuture<Void> getFuture(final Phase phase) {
+            return phase == Phase.SPAWNED ? spawned : ready;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[level=%d, started=%dms, spawned=%dms, ready=%dms, dependencies=%s]",
+                    alias, level, startedAt, spawnedAt, readyAt, dependencies);
+        }
+    }
+
+    private final Map<ContainerAlias, Node> nodes = new LinkedHashMap<>();
+
+    private long scheduleStartedAt = -1;
+
+    private long scheduleDuration = -1;
+
+    /**
+     * Adds a container to the schedule.
+     *
+     * @param alias the container
+     * @param spawn creates and starts the container
+     * @param waitFor blocks until the container is ready, may be null
+     */
+    public Node add(final ContainerAlias alias, final Step spawn, final Step waitFor) {
+        if (nodes.containsKey(alias)) {
+            throw new IllegalArgumentException(String.format("Container %s is already scheduled.", alias));
+        }
+        final Node node = new Node(alias, spawn, waitFor);
+        nodes.put(alias, node);
+        return node;
+    }
+
+    public Collection<Node> getNodes() {
+        return Collections.unmodifiableCollection(nodes.values());
+    }
+
+    public Node getNode(final ContainerAlias alias) {
+        return nodes.get(alias);
+    }
+
+    /**
+     * Computes the plan: the containers grouped by their level in the dependency graph.
+     * All of the containers in a given level only depend on containers in the previous levels.
+     *
+     * @throws IllegalStateException if the dependencies contain a cycle
+     */
+    public List<List<ContainerAlias>> getPlan() {
+        final Map<ContainerAlias, Integer> levels = new EnumMap<>(ContainerAlias.class);
+        boolean progress = true;
+        while (levels.size() < nodes.size() && progress) {
+            progress = false;
+            for (final Node node : nodes.values()) {
+                if (levels.containsKey(node.alias)) {
+                    continue;
+                }
+                int level = 0;
+                boolean resolved = true;
+                for (final ContainerAlias dependency : getActiveDependencies(node).keySet()) {
+                    final Integer dependencyLevel = levels.get(dependency);
+                    if (dependencyLevel == null) {
+                        resolved = false;
+                        break;
+                    }
+                    level = Math.max(level, dependencyLevel + 1);
+                }
+                if (resolved) {
+                    levels.put(node.alias, level);
+                    node.level = level;
+                    progress = true;
+                }
+            }
+        }
+
+        if (levels.size() < nodes.size()) {
+            final List<ContainerAlias> unresolved = nodes.keySet().stream()
+                    .filter(alias -> !levels.containsKey(alias))
+                    .collect(Collectors.toList());
+            throw new IllegalStateException("Cyclic container dependencies between: " + unresolved);
+        }
+
+        final int depth = levels.values().stream().mapToInt(Integer::intValue).max().orElse(-1) + 1;
+        final List<List<ContainerAlias>> plan = new ArrayList<>(depth);
+        for (int i = 0; i < depth; i++) {
+            plan.add(new ArrayList<>());
+        }
+        for (final Node node : nodes.values()) {
+            plan.get(levels.get(node.alias)).add(node.alias);
+        }
+        return plan;
+    }
+
+    /**
+     * Spawns and waits on all of the containers, running independent nodes in parallel.
+     *
+     * Blocks until every container is ready, or until the first failure, in which case
+     * the remaining work is interrupted and the failure is rethrown.
+     */
+    public void execute() throws Exception {
+        final List<List<ContainerAlias>> plan = getPlan();
+        LOG.info("************************************************************");
+        LOG.info("Startup plan: {}", plan);
+        LOG.info("************************************************************");
+        if (nodes.isEmpty()) {
+            return;
+        }
+
+        final CompletableFuture<Void> failed = new CompletableFuture<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(nodes.size(), new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "container-startup-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        scheduleStartedAt = System.currentTimeMillis();
+        try {
+            for (final Node node : nodes.values()) {
+                executor.execute(() -> run(node, failed));
+            }
+
+            final CompletableFuture<Void> allReady = CompletableFuture.allOf(nodes.values().stream()
+                    .map(node -> node.ready)
+                    .toArray(CompletableFuture[]::new));
+            try {
+                CompletableFuture.anyOf(allReady, failed).get();
+            } catch (final ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+            }
+        } finally {
+            executor.shutdownNow();
+            scheduleDuration = System.currentTimeMillis() - scheduleStartedAt;
+            logTimings();
+        }
+    }
+
+    private void run(final Node node, final CompletableFuture<Void> failed) {
+        try {
+            final Map<ContainerAlias, Phase> dependencies = getActiveDependencies(node);
+            if (!dependencies.isEmpty()) {
+                LOG.debug("{} is waiting on {}", node.alias, dependencies);
+                CompletableFuture.allOf(dependencies.entrySet().stream()
+                        .map(e -> nodes.get(e.getKey()).getFuture(e.getValue()))
+                        .toArray(CompletableFuture[]::new)).get();
+            }
+
+            node.startedAt = elapsed();
+            node.spawn.run();
+            node.spawnedAt = elapsed();
+            node.spawned.complete(null);
+
+            if (node.waitFor != null) {
+                node.waitFor.run();
+            }
+            node.readyAt = elapsed();
+            node.ready.complete(null);
+        } catch (final Throwable t) {
+            final Throwable cause = t instanceof ExecutionException && t.getCause() != null ? t.getCause() : t;
+            if (!(t instanceof ExecutionException || t instanceof InterruptedException)) {
+                LOG.error("Startup of {} failed.", node.alias, cause);
+            }
+            node.spawned.completeExceptionally(cause);
+            node.ready.completeExceptionally(cause);
+            failed.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Returns the chain of containers that bounded the total startup time, starting
+     * with a root of the dependency graph and ending with the last container to become ready.
+     */
+    public List<Node> getCriticalPath() {
+        final List<Node> path = new ArrayList<>();
+        Node current = nodes.values().stream()
+                .filter(n -> n.readyAt >= 0)
+                .max((a, b) -> Long.compare(a.readyAt, b.readyAt))
+                .orElse(null);
+        while (current != null) {
+            path.add(0, current);
+            Node next = null;
+            long latest = -1;
+            for (final Map.Entry<ContainerAlias, Phase> dependency : getActiveDependencies(current).entrySet()) {
+                final Node candidate = nodes.get(dependency.getKey());
+                final long completedAt = candidate.getCompletedAtMs(dependency.getValue());
+                if (completedAt > latest) {
+                    latest = completedAt;
+                    next = candidate;
+                }
+            }
+            current = next;
+        }
+        return path;
+    }
+
+    /**
+     * Total time spent executing the schedule in milliseconds, or -1 if it has not been executed.
+     */
+    public long getDurationMs() {
+        return scheduleDuration;
+    }
+
+    private Map<ContainerAlias, Phase> getActiveDependencies(final Node node) {
+        final Map<ContainerAlias, Phase> active = new EnumMap<>(ContainerAlias.class);
+        node.dependencies.forEach((alias, phase) -> {
+            if (nodes.containsKey(alias)) {
+                active.put(alias, phase);
+            }
+        });
+        return active;
+    }
+
+    private long elapsed() {
+        return System.currentTimeMillis() - scheduleStartedAt;
+    }
+
+    private void logTimings() {
+        LOG.info("************************************************************");
+        LOG.info("Startup timings (total {}ms):", scheduleDuration);
+        for (final Node node : nodes.values()) {
+            LOG.info("* {}: level {}, started at {}ms, spawned in {}ms, ready after {}ms",
+                    node.alias, node.level, node.startedAt, node.getSpawnDurationMs(), node.getWaitDurationMs());
+        }
+        LOG.info("Critical path: {}", getCriticalPath().stream().map(Node::getAlias).collect(Collectors.toList()));
+        LOG.info("************************************************************");
+    }
+}
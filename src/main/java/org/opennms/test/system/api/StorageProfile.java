@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api;
+
+import java.util.Map;
+
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Controls where the stateful containers keep their data.
+ */
+public enum StorageProfile {
+    /**
+     * Data is written to the container's file system, with the default
+     * durability settings of every engine.
+     */
+    DURABLE,
+    /**
+     * Data is kept in memory, on tmpfs, and the engines are configured to skip
+     * syncing to disk where possible. Everything is lost when the container stops.
+     */
+    EPHEMERAL;
+
+    private static final long MB = 1024 * 1024;
+
+    /**
+     * The data directories of every stateful container, along with the default size
+     * of the tmpfs mounted on them. The first directory is the main data directory.
+     */
+    public static final ImmutableMap<ContainerAlias, ImmutableMap<String, Long>> DATA_DIRECTORIES =
+            new ImmutableMap.Builder<ContainerAlias, ImmutableMap<String, Long>>()
+            .put(ContainerAlias.POSTGRES, ImmutableMap.of("/var/lib/postgresql/data", 512 * MB))
+            .put(ContainerAlias.CASSANDRA, ImmutableMap.of("/var/lib/cassandra", 1024 * MB))
+            .put(ContainerAlias.KAFKA, ImmutableMap.of("/tmp/kafka-logs", 512 * MB, "/tmp/zookeeper", 64 * MB))
+            .put(ContainerAlias.ELASTICSEARCH_2, ImmutableMap.of("/usr/share/elasticsearch/data", 512 * MB))
+            .put(ContainerAlias.ELASTICSEARCH_5, ImmutableMap.of("/usr/share/elasticsearch/data", 512 * MB))
+            .put(ContainerAlias.ELASTICSEARCH_6, ImmutableMap.of("/usr/share/elasticsearch/data", 512 * MB))
+            .build();
+
+    /**
+     * Returns the tmpfs mounts for the given container, in the form expected by
+     * {@link com.spotify.docker.client.messages.HostConfig.Builder#tmpfs(Map)}.
+     *
+     * @param sizes the sizes of the tmpfs mounts, by directory
+     */
+    public static Map<String, String> getTmpfs(final Map<String, Long> sizes) {
+        final ImmutableMap.Builder<String, String> tmpfs = ImmutableMap.builder();
+        sizes.forEach((directory, size) -> tmpfs.put(directory, "rw,exec,size=" + size));
+        return tmpfs.build();
+    }
+}
@@ -57,6 +57,33 @@ public interface TestEnvironment extends TestRule {
 
     Set<ContainerAlias> getContainerAliases();
 
+    /**
+     * Saves the current state of the OpenNMS database, so that it can be restored with {@link #reset()}.
+     */
+    void checkpoint() throws Exception;
+
+    /**
+     * Restores the OpenNMS database to the state it was in when {@link #checkpoint()} was last called.
+     *
+     * OpenNMS and Sentinel are paused while the database is being recreated.
+     * Note that any state they keep in memory is not reset.
+     */
+    void reset() throws Exception;
+
+    /**
+     * @return a shell that runs Karaf commands on all of the OpenNMS, Minion or Sentinel containers at once
+     */
+    default ClusterShell getClusterShell() {
+        return new ClusterShell(this);
+    }
+
+    /**
+     * @return a seeder that bulk loads rows into the OpenNMS database
+     */
+    default DatabaseSeeder getDatabaseSeeder() {
+        return new DatabaseSeeder(getServiceAddress(ContainerAlias.POSTGRES, 5432));
+    }
+
     public static TestEnvironmentBuilder builder() {
         return new TestEnvironmentBuilder();
     }
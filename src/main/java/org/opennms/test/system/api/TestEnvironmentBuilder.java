@@ -7,14 +7,18 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
-import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
 import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import org.apache.cxf.helpers.IOUtils;
@@ -29,12 +33,18 @@ public class TestEnvironmentBuilder {
 
         private Path m_overlay;
 
+        /**
+         * The source files and directories, along with their target, so that they can be watched
+         */
+        private final Map<Path, String> m_sources = new LinkedHashMap<>();
+
         public EnvironmentBuilder addFiles(final Path directory, final String targetDirectory) {
             if (directory == null || !directory.toFile().isDirectory()) {
                 throw new RuntimeException("You must specify a source directory!");
             }
 
             final Path root = directory.toAbsolutePath();
+            m_sources.put(root, targetDirectory);
             try (final Stream<Path> paths = Files.walk(root)) {
                 paths.forEach(from -> {
                     if (from.toFile().isDirectory()) {
@@ -45,7 +55,7 @@ public class TestEnvironmentBuilder {
                     System.err.println("to="+to);
                     //System.err.println(root.relativize(from));
                     try {
-                        addFile(from.toFile().toURI().toURL(), to.toString());
+                        stageFile(from, to.toString());
                     } catch (Exception e) {
                         throw new RuntimeException("Failed to copy " + from + " to " + to);
                     }
@@ -77,13 +87,34 @@ public class TestEnvironmentBuilder {
             }
         }
 
+        /**
+         * Adds the given file to the overlay. The file is hard linked rather than copied
+         * when possible, and must not be modified until the environment has started.
+         */
         public EnvironmentBuilder addFile(final Path path, final String target) {
+            m_sources.put(path.toAbsolutePath(), target);
+            stageFile(path, target);
+            return this;
+        }
+
+        /**
+         * Returns the source files and directories that were added to the overlay, along with their target.
+         */
+        public Map<Path, String> getSources() {
+            return Collections.unmodifiableMap(m_sources);
+        }
+
+        private void stageFile(final Path path, final String target) {
+            final File targetFile = createFile(target);
             try {
-                addFile(path.toFile().toURI().toURL(), target);
-            } catch (MalformedURLException e) {
-                throw new RuntimeException("Provided path " + path.toString() + " cannot be converted to an URL", e);
+                Files.createLink(targetFile.toPath(), path.toAbsolutePath());
+            } catch (final IOException | UnsupportedOperationException e) {
+                try {
+                    Files.copy(path, targetFile.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+                } catch (final IOException ex) {
+                    throw new RuntimeException("Failed to copy " + path + " to $OPENNMS_HOME/" + target, ex);
+                }
             }
-            return this;
         }
 
         public Path build() {
@@ -101,6 +132,8 @@ public class TestEnvironmentBuilder {
 
             final Path filePath = m_overlay.resolve(path);
             filePath.getParent().toFile().mkdirs();
+            // The file may be a link to a source file, which must not be written to
+            filePath.toFile().delete();
             final File file = filePath.toFile();
             return file;
         }
@@ -171,6 +204,83 @@ public class TestEnvironmentBuilder {
         return this;
     }
 
+    public TestEnvironmentBuilder teardownThreads(int teardownThreads) {
+        properties.put(TestEnvironmentProperty.TEARDOWN_THREADS, teardownThreads);
+        return this;
+    }
+
+    public TestEnvironmentBuilder followOutput(boolean followOutput) {
+        properties.put(TestEnvironmentProperty.OUTPUT_FOLLOW, followOutput);
+        return this;
+    }
+
+    public TestEnvironmentBuilder compressOutput(boolean compressOutput) {
+        properties.put(TestEnvironmentProperty.OUTPUT_COMPRESS, compressOutput);
+        return this;
+    }
+
+    public TestEnvironmentBuilder maxOutputSize(long maxBytes, int maxFiles) {
+        properties.put(TestEnvironmentProperty.OUTPUT_MAX_BYTES, maxBytes);
+        properties.put(TestEnvironmentProperty.OUTPUT_MAX_FILES, maxFiles);
+        return this;
+    }
+
+    public TestEnvironmentBuilder pooled(boolean pooled) {
+        properties.put(TestEnvironmentProperty.POOLED, pooled);
+        return this;
+    }
+
+    public TestEnvironmentBuilder poolIdleTtl(long ttl, TimeUnit unit) {
+        properties.put(TestEnvironmentProperty.POOL_IDLE_TTL, unit.toMillis(ttl));
+        return this;
+    }
+
+    public TestEnvironmentBuilder snapshot(boolean snapshot) {
+        properties.put(TestEnvironmentProperty.SNAPSHOT, snapshot);
+        return this;
+    }
+
+    public TestEnvironmentBuilder checkpointDatabase(boolean checkpointDatabase) {
+        properties.put(TestEnvironmentProperty.DATABASE_CHECKPOINT, checkpointDatabase);
+        return this;
+    }
+
+    public TestEnvironmentBuilder storageProfile(StorageProfile storageProfile) {
+        properties.put(TestEnvironmentProperty.STORAGE_PROFILE, storageProfile);
+        return this;
+    }
+
+    /**
+     * Overrides the size of the tmpfs mounted on the main data directory of the
+     * given container, when using the {@link StorageProfile#EPHEMERAL} profile.
+     */
+    public TestEnvironmentBuilder withTmpfsSize(final ContainerAlias alias, final long sizeBytes) {
+        getPropertyMap(TestEnvironmentProperty.TMPFS_SIZES).put(alias, sizeBytes);
+        return this;
+    }
+
+    public TestEnvironmentBuilder overlayDelivery(OverlayDelivery overlayDelivery) {
+        properties.put(TestEnvironmentProperty.OVERLAY_DELIVERY, overlayDelivery);
+        return this;
+    }
+
+    /**
+     * Pushes the files that change in the source directories of the overlays
+     * into the running containers.
+     */
+    public TestEnvironmentBuilder watchOverlays(boolean watchOverlays) {
+        properties.put(TestEnvironmentProperty.WATCH_OVERLAYS, watchOverlays);
+        return this;
+    }
+
+    /**
+     * Invokes the given hook after files were pushed into a container while watching the overlays.
+     */
+    public TestEnvironmentBuilder withOverlayRefreshHook(OverlayWatcher.RefreshHook refreshHook) {
+        properties.put(TestEnvironmentProperty.OVERLAY_REFRESH_HOOK, refreshHook);
+        return this;
+    }
+
     public TestEnvironmentBuilder useExisting(boolean useExisting) {
         properties.put(TestEnvironmentProperty.USE_EXISTING, useExisting);
         return this;
@@ -301,6 +411,28 @@ public class TestEnvironmentBuilder {
         return this;
     }
 
+    /**
+     * Uses the given probe to determine when the container is ready, instead of the default probe.
+     * This can also be used to wait on containers that have no default probe, i.e. Kafka.
+     */
+    public TestEnvironmentBuilder withReadinessProbe(final ContainerAlias alias, final ReadinessProbe probe) {
+        getPropertyMap(TestEnvironmentProperty.READINESS_PROBES).put(alias, probe);
+        return this;
+    }
+
+    /**
+     * Sets the maximum amount of time to wait for the container to be ready.
+     */
+    public TestEnvironmentBuilder withReadinessDeadline(final ContainerAlias alias, final long deadline, final TimeUnit unit) {
+        getPropertyMap(TestEnvironmentProperty.READINESS_DEADLINES).put(alias, unit.toMillis(deadline));
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Map<ContainerAlias, T> getPropertyMap(final TestEnvironmentProperty property) {
+        return (Map<ContainerAlias, T>)properties.computeIfAbsent(property, p -> new EnumMap<ContainerAlias, T>(ContainerAlias.class));
+    }
+
     public OpenNMSEnvironmentBuilder withOpenNMSEnvironment() {
         if (m_opennmsEnvironmentBuilder == null) {
             m_opennmsEnvironmentBuilder = new OpenNMSEnvironmentBuilder();
@@ -327,9 +459,25 @@ public class TestEnvironmentBuilder {
             all();
         }
 
+        if ((Boolean)properties.getOrDefault(TestEnvironmentProperty.WATCH_OVERLAYS, Boolean.FALSE)) {
+            final Map<ContainerAlias, Map<Path, String>> sources = new EnumMap<>(ContainerAlias.class);
+            if (m_opennmsEnvironmentBuilder != null) {
+                sources.put(ContainerAlias.OPENNMS, m_opennmsEnvironmentBuilder.getSources());
+            }
+            if (m_minionEnvironmentBuilder != null) {
+                for (final ContainerAlias alias : NewTestEnvironment.MINION_IDS.keySet()) {
+                    sources.put(alias, m_minionEnvironmentBuilder.getSources());
+                }
+            }
+            if (m_sentinelEnvironmentBuilder != null) {
+                sources.put(ContainerAlias.SENTINEL, m_sentinelEnvironmentBuilder.getSources());
+            }
+            properties.put(TestEnvironmentProperty.OVERLAY_SOURCES, sources);
+        }
+
         LOG.debug("Creating environment with containers: {}", m_containers);
-        if ((Boolean)properties.get(TestEnvironmentProperty.USE_EXISTING)) {
-            return new ExistingTestEnvironment();
+        if ((Boolean)properties.getOrDefault(TestEnvironmentProperty.USE_EXISTING, Boolean.FALSE)) {
+            return new ExistingTestEnvironment(properties);
         } else {
             final Path opennmsOverlay = (m_opennmsEnvironmentBuilder == null ? null : m_opennmsEnvironmentBuilder.build());
             final Path minionOverlay = (m_minionEnvironmentBuilder == null ? null : m_minionEnvironmentBuilder.build());
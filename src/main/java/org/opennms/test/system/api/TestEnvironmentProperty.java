@@ -14,5 +14,81 @@ public enum TestEnvironmentProperty {
     /**
      * Default number of partitions per topic in the Apache Kafka container.
      */
-    KAFKA_PARTITIONS
+    KAFKA_PARTITIONS,
+    /**
+     * Map of {@link ReadinessProbe}s by container alias, used in place of the default probes.
+     */
+    READINESS_PROBES,
+    /**
+     * Map of the maximum amount of time to wait for a container to be ready
+     * by container alias, in milliseconds.
+     */
+    READINESS_DEADLINES,
+    /**
+     * Maximum number of containers that are destroyed concurrently during tear down.
+     */
+    TEARDOWN_THREADS,
+    /**
+     * If set to true, the output of the containers is continuously streamed to disk
+     * while the tests run, instead of being gathered during tear down.
+     */
+    OUTPUT_FOLLOW,
+    /**
+     * If set to true, the output of the containers is gzipped.
+     */
+    OUTPUT_COMPRESS,
+    /**
+     * Maximum size of a container output file in bytes, before compression.
+     */
+    OUTPUT_MAX_BYTES,
+    /**
+     * Number of container output files to keep when rotating. If set to 1,
+     * any output past the maximum size is discarded instead.
+     */
+    OUTPUT_MAX_FILES,
+    /**
+     * If set to true, the environment is leased from the {@link EnvironmentPool}
+     * and released back to the pool during tear down, instead of being destroyed.
+     */
+    POOLED,
+    /**
+     * Time in milliseconds after which an idle pooled environment is destroyed.
+     */
+    POOL_IDLE_TTL,
+    /**
+     * If set to true, PostgreSQL and OpenNMS are restored from an {@link EnvironmentSnapshot},
+     * which is committed by the first environment to start.
+     */
+    SNAPSHOT,
+    /**
+     * If set to true, the OpenNMS database is checkpointed once the environment is
+     * ready, so that the tests can call {@link TestEnvironment#reset()}.
+     */
+    DATABASE_CHECKPOINT,
+    /**
+     * The {@link StorageProfile} used by the stateful containers.
+     */
+    STORAGE_PROFILE,
+    /**
+     * Sizes of the tmpfs mounted on the main data directory of the containers
+     * when using the ephemeral storage profile, in bytes.
+     */
+    TMPFS_SIZES,
+    /**
+     * The {@link OverlayDelivery} used to copy the overlays into the containers.
+     */
+    OVERLAY_DELIVERY,
+    /**
+     * If set to true, the files that change in the source directories of the
+     * overlays are pushed into the running containers.
+     */
+    WATCH_OVERLAYS,
+    /**
+     * The sources of the overlays to watch, by container.
+     */
+    OVERLAY_SOURCES,
+    /**
+     * The {@link OverlayWatcher.RefreshHook} invoked after files were pushed into a container.
+     */
+    OVERLAY_REFRESH_HOOK
 }
\ No newline at end of file
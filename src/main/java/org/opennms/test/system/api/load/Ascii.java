@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes ASCII text to buffers without allocating.
+ */
+final class Ascii {
+
+    private Ascii() {
+    }
+
+    /**
+     * Writes the decimal digits of the given value.
+     */
+    static void putLong(final ByteBuffer buffer, final long value) {
+        if (value == Long.MIN_VALUE) {
+            putString(buffer, Long.toString(value));
+            return;
+        }
+        long remaining = value;
+        if (remaining < 0) {
+            buffer.put((byte)'-');
+            remaining = -remaining;
+        }
+        long divisor = 1;
+        while (divisor <= remaining / 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            buffer.put((byte)('0' + remaining / divisor % 10));
+            divisor /= 10;
+        }
+    }
+
+    /**
+     * Writes the decimal digits of the given non-negative value, padded with zeros to the given width.
+     */
+    static void putPadded(final ByteBuffer buffer, final long value, final int width) {
+        long divisor = 1;
+        for (int i = 1; i < width; i++) {
+            divisor *= 10;
+        }
+        while (divisor > value && divisor > 1) {
+            buffer.put((byte)'0');
+            divisor /= 10;
+        }
+        putLong(buffer, value);
+    }
+
+    static void putString(final ByteBuffer buffer, final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            buffer.put((byte)value.charAt(i));
+        }
+    }
+}
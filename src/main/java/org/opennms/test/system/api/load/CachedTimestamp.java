@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Writes timestamps to buffers, formatting them at most once per second.
+ *
+ * The formatter should not include fractions of a second, which can be
+ * appended with {@link #putMillis(ByteBuffer, long)}.
+ */
+class CachedTimestamp {
+
+    /**
+     * A formatted second, replaced as a whole so that readers never see a partial update.
+     */
+    private static class Formatted {
+        private final long second;
+        private final byte[] bytes;
+
+        private Formatted(final long second, final byte[] bytes) {
+            this.second = second;
+            this.bytes = bytes;
+        }
+    }
+
+    private final DateTimeFormatter formatter;
+
+    private volatile Formatted formatted = new Formatted(Long.MIN_VALUE, null);
+
+    CachedTimestamp(final DateTimeFormatter formatter) {
+        this.formatter = formatter;
+    }
+
+    void put(final ByteBuffer buffer, final long nowMillis) {
+        final long second = Math.floorDiv(nowMillis, 1000);
+        Formatted current = formatted;
+        if (current.second != second) {
+            // Formatted by whichever sender thread notices the new second first
+            current = new Formatted(second, formatter.format(Instant.ofEpochSecond(second)).getBytes(StandardCharsets.US_ASCII));
+            formatted = current;
+        }
+        buffer.put(current.bytes);
+    }
+
+    /**
+     * Writes the milliseconds as a three digit fraction, including the leading dot.
+     */
+    static void putMillis(final ByteBuffer buffer, final long nowMillis) {
+        buffer.put((byte)'.');
+        Ascii.putPadded(buffer, Math.floorMod(nowMillis, 1000), 3);
+    }
+}
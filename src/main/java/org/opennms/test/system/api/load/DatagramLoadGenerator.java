@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends generated datagrams to a target at a given rate.
+ *
+ * Each sending thread has its own non-blocking channel, buffer and share of
+ * the rate, so the threads don't contend with each other. The messages are
+ * encoded into a reused direct buffer, and are sent in batches between the
+ * pauses of the rate limiter. A datagram that doesn't fit in the socket's send
+ * buffer is counted as a drop instead of blocking the sender.
+ *
+ * @param <T> the type of the generator, for chaining
+ */
+public abstract class DatagramLoadGenerator<T extends DatagramLoadGenerator<T>> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DatagramLoadGenerator.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    public static final int DEFAULT_SEND_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The largest payload of a UDP datagram.
+     */
+    private static final int MAX_DATAGRAM_SIZE = 65507;
+
+    private final String name;
+    private final InetSocketAddress target;
+    private double rate = 0;
+    private int threads = 1;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int sendBufferSize = DEFAULT_SEND_BUFFER_SIZE;
+
+    protected DatagramLoadGenerator(final String name, final InetSocketAddress target) {
+        this.name = name;
+        this.target = target;
+    }
+
+    /**
+     * Encodes the message with the given sequence number into the given buffer.
+     *
+     * Called concurrently from all of the sending threads, each with its own buffer.
+     * The sequence numbers are unique across the threads.
+     */
+    protected abstract void encode(long sequence, ByteBuffer buffer);
+
+    /**
+     * Invoked once before any message is encoded.
+     */
+    protected void onStart() {
+        // pass
+    }
+
+    @SuppressWarnings("unchecked")
+    protected T self() {
+        return (T)this;
+    }
+
+    public InetSocketAddress getTarget() {
+        return target;
+    }
+
+    /**
+     * @param messagesPerSecond the total rate across all of the threads, or 0 to send as fast as possible
+     */
+    public T withRate(final double messagesPerSecond) {
+        if (messagesPerSecond < 0) {
+            throw new IllegalArgumentException("The rate cannot be negative: " + messagesPerSecond);
+        }
+        rate = messagesPerSecond;
+        return self();
+    }
+
+    public T withThreads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required: " + threads);
+        }
+        this.threads = threads;
+        return self();
+    }
+
+    /**
+     * @param batchSize the number of messages sent for every pause of the rate limiter
+     */
+    public T withBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return self();
+    }
+
+    public T withSendBufferSize(final int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+        return self();
+    }
+
+    /**
+     * Sends messages for the given amount of time.
+     */
+    public LoadReport run(final long duration, final TimeUnit unit) throws IOException, InterruptedException {
+        return generate(Long.MAX_VALUE, System.nanoTime() + unit.toNanos(duration));
+    }
+
+    /**
+     * Sends the given number of messages.
+     */
+    public LoadReport send(final long count) throws IOException, InterruptedException {
+        return generate(count, Long.MAX_VALUE);
+    }
+
+    private LoadReport generate(final long count, final long deadlineNanos) throws IOException, InterruptedException {
+        onStart();
+        final AtomicLong sent = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final List<DatagramChannel> channels = new ArrayList<>(threads);
+        final List<Thread> workers = new ArrayList<>(threads);
+        final List<Exception> failures = new ArrayList<>();
+
+        LOG.info("{}: sending to {} with {} thread(s) at {}", name, target, threads, rate > 0 ? rate + "/s" : "full speed");
+        final long start = System.nanoTime();
+        try {
+            for (int i = 0; i < threads; i++) {
+                final DatagramChannel channel = DatagramChannel.open();
+                channels.add(channel);
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+                channel.connect(target);
+
+                final int index = i;
+                // Spread the remainder over the first threads
+                final long quota = count == Long.MAX_VALUE ? Long.MAX_VALUE : count / threads + (index < count % threads ? 1 : 0);
+                final Thread worker = new Thread(() -> {
+                    try {
+                        sendFrom(channel, index, quota, deadlineNanos, sent, dropped, bytes);
+                    } catch (final Exception e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }, name + "-" + i);
+                worker.setDaemon(true);
+                workers.add(worker);
+            }
+            workers.forEach(Thread::start);
+            for (final Thread worker : workers) {
+                worker.join();
+            }
+        } finally {
+            workers.forEach(Thread::interrupt);
+            for (final DatagramChannel channel : channels) {
+                channel.close();
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new IOException(name + " failed to send", failures.get(0));
+        }
+
+        final LoadReport report = new LoadReport(name, sent.get(), dropped.get(), bytes.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), rate);
+        LOG.info("{}", report);
+        return report;
+    }
+
+    private void sendFrom(final DatagramChannel channel, final int index, final long quota, final long deadlineNanos,
+            final AtomicLong sent, final AtomicLong dropped, final AtomicLong bytes) throws IOException, InterruptedException {
+        final RateLimiter limiter = new RateLimiter(rate / threads);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+        long sequence = index;
+        long remaining = quota;
+        long localSent = 0, localDropped = 0, localBytes = 0;
+        try {
+            while (remaining > 0 && System.nanoTime() < deadlineNanos) {
+                final int batch = (int)Math.min(batchSize, remaining);
+                limiter.acquire(batch);
+                for (int i = 0; i < batch; i++) {
+                    buffer.clear();
+                    encode(sequence, buffer);
+                    buffer.flip();
+                    sequence += threads;
+                    int written;
+                    try {
+                        written = channel.write(buffer);
+                    } catch (final PortUnreachableException e) {
+                        // The target reported an earlier datagram as undeliverable
+                        written = 0;
+                    }
+                    if (written > 0) {
+                        localSent++;
+                        localBytes += written;
+                    } else {
+                        localDropped++;
+                    }
+                }
+                remaining -= batch;
+            }
+        } finally {
+            sent.addAndGet(localSent);
+            dropped.addAndGet(localDropped);
+            bytes.addAndGet(localBytes);
+        }
+    }
+}
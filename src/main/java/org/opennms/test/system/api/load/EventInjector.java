@@ -0,0 +1,361 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+import org.opennms.test.system.api.TestEnvironment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sends events to Eventd's XML listener over persistent TCP connections.
+ *
+ * Events are sent in batches, one <code>&lt;log&gt;</code> document per batch,
+ * and every connection keeps several batches in flight instead of waiting for
+ * the receipt of each batch before sending the next one. The receipts are read
+ * by a separate thread per connection, which counts the acknowledged uuids.
+ *
+ * The templates are used in a round-robin fashion, and are written directly into
+ * the buffers of the connections.
+ */
+public class EventInjector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventInjector.class);
+
+    /**
+     * The port of Eventd's XML listener.
+     */
+    public static final int EVENTD_PORT = 5817;
+
+    public static final int DEFAULT_CONNECTIONS = 4;
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+
+    /**
+     * How long to wait for receipts, before sending a batch and after sending the last one.
+     */
+    private static final long DRAIN_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final byte[] LOG_START = "<log>\n<events>\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] LOG_END = "</events>\n</log>\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String NAME = "event-injector";
+
+    private final InetSocketAddress target;
+    private final EventTemplate[] templates;
+    private double rate = 0;
+    private int connections = DEFAULT_CONNECTIONS;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    public EventInjector(final InetSocketAddress target, final EventTemplate... templates) {
+        if (templates.length == 0) {
+            throw new IllegalArgumentException("At least one template is required.");
+        }
+        this.target = target;
+        this.templates = new EventTemplate[templates.length];
+        for (int i = 0; i < templates.length; i++) {
+            this.templates[i] = templates[i].compile();
+        }
+    }
+
+    /**
+     * Sends the events to the Eventd XML listener of OpenNMS.
+     */
+    public static EventInjector forOpenNMS(final TestEnvironment env, final EventTemplate... templates) {
+        return new EventInjector(env.getServiceAddress(ContainerAlias.OPENNMS, EVENTD_PORT), templates);
+    }
+
+    public InetSocketAddress getTarget() {
+        return target;
+    }
+
+    /**
+     * @param eventsPerSecond the total rate across all of the connections, or 0 to send as fast as possible
+     */
+    public EventInjector withRate(final double eventsPerSecond) {
+        if (eventsPerSecond < 0) {
+            throw new IllegalArgumentException("The rate cannot be negative: " + eventsPerSecond);
+        }
+        rate = eventsPerSecond;
+        return this;
+    }
+
+    public EventInjector withConnections(final int connections) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("At least one connection is required: " + connections);
+        }
+        this.connections = connections;
+        return this;
+    }
+
+    /**
+     * @param batchSize the number of events in every <code>&lt;log&gt;</code> document
+     */
+    public EventInjector withBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param maxInFlight the number of batches a connection may send before receiving their receipts
+     */
+    public EventInjector withMaxInFlight(final int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("At least one batch must be allowed in flight: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * Sends events for the given amount of time.
+     *
+     * @return the report, where the events acknowledged by Eventd count as sent, and
+     *         the events that were written but never acknowledged count as dropped
+     */
+    public LoadReport run(final long duration, final TimeUnit unit) throws IOException, InterruptedException {
+        return generate(Long.MAX_VALUE, System.nanoTime() + unit.toNanos(duration));
+    }
+
+    /**
+     * Sends the given number of events.
+     *
+     * @return the report, see {@link #run(long, TimeUnit)}
+     */
+    public LoadReport send(final long count) throws IOException, InterruptedException {
+        return generate(count, Long.MAX_VALUE);
+    }
+
+    private LoadReport generate(final long count, final long deadlineNanos) throws IOException, InterruptedException {
+        final AtomicLong written = new AtomicLong();
+        final AtomicLong acknowledged = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final List<Connection> open = new ArrayList<>(connections);
+        final List<Thread> writers = new ArrayList<>(connections);
+        final List<Thread> readers = new ArrayList<>(connections);
+        final List<Exception> failures = new ArrayList<>();
+
+        LOG.info("{}: sending to {} over {} connection(s) at {}", NAME, target, connections, rate > 0 ? rate + "/s" : "full speed");
+        final long start = System.nanoTime();
+        try {
+            for (int i = 0; i < connections; i++) {
+                final Connection connection = new Connection(SocketChannel.open(target), maxInFlight);
+                open.add(connection);
+
+                final int index = i;
+                // Spread the remainder over the first connections
+                final long quota = count == Long.MAX_VALUE ? Long.MAX_VALUE : count / connections + (index < count % connections ? 1 : 0);
+                final Thread writer = new Thread(() -> {
+                    try {
+                        sendFrom(connection, index, quota, deadlineNanos, written, bytes);
+                    } catch (final Exception e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }, NAME + "-" + i);
+                final Thread reader = new Thread(() -> {
+                    try {
+                        connection.readReceipts(acknowledged);
+                    } catch (final Exception e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                }, NAME + "-receipts-" + i);
+                writer.setDaemon(true);
+                reader.setDaemon(true);
+                writers.add(writer);
+                readers.add(reader);
+            }
+            readers.forEach(Thread::start);
+            writers.forEach(Thread::start);
+            for (final Thread writer : writers) {
+                writer.join();
+            }
+            // Give Eventd a chance to close the connections after the last receipts
+            final long drainDeadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+            for (final Thread reader : readers) {
+                reader.join(Math.max(1, drainDeadline - System.currentTimeMillis()));
+            }
+        } finally {
+            writers.forEach(Thread::interrupt);
+            for (final Connection connection : open) {
+                connection.channel.close();
+            }
+            for (final Thread reader : readers) {
+                reader.join();
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new IOException(NAME + " failed to send", failures.get(0));
+        }
+
+        final LoadReport report = new LoadReport(NAME, acknowledged.get(), written.get() - acknowledged.get(), bytes.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), rate);
+        LOG.info("{}", report);
+        return report;
+    }
+
+    private void sendFrom(final Connection connection, final int index, final long quota, final long deadlineNanos,
+            final AtomicLong written, final AtomicLong bytes) throws IOException, InterruptedException {
+        final RateLimiter limiter = new RateLimiter(rate / connections);
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long sequence = index;
+        long remaining = quota;
+        try {
+            while (remaining > 0 && System.nanoTime() < deadlineNanos) {
+                final int batch = (int)Math.min(batchSize, remaining);
+                limiter.acquire(batch);
+                if (!connection.inFlight.tryAcquire(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("No receipt from " + target + " in " + DRAIN_TIMEOUT_MS + "ms");
+                }
+                while (true) {
+                    try {
+                        buffer.clear();
+                        encode(sequence, batch, buffer);
+                        break;
+                    } catch (final BufferOverflowException e) {
+                        buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                    }
+                }
+                buffer.flip();
+                final int length = buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    connection.channel.write(buffer);
+                }
+                sequence += (long)batch * connections;
+                remaining -= batch;
+                written.addAndGet(batch);
+                bytes.addAndGet(length);
+            }
+
+            // Wait for the receipts of the batches still in flight
+            if (!connection.inFlight.tryAcquire(maxInFlight, DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                LOG.warn("{}: timed out waiting for the receipts from {}", NAME, target);
+            }
+        } finally {
+            // Eventd closes its side once it has handled everything, which ends the reader
+            if (connection.channel.isOpen()) {
+                connection.channel.shutdownOutput();
+            }
+        }
+    }
+
+    private void encode(final long firstSequence, final int batch, final ByteBuffer buffer) {
+        final long now = System.currentTimeMillis();
+        buffer.put(LOG_START);
+        long sequence = firstSequence;
+        for (int i = 0; i < batch; i++) {
+            templates[(int)(sequence % templates.length)].encode(sequence, now, buffer);
+            sequence += connections;
+        }
+        buffer.put(LOG_END);
+    }
+
+    /**
+     * A connection to Eventd, with the number of batches it may still send before receiving their receipts.
+     */
+    private static class Connection {
+        private static final byte[] UUID_START = "<uuid>".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] RECEIPT_END = "</event-receipt>".getBytes(StandardCharsets.US_ASCII);
+
+        private final SocketChannel channel;
+        private final Semaphore inFlight;
+
+        private Connection(final SocketChannel channel, final int maxInFlight) throws IOException {
+            this.channel = channel;
+            this.inFlight = new Semaphore(maxInFlight);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+
+        /**
+         * Counts the uuids of every receipt, until Eventd closes the connection.
+         */
+        private void readReceipts(final AtomicLong acknowledged) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+            // The tags may be split across reads, so only the current position within each one is kept
+            int uuidMatched = 0, receiptMatched = 0;
+            long uuids = 0;
+            try {
+                while (channel.read(buffer) >= 0) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        final byte b = buffer.get();
+                        uuidMatched = advance(UUID_START, uuidMatched, b);
+                        if (uuidMatched == UUID_START.length) {
+                            uuidMatched = 0;
+                            uuids++;
+                        }
+                        receiptMatched = advance(RECEIPT_END, receiptMatched, b);
+                        if (receiptMatched == RECEIPT_END.length) {
+                            receiptMatched = 0;
+                            acknowledged.addAndGet(uuids);
+                            uuids = 0;
+                            inFlight.release();
+                        }
+                    }
+                    buffer.clear();
+                }
+            } catch (final AsynchronousCloseException e) {
+                // Closed when Eventd did not close the connection in time
+            }
+        }
+
+        /**
+         * Neither tag repeats its first character, so a mismatch can only restart a match at that character.
+         */
+        private static int advance(final byte[] tag, final int matched, final byte b) {
+            if (tag[matched] == b) {
+                return matched + 1;
+            }
+            return tag[0] == b ? 1 : 0;
+        }
+    }
+}
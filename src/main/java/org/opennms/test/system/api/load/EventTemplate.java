@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import java.nio.ByteBuffer;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * A template for events sent to Eventd's XML listener.
+ *
+ * The event is rendered as text once, with its parameter values possibly referencing
+ * fields as <code>${name}</code>, and split into pre-encoded segments, so that no DOM is
+ * built for any of the events. Every event gets the sequence number as its uuid, which
+ * Eventd acknowledges in its receipts, and the current time.
+ */
+public class EventTemplate {
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss", Locale.US).withZone(ZoneOffset.UTC);
+
+    private final String uei;
+    private final TemplateFields fields = new TemplateFields();
+    private final List<String[]> parms = new ArrayList<>();
+    private String source = "stest";
+    private Long nodeId = null;
+    private String host = null;
+    private String ipInterface = null;
+    private String severity = null;
+
+    private TemplateFields.Compiled beforeTime;
+    private TemplateFields.Compiled afterTime;
+    private final CachedTimestamp timestamp = new CachedTimestamp(TIMESTAMP);
+
+    public EventTemplate(final String uei) {
+        this.uei = uei;
+    }
+
+    public EventTemplate withSource(final String source) {
+        this.source = source;
+        return this;
+    }
+
+    public EventTemplate withNodeId(final long nodeId) {
+        this.nodeId = nodeId;
+        return this;
+    }
+
+    public EventTemplate withHost(final String host) {
+        this.host = host;
+        return this;
+    }
+
+    public EventTemplate withInterface(final String ipInterface) {
+        this.ipInterface = ipInterface;
+        return this;
+    }
+
+    /**
+     * @param severity the label of the severity, i.e. "Major"
+     */
+    public EventTemplate withSeverity(final String severity) {
+        this.severity = severity;
+        return this;
+    }
+
+    /**
+     * Adds a parameter, whose value may reference fields as <code>${name}</code>.
+     */
+    public EventTemplate withParm(final String name, final String value) {
+        parms.add(new String[] { name, value });
+        return this;
+    }
+
+    /**
+     * Replaces <code>${name}</code> with one of the given choices, in turn.
+     */
+    public EventTemplate withField(final String name, final String... choices) {
+        fields.add(name, choices);
+        return this;
+    }
+
+    /**
+     * Replaces <code>${name}</code> with the number computed from the sequence number of the event.
+     */
+    public EventTemplate withField(final String name, final LongUnaryOperator valueForSequence) {
+        fields.add(name, valueForSequence);
+        return this;
+    }
+
+    /**
+     * Renders and splits the event.
+     *
+     * @throws IllegalArgumentException if a parameter references an unknown field
+     */
+    EventTemplate compile() {
+        // In the order of the schema
+        final StringBuilder xml = new StringBuilder();
+        xml.append("<event uuid=\"${").append(TemplateFields.SEQUENCE_FIELD).append("}\">");
+        element(xml, "uei", uei);
+        element(xml, "source", source);
+        if (nodeId != null) {
+            element(xml, "nodeid", nodeId.toString());
+        }
+        xml.append("<time>");
+        beforeTime = fields.compile(xml.toString(), EventTemplate::escape);
+
+        xml.setLength(0);
+        xml.append("Z</time>");
+        if (host != null) {
+            element(xml, "host", host);
+        }
+        if (ipInterface != null) {
+            element(xml, "interface", ipInterface);
+        }
+        if (!parms.isEmpty()) {
+            xml.append("<parms>");
+            for (final String[] parm : parms) {
+                xml.append("<parm>");
+                element(xml, "parmName", parm[0]);
+                // Escaped, but not the field references, whose values are escaped when compiled
+                xml.append("<value type=\"string\" encoding=\"text\">").append(escape(parm[1])).append("</value>");
+                xml.append("</parm>");
+            }
+            xml.append("</parms>");
+        }
+        if (severity != null) {
+            element(xml, "severity", severity);
+        }
+        xml.append("</event>\n");
+        afterTime = fields.compile(xml.toString(), EventTemplate::escape);
+        return this;
+    }
+
+    /**
+     * Writes the event with the given sequence number to the buffer.
+     */
+    void encode(final long sequence, final long nowMillis, final ByteBuffer buffer) {
+        beforeTime.write(sequence, buffer);
+        timestamp.put(buffer, nowMillis);
+        CachedTimestamp.putMillis(buffer, nowMillis);
+        afterTime.write(sequence, buffer);
+    }
+
+    private static void element(final StringBuilder xml, final String name, final String value) {
+        xml.append('<').append(name).append('>').append(escape(value)).append("</").append(name).append('>');
+    }
+
+    static String escape(final String value) {
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '&': sb.append("&amp;"); break;
+            case '<': sb.append("&lt;"); break;
+            case '>': sb.append("&gt;"); break;
+            case '"': sb.append("&quot;"); break;
+            case '\'': sb.append("&apos;"); break;
+            default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+/**
+ * A model of the flows seen by an exporter.
+ *
+ * There is a fixed number of active conversations between the source and the
+ * destination subnets. Every flow belongs to one of them, and varies in size.
+ * The flows are derived from their index with a hash, so the same index always
+ * results in the same conversation, and filling a flow does not allocate.
+ */
+public class FlowPopulation {
+
+    public static final int PROTOCOL_TCP = 6;
+
+    public static final int PROTOCOL_UDP = 17;
+
+    /**
+     * A flow, reused by the sender threads.
+     */
+    public static class Flow {
+        public int srcAddr;
+        public int dstAddr;
+        public int nextHop;
+        public int srcPort;
+        public int dstPort;
+        public int protocol;
+        public int tcpFlags;
+        public int tos;
+        public int srcMask;
+        public int dstMask;
+        public int inputIf;
+        public int outputIf;
+        public int srcAs;
+        public int dstAs;
+        public long bytes;
+        public long packets;
+        public long firstMillis;
+        public long lastMillis;
+    }
+
+    private int srcNetwork = address("10.1.0.0");
+    private int srcPrefix = 16;
+    private int dstNetwork = address("10.2.0.0");
+    private int dstPrefix = 16;
+    private int[] dstPorts = { 80, 443, 53, 22, 161 };
+    private int[] protocols = { PROTOCOL_TCP, PROTOCOL_TCP, PROTOCOL_UDP };
+    private long minBytes = 64;
+    private long maxBytes = 1500 * 100;
+    private long minPackets = 1;
+    private long maxPackets = 100;
+    private long activeFlows = 10000;
+    private long durationMs = 10 * 1000;
+    private int inputIf = 1;
+    private int outputIf = 2;
+    private int srcAs = 0;
+    private int dstAs = 0;
+
+    public FlowPopulation withSourceSubnet(final String network, final int prefix) {
+        srcNetwork = address(network);
+        srcPrefix = checkPrefix(prefix);
+        return this;
+    }
+
+    public FlowPopulation withDestinationSubnet(final String network, final int prefix) {
+        dstNetwork = address(network);
+        dstPrefix = checkPrefix(prefix);
+        return this;
+    }
+
+    /**
+     * The destination ports are picked evenly from the given ports, the source ports are ephemeral.
+     */
+    public FlowPopulation withDestinationPorts(final int... ports) {
+        if (ports.length == 0) {
+            throw new IllegalArgumentException("At least one port is required.");
+        }
+        dstPorts = ports.clone();
+        return this;
+    }
+
+    /**
+     * The protocols are picked evenly from the given protocol numbers, so repeating one makes it more likely.
+     */
+    public FlowPopulation withProtocols(final int... protocols) {
+        if (protocols.length == 0) {
+            throw new IllegalArgumentException("At least one protocol is required.");
+        }
+        this.protocols = protocols.clone();
+        return this;
+    }
+
+    public FlowPopulation withBytesPerFlow(final long min, final long max) {
+        minBytes = min;
+        maxBytes = Math.max(min, max);
+        return this;
+    }
+
+    public FlowPopulation withPacketsPerFlow(final long min, final long max) {
+        minPackets = min;
+        maxPackets = Math.max(min, max);
+        return this;
+    }
+
+    /**
+     * @param activeFlows the number of distinct conversations
+     */
+    public FlowPopulation withActiveFlows(final long activeFlows) {
+        if (activeFlows < 1) {
+            throw new IllegalArgumentException("At least one active flow is required: " + activeFlows);
+        }
+        this.activeFlows = activeFlows;
+        return this;
+    }
+
+    /**
+     * @param durationMs the time between the first and the last packet of a flow
+     */
+    public FlowPopulation withFlowDuration(final long durationMs) {
+        this.durationMs = durationMs;
+        return this;
+    }
+
+    public FlowPopulation withInterfaces(final int inputIf, final int outputIf) {
+        this.inputIf = inputIf;
+        this.outputIf = outputIf;
+        return this;
+    }
+
+    public FlowPopulation withAutonomousSystems(final int srcAs, final int dstAs) {
+        this.srcAs = srcAs;
+        this.dstAs = dstAs;
+        return this;
+    }
+
+    /**
+     * Fills in the flow with the given index, which ended at the given time.
+     */
+    public void fill(final long index, final long nowMillis, final Flow flow) {
+        final long conversation = mix(index % activeFlows);
+        flow.srcAddr = pick(srcNetwork, srcPrefix, conversation);
+        flow.dstAddr = pick(dstNetwork, dstPrefix, mix(conversation));
+        flow.nextHop = 0;
+        flow.srcPort = 1024 + (int)((conversation >>> 16) % (65536 - 1024));
+        flow.dstPort = dstPorts[(int)((conversation >>> 32) % dstPorts.length)];
+        flow.protocol = protocols[(int)((conversation >>> 40) % protocols.length)];
+        // FIN, SYN, PSH and ACK
+        flow.tcpFlags = flow.protocol == PROTOCOL_TCP ? 0x1b : 0;
+        flow.tos = 0;
+        flow.srcMask = srcPrefix;
+        flow.dstMask = dstPrefix;
+        flow.inputIf = inputIf;
+        flow.outputIf = outputIf;
+        flow.srcAs = srcAs;
+        flow.dstAs = dstAs;
+
+        final long size = mix(index);
+        flow.packets = minPackets + (size >>> 1) % (maxPackets - minPackets + 1);
+        flow.bytes = Math.max(flow.packets * 20, minBytes + (size >>> 8) % (maxBytes - minBytes + 1));
+        flow.lastMillis = nowMillis;
+        flow.firstMillis = nowMillis - durationMs;
+    }
+
+    private static int pick(final int network, final int prefix, final long hash) {
+        if (prefix >= 32) {
+            return network;
+        }
+        final long hosts = 1L << (32 - prefix);
+        // Skip the network and the broadcast addresses when there are any hosts in between
+        final long host = hosts > 2 ? 1 + (hash >>> 1) % (hosts - 2) : (hash >>> 1) % hosts;
+        return (int)((network & 0xffffffffL) + host);
+    }
+
+    /**
+     * The SplitMix64 finalizer, which spreads consecutive indices over the whole range.
+     */
+    private static long mix(final long value) {
+        long z = value + 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return (z ^ (z >>> 31)) & Long.MAX_VALUE;
+    }
+
+    private static int checkPrefix(final int prefix) {
+        if (prefix < 0 || prefix > 32) {
+            throw new IllegalArgumentException("Invalid prefix length: " + prefix);
+        }
+        return prefix;
+    }
+
+    private static int address(final String address) {
+        try {
+            final InetAddress inetAddress = InetAddress.getByName(address);
+            if (!(inetAddress instanceof Inet4Address)) {
+                throw new IllegalArgumentException("Not an IPv4 address: " + address);
+            }
+            return ByteBuffer.wrap(inetAddress.getAddress()).getInt();
+        } catch (final UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid address: " + address, e);
+        }
+    }
+}
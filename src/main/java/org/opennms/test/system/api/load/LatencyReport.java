@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+/**
+ * The latencies of the messages traced by a {@link LatencyTracer} through one path.
+ */
+public class LatencyReport {
+    private final String name;
+    private final long sent;
+    private final long lost;
+    private final LatencyHistogram latencies;
+
+    public LatencyReport(final String name, final long sent, final long lost, final LatencyHistogram latencies) {
+        this.name = name;
+        this.sent = sent;
+        this.lost = lost;
+        this.latencies = latencies;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * @return the number of messages that arrived as events
+     */
+    public long getReceived() {
+        return latencies.getCount();
+    }
+
+    /**
+     * @return the number of messages that did not arrive as events before the tracer gave up on them
+     */
+    public long getLost() {
+        return lost;
+    }
+
+    /**
+     * @return the latencies in milliseconds, from sending the messages to the creation of their events
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    public long getP50() {
+        return latencies.getValueAtPercentile(50);
+    }
+
+    public long getP99() {
+        return latencies.getValueAtPercentile(99);
+    }
+
+    public long getP999() {
+        return latencies.getValueAtPercentile(99.9);
+    }
+
+    public long getMax() {
+        return latencies.getMax();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d/%d messages arrived, %d lost, latency p50=%dms p99=%dms p99.9=%dms max=%dms",
+                name, getReceived(), sent, lost, getP50(), getP99(), getP999(), getMax());
+    }
+}
@@ -0,0 +1,755 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.opennms.test.system.api.DatabaseCheckpoint;
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+import org.opennms.test.system.api.TestEnvironment;
+import org.opennms.test.system.api.utils.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Measures how long messages take to show up as events.
+ *
+ * The tracer sends a trickle of uniquely tagged traps, syslog messages and/or
+ * Eventd events, and looks for their tags in the events that were created since
+ * it started, either in the database or through the ReST API. The latency of a
+ * message is the time from sending it to the creation time of its event, so the
+ * clocks of the test and of the containers must agree, which they do when Docker
+ * runs locally. Messages that have not arrived once the tracer gives up on them
+ * are counted as lost.
+ *
+ * The tracer only adds a few messages per second, so it can run alongside any of
+ * the load generators to measure the latency under load:
+ *
+ * <pre>
+ * CompletableFuture&lt;List&lt;LatencyReport&gt;&gt; latencies = LatencyTracer.viaDatabase(env)
+ *         .withTraps(env, ContainerAlias.MINION)
+ *         .start(5, TimeUnit.MINUTES);
+ * trapGenerator.run(5, TimeUnit.MINUTES);
+ * latencies.get().forEach(System.out::println);
+ * </pre>
+ */
+public class LatencyTracer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LatencyTracer.class);
+
+    /**
+     * An OpenNMS enterprise OID without an event definition, so the traps become default trap events.
+     */
+    public static final String TRACE_TRAP_OID = ".1.3.6.1.4.1.5813.20.99.1";
+
+    public static final String TRACE_VARBIND_OID = ".1.3.6.1.4.1.5813.20.99.2";
+
+    public static final String TRACE_UEI = "uei.opennms.org/internal/stest/trace";
+
+    /**
+     * The UEI of the traps without an event definition.
+     */
+    public static final String DEFAULT_TRAP_UEI = "uei.opennms.org/default/trap";
+
+    /**
+     * The prefix of the UEIs of the syslog messages without an event definition, followed by their facility and priority.
+     */
+    public static final String SYSLOG_UEI_PREFIX = "uei.opennms.org/syslogd/";
+
+    public static final double DEFAULT_RATE = 10;
+
+    public static final long DEFAULT_POLL_INTERVAL_MS = 250;
+
+    public static final long DEFAULT_LOSS_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Events are not necessarily committed in the order of their ids, so every poll also
+     * looks at the events of the polls during this window again.
+     */
+    private static final long RESCAN_WINDOW_MS = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * The interval between the polls is stretched to this many times the duration of the
+     * last poll, so that the tracer backs off when the database is busy.
+     */
+    private static final int POLL_BACKOFF_FACTOR = 10;
+
+    private static final long MAX_POLL_INTERVAL_MS = TimeUnit.SECONDS.toMillis(5);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Finds the tags of the events created since the last poll.
+     */
+    public static interface EventSource extends AutoCloseable {
+        /**
+         * @return the largest event id, from before the tracer sent anything
+         */
+        long getLastEventId() throws Exception;
+
+        /**
+         * Looks for the given tag prefix in the events with an id greater than the given one.
+         *
+         * @return the largest event id that was looked at
+         */
+        long poll(long afterEventId, String tagPrefix, ArrivalHandler handler) throws Exception;
+
+        @Override
+        void close() throws SQLException, IOException;
+    }
+
+    @FunctionalInterface
+    public static interface ArrivalHandler {
+        /**
+         * @param text the text of the event that contains the tag
+         * @param createdMillis when the event was created
+         */
+        void arrived(String text, long createdMillis);
+    }
+
+    /**
+     * Sends the tagged messages through one path.
+     */
+    private static abstract class Probe {
+        private final String name;
+        protected final InetSocketAddress target;
+        private LatencyHistogram latencies;
+        private long sent;
+
+        private Probe(final String name, final InetSocketAddress target) {
+            this.name = name;
+            this.target = target;
+        }
+
+        /**
+         * Invoked before every run, with the tag prefix of the run.
+         */
+        protected void open(final String tagPrefix) throws IOException {
+            latencies = new LatencyHistogram();
+            sent = 0;
+        }
+
+        protected abstract void send(long sequence, long nowMillis, ByteBuffer buffer) throws IOException;
+
+        protected abstract void close() throws IOException;
+    }
+
+    private static class TrapProbe extends Probe {
+        private String tagPrefix;
+        private long startMillis;
+        private DatagramChannel channel;
+
+        private TrapProbe(final InetSocketAddress target) {
+            super("trap", target);
+        }
+
+        @Override
+        protected void open(final String tagPrefix) throws IOException {
+            super.open(tagPrefix);
+            this.tagPrefix = tagPrefix;
+            startMillis = System.currentTimeMillis();
+            channel = DatagramChannel.open();
+            channel.connect(target);
+        }
+
+        @Override
+        protected void send(final long sequence, final long nowMillis, final ByteBuffer buffer) throws IOException {
+            // The tag is a string, so the template is encoded for every trap, which is fine at the rate of the tracer
+            TrapTemplate.v2c("public", TRACE_TRAP_OID)
+                .withVarbind(TRACE_VARBIND_OID, tagPrefix + sequence)
+                .encode()
+                .encode(sequence, (nowMillis - startMillis) / 10, buffer);
+            buffer.flip();
+            channel.write(buffer);
+        }
+
+        @Override
+        protected void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class SyslogProbe extends Probe {
+        private SyslogTemplate template;
+        private DatagramChannel channel;
+
+        private SyslogProbe(final InetSocketAddress target) {
+            super("syslog", target);
+        }
+
+        @Override
+        protected void open(final String tagPrefix) throws IOException {
+            super.open(tagPrefix);
+            template = new SyslogTemplate(SyslogTemplate.Format.RFC5424, "latency trace " + tagPrefix + "${" + TemplateFields.SEQUENCE_FIELD + "}")
+                    .withHostname("stest")
+                    .compile();
+            channel = DatagramChannel.open();
+            channel.connect(target);
+        }
+
+        @Override
+        protected void send(final long sequence, final long nowMillis, final ByteBuffer buffer) throws IOException {
+            template.encode(sequence, nowMillis, buffer);
+            buffer.flip();
+            channel.write(buffer);
+        }
+
+        @Override
+        protected void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Sends the events over a persistent connection, the way {@link EventInjector} does.
+     *
+     * The connection is non-blocking, so a stalled Eventd cannot hold up the tracer: the
+     * receipts are drained before every send, an event that cannot be written while the
+     * previous one is still in the send buffer is counted as lost, and the connection is
+     * reopened once a write has not completed in {@link #SEND_TIMEOUT_MS}.
+     */
+    private static class EventProbe extends Probe {
+        private static final byte[] LOG_START = "<log>\n<events>\n".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] LOG_END = "</events>\n</log>\n".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] RECEIPT_END = "</event-receipt>".getBytes(StandardCharsets.US_ASCII);
+
+        private static final int CONNECT_TIMEOUT_MS = 5000;
+        private static final long SEND_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+        private final ByteBuffer receipts = ByteBuffer.allocate(4 * 1024);
+        private EventTemplate template;
+        private SocketChannel channel;
+        // The rest of an event that did not fit in the send buffer, if any
+        private ByteBuffer unwritten;
+        private long unwrittenSince;
+        private int receiptMatched;
+        private long acknowledged;
+
+        private EventProbe(final InetSocketAddress target) {
+            super("event", target);
+        }
+
+        @Override
+        protected void open(final String tagPrefix) throws IOException {
+            super.open(tagPrefix);
+            template = new EventTemplate(TRACE_UEI)
+                    .withParm("trace", tagPrefix + "${" + TemplateFields.SEQUENCE_FIELD + "}")
+                    .compile();
+            acknowledged = 0;
+            connect();
+        }
+
+        @Override
+        protected void send(final long sequence, final long nowMillis, final ByteBuffer buffer) throws IOException {
+            if (channel == null || !drainReceiptsOrDisconnect()) {
+                // Closed by Eventd, or after a failure
+                disconnect();
+                connect();
+            }
+            if (unwritten != null) {
+                try {
+                    channel.write(unwritten);
+                } catch (final IOException e) {
+                    disconnect();
+                    throw e;
+                }
+                if (unwritten.hasRemaining()) {
+                    if (nowMillis - unwrittenSince >= SEND_TIMEOUT_MS) {
+                        disconnect();
+                        throw new IOException("Could not write to " + target + " in " + SEND_TIMEOUT_MS + "ms");
+                    }
+                    throw new IOException("The send buffer is still full");
+                }
+                unwritten = null;
+            }
+
+            buffer.put(LOG_START);
+            template.encode(sequence, nowMillis, buffer);
+            buffer.put(LOG_END);
+            buffer.flip();
+            try {
+                channel.write(buffer);
+            } catch (final IOException e) {
+                disconnect();
+                throw e;
+            }
+            if (buffer.hasRemaining()) {
+                unwritten = ByteBuffer.allocate(buffer.remaining());
+                unwritten.put(buffer).flip();
+                unwrittenSince = nowMillis;
+            }
+        }
+
+        /**
+         * Reads the receipts that have arrived so far, without waiting for any.
+         *
+         * @return false if Eventd closed the connection
+         */
+        private boolean drainReceipts() throws IOException {
+            int read;
+            while ((read = channel.read(receipts)) > 0) {
+                receipts.flip();
+                while (receipts.hasRemaining()) {
+                    final byte b = receipts.get();
+                    // The tag does not repeat its first character, so a mismatch can only restart a match there
+                    if (RECEIPT_END[receiptMatched] == b) {
+                        receiptMatched++;
+                    } else {
+                        receiptMatched = RECEIPT_END[0] == b ? 1 : 0;
+                    }
+                    if (receiptMatched == RECEIPT_END.length) {
+                        receiptMatched = 0;
+                        acknowledged++;
+                    }
+                }
+                receipts.clear();
+            }
+            return read >= 0;
+        }
+
+        private boolean drainReceiptsOrDisconnect() throws IOException {
+            try {
+                return drainReceipts();
+            } catch (final IOException e) {
+                disconnect();
+                throw e;
+            }
+        }
+
+        private void connect() throws IOException {
+            final SocketChannel channel = SocketChannel.open();
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.socket().connect(target, CONNECT_TIMEOUT_MS);
+                channel.configureBlocking(false);
+            } catch (final IOException e) {
+                channel.close();
+                throw e;
+            }
+            this.channel = channel;
+        }
+
+        private void disconnect() throws IOException {
+            unwritten = null;
+            receiptMatched = 0;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } finally {
+                    channel = null;
+                }
+            }
+        }
+
+        @Override
+        protected void close() throws IOException {
+            try {
+                if (channel != null) {
+                    drainReceipts();
+                }
+            } finally {
+                LOG.debug("Eventd acknowledged {} of {} traced events", acknowledged, super.sent);
+                disconnect();
+            }
+        }
+    }
+
+    /**
+     * A message that has been sent, but has not arrived yet.
+     */
+    private static class Pending {
+        private final Probe probe;
+        private final long sentMillis;
+
+        private Pending(final Probe probe, final long sentMillis) {
+            this.probe = probe;
+            this.sentMillis = sentMillis;
+        }
+    }
+
+    private final EventSource source;
+    private final List<Probe> probes = new ArrayList<>();
+    private double rate = DEFAULT_RATE;
+    private long pollIntervalMs = DEFAULT_POLL_INTERVAL_MS;
+    private long lossTimeoutMs = DEFAULT_LOSS_TIMEOUT_MS;
+
+    public LatencyTracer(final EventSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Looks for the messages in the events table of the OpenNMS database.
+     */
+    public static LatencyTracer viaDatabase(final TestEnvironment env) {
+        return new LatencyTracer(new DatabaseEventSource(env.getServiceAddress(ContainerAlias.POSTGRES, 5432),
+                DatabaseCheckpoint.DEFAULT_DATABASE, "postgres", ""));
+    }
+
+    /**
+     * Looks for the messages in the events returned by the ReST API of OpenNMS.
+     *
+     * Every event is transferred, so prefer {@link #viaDatabase(TestEnvironment)} under a heavy event load.
+     */
+    public static LatencyTracer viaRest(final TestEnvironment env) {
+        return new LatencyTracer(new RestEventSource(new RestClient(env.getServiceAddress(ContainerAlias.OPENNMS, 8980))));
+    }
+
+    /**
+     * Sends traps to the trap port of the given container, i.e. OpenNMS or one of the Minions.
+     */
+    public LatencyTracer withTraps(final TestEnvironment env, final ContainerAlias alias) {
+        return withTraps(env.getServiceAddress(alias, TrapGenerator.getTrapPort(alias), "udp"));
+    }
+
+    public LatencyTracer withTraps(final InetSocketAddress target) {
+        probes.add(new TrapProbe(target));
+        return this;
+    }
+
+    /**
+     * Sends syslog messages to the default syslog port of the given Minion.
+     */
+    public LatencyTracer withSyslog(final TestEnvironment env, final ContainerAlias alias) {
+        return withSyslog(env.getServiceAddress(alias, SyslogGenerator.MINION_SYSLOG_PORT, "udp"));
+    }
+
+    public LatencyTracer withSyslog(final InetSocketAddress target) {
+        probes.add(new SyslogProbe(target));
+        return this;
+    }
+
+    /**
+     * Sends events to the Eventd XML listener of OpenNMS.
+     */
+    public LatencyTracer withEvents(final TestEnvironment env) {
+        return withEvents(env.getServiceAddress(ContainerAlias.OPENNMS, EventInjector.EVENTD_PORT));
+    }
+
+    public LatencyTracer withEvents(final InetSocketAddress target) {
+        probes.add(new EventProbe(target));
+        return this;
+    }
+
+    /**
+     * @param messagesPerSecond the total rate of the traced messages, which are spread evenly over the paths
+     */
+    public LatencyTracer withRate(final double messagesPerSecond) {
+        if (messagesPerSecond <= 0) {
+            throw new IllegalArgumentException("The rate must be positive: " + messagesPerSecond);
+        }
+        rate = messagesPerSecond;
+        return this;
+    }
+
+    /**
+     * @param interval the minimum time between two polls for the events, which grows while the polls are slow
+     */
+    public LatencyTracer withPollInterval(final long interval, final TimeUnit unit) {
+        pollIntervalMs = Math.max(1, unit.toMillis(interval));
+        return this;
+    }
+
+    /**
+     * @param timeout how long to wait for a message to arrive before counting it as lost
+     */
+    public LatencyTracer withLossTimeout(final long timeout, final TimeUnit unit) {
+        lossTimeoutMs = unit.toMillis(timeout);
+        return this;
+    }
+
+    /**
+     * Runs the tracer on a separate thread.
+     */
+    public CompletableFuture<List<LatencyReport>> start(final long duration, final TimeUnit unit) {
+        final CompletableFuture<List<LatencyReport>> future = new CompletableFuture<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                future.complete(run(duration, unit));
+            } catch (final Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }, "latency-tracer");
+        thread.setDaemon(true);
+        thread.start();
+        return future;
+    }
+
+    /**
+     * Sends tagged messages for the given amount of time, and then waits for the stragglers.
+     *
+     * @return a report for each of the paths, in the order they were added
+     */
+    public List<LatencyReport> run(final long duration, final TimeUnit unit) throws Exception {
+        if (probes.isEmpty()) {
+            throw new IllegalStateException("No messages to trace. Add traps, syslog messages and/or events.");
+        }
+        final String tagPrefix = "stest-trace-" + Long.toString(System.currentTimeMillis(), 36) + "-";
+        final Pattern tagPattern = Pattern.compile(Pattern.quote(tagPrefix) + "([0-9]+)");
+        final Map<Long, Pending> pending = new HashMap<>();
+        // The largest event id seen by each of the polls during the rescan window
+        final Deque<long[]> polls = new ArrayDeque<>();
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        final long intervalMs = Math.max(1, Math.round(1000 / rate));
+
+        LOG.info("Tracing the latency of {} message(s) per second with the tag {}", rate, tagPrefix);
+        final List<Probe> opened = new ArrayList<>(probes.size());
+        try {
+            for (final Probe probe : probes) {
+                probe.open(tagPrefix);
+                opened.add(probe);
+            }
+            final long start = System.currentTimeMillis();
+            final long sendUntil = start + unit.toMillis(duration);
+            polls.add(new long[] { start, source.getLastEventId() });
+            long sequence = 0;
+            long nextSend = start;
+            long nextPoll = start + pollIntervalMs;
+            long waitUntil = Long.MAX_VALUE;
+
+            while (true) {
+                final long now = System.currentTimeMillis();
+                if (now >= nextSend && now < sendUntil) {
+                    final Probe probe = probes.get((int)(sequence % probes.size()));
+                    buffer.clear();
+                    try {
+                        probe.send(sequence, now, buffer);
+                    } catch (final IOException e) {
+                        // Counted as lost, the path may recover
+                        LOG.warn("Failed to send {} #{}: {}", probe.name, sequence, e.getMessage());
+                    }
+                    probe.sent++;
+                    pending.put(sequence++, new Pending(probe, now));
+                    nextSend += intervalMs;
+                }
+                if (now >= nextPoll) {
+                    poll(tagPattern, tagPrefix, pending, polls, now);
+                    // The latencies are taken from the creation times of the events, so polling less often does not inflate them
+                    final long pollDurationMs = System.currentTimeMillis() - now;
+                    nextPoll = now + Math.max(pollIntervalMs, Math.min(MAX_POLL_INTERVAL_MS, pollDurationMs * POLL_BACKOFF_FACTOR));
+                    if (now >= sendUntil) {
+                        if (waitUntil == Long.MAX_VALUE) {
+                            waitUntil = now + lossTimeoutMs;
+                        }
+                        if (pending.isEmpty() || now >= waitUntil) {
+                            break;
+                        }
+                    }
+                }
+                final long sleep = Math.min(now < sendUntil ? nextSend : Long.MAX_VALUE, nextPoll) - System.currentTimeMillis();
+                if (sleep > 0) {
+                    Thread.sleep(sleep);
+                }
+            }
+        } finally {
+            for (final Probe probe : opened) {
+                probe.close();
+            }
+            source.close();
+        }
+
+        final List<LatencyReport> reports = new ArrayList<>(probes.size());
+        for (final Probe probe : probes) {
+            final long lost = pending.values().stream().filter(p -> p.probe == probe).count();
+            final LatencyReport report = new LatencyReport(probe.name, probe.sent, lost, probe.latencies);
+            LOG.info("{}", report);
+            reports.add(report);
+        }
+        return reports;
+    }
+
+    private void poll(final Pattern tagPattern, final String tagPrefix, final Map<Long, Pending> pending,
+            final Deque<long[]> polls, final long now) throws Exception {
+        // Keep the latest poll from before the window as the oldest one
+        while (polls.size() > 1) {
+            final long[] oldest = polls.removeFirst();
+            if (polls.peekFirst()[0] > now - RESCAN_WINDOW_MS) {
+                polls.addFirst(oldest);
+                break;
+            }
+        }
+        final long lastEventId = source.poll(polls.peekFirst()[1], tagPrefix, (text, createdMillis) -> {
+            final Matcher matcher = tagPattern.matcher(text);
+            while (matcher.find()) {
+                // Events that were seen before are no longer pending
+                final Pending arrived = pending.remove(Long.parseLong(matcher.group(1)));
+                if (arrived != null) {
+                    arrived.probe.latencies.record(Math.max(0, createdMillis - arrived.sentMillis));
+                }
+            }
+        });
+        polls.addLast(new long[] { now, Math.max(lastEventId, polls.peekLast()[1]) });
+    }
+
+    /**
+     * Searches the parameters and log messages of the events that the traced messages become,
+     * selected by their UEI, so that the other events in the table are never converted to text.
+     */
+    public static class DatabaseEventSource implements EventSource {
+        private final InetSocketAddress address;
+        private final String database;
+        private final String username;
+        private final String password;
+        private Connection connection;
+
+        public DatabaseEventSource(final InetSocketAddress address, final String database, final String username, final String password) {
+            this.address = address;
+            this.database = database;
+            this.username = username;
+            this.password = password;
+        }
+
+        @Override
+        public long getLastEventId() throws SQLException {
+            try (final Statement statement = connect().createStatement();
+                 final ResultSet rs = statement.executeQuery("SELECT coalesce(max(eventid), 0) FROM events")) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+
+        @Override
+        public long poll(final long afterEventId, final String tagPrefix, final ArrivalHandler handler) throws SQLException {
+            final long lastEventId = getLastEventId();
+            try (final PreparedStatement statement = connect().prepareStatement(
+                    "SELECT coalesce(eventparms, '') || ' ' || coalesce(eventlogmsg, ''), eventcreatetime FROM events"
+                    + " WHERE eventid > ? AND eventid <= ? AND (eventuei IN (?, ?) OR eventuei LIKE ?)"
+                    + " AND (eventparms LIKE ? OR eventlogmsg LIKE ?)")) {
+                final String pattern = "%" + tagPrefix + "%";
+                statement.setLong(1, afterEventId);
+                statement.setLong(2, lastEventId);
+                statement.setString(3, TRACE_UEI);
+                statement.setString(4, DEFAULT_TRAP_UEI);
+                statement.setString(5, SYSLOG_UEI_PREFIX + "%");
+                statement.setString(6, pattern);
+                statement.setString(7, pattern);
+                try (final ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        handler.arrived(rs.getString(1), rs.getTimestamp(2).getTime());
+                    }
+                }
+            }
+            return lastEventId;
+        }
+
+        private Connection connect() throws SQLException {
+            if (connection == null) {
+                connection = DatabaseCheckpoint.connect(address, database, username, password);
+                connection.setAutoCommit(true);
+            }
+            return connection;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        }
+    }
+
+    /**
+     * Pages through the events returned by the ReST API, ordered by their id.
+     */
+    public static class RestEventSource implements EventSource {
+        private static final int PAGE_SIZE = 1000;
+
+        private final RestClient client;
+
+        public RestEventSource(final RestClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public long getLastEventId() throws IOException {
+            final Iterator<JsonNode> events = events("events?limit=1&orderBy=id&order=desc");
+            return events.hasNext() ? events.next().path("id").asLong() : 0;
+        }
+
+        @Override
+        public long poll(final long afterEventId, final String tagPrefix, final ArrivalHandler handler) throws IOException {
+            long lastEventId = afterEventId;
+            int count;
+            do {
+                count = 0;
+                final Iterator<JsonNode> events = events("events?limit=" + PAGE_SIZE + "&orderBy=id&order=asc&comparator=gt&id=" + lastEventId);
+                while (events.hasNext()) {
+                    final JsonNode event = events.next();
+                    count++;
+                    lastEventId = Math.max(lastEventId, event.path("id").asLong());
+                    final String text = event.toString();
+                    if (text.contains(tagPrefix)) {
+                        final JsonNode createTime = event.path("createTime");
+                        // Fall back to the time of the poll if the creation time is not in milliseconds
+                        handler.arrived(text, createTime.isNumber() ? createTime.asLong() : System.currentTimeMillis());
+                    }
+                }
+            } while (count == PAGE_SIZE);
+            return lastEventId;
+        }
+
+        private Iterator<JsonNode> events(final String path) throws IOException {
+            final JsonNode events = client.get(path, JsonNode.class).path("event");
+            if (events.isArray()) {
+                return events.elements();
+            }
+            // A single event may not be wrapped in an array
+            return events.isObject() ? Collections.singletonList(events).iterator() : Collections.<JsonNode>emptyIterator();
+        }
+
+        @Override
+        public void close() {
+            // The client is shared
+        }
+    }
+}
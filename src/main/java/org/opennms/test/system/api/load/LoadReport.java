@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+/**
+ * What a load generator achieved.
+ */
+public class LoadReport {
+    private final String name;
+    private final long sent;
+    private final long dropped;
+    private final long bytes;
+    private final long durationMs;
+    private final double targetRate;
+
+    public LoadReport(final String name, final long sent, final long dropped, final long bytes, final long durationMs, final double targetRate) {
+        this.name = name;
+        this.sent = sent;
+        this.dropped = dropped;
+        this.bytes = bytes;
+        this.durationMs = durationMs;
+        this.targetRate = targetRate;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of messages that were handed to the network stack
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * @return the number of messages that could not be sent, i.e. because the socket's send buffer was full
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    /**
+     * @return the rate that was asked for in messages per second, or 0 if there was no limit
+     */
+    public double getTargetRate() {
+        return targetRate;
+    }
+
+    /**
+     * @return the messages sent per second
+     */
+    public double getAchievedRate() {
+        return sent * 1000d / Math.max(1, durationMs);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: sent %d messages (%d bytes) in %dms at %.0f/s (target: %s), dropped %d",
+                name, sent, bytes, durationMs, getAchievedRate(),
+                targetRate > 0 ? String.format("%.0f/s", targetRate) : "unlimited", dropped);
+    }
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces the callers so that they don't exceed a given rate.
+ *
+ * Permits are handed out on a fixed schedule, so acquiring a batch of permits
+ * at once costs a single sleep. A caller that falls behind the schedule may
+ * catch up with a burst of at most {@link #MAX_BURST_NANOS} worth of permits.
+ *
+ * Not thread-safe, each sending thread has its own limiter.
+ */
+public class RateLimiter {
+
+    private static final long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final double nanosPerPermit;
+
+    private long nextFreeNanos;
+
+    /**
+     * @param permitsPerSecond the rate, or 0 for no limit
+     */
+    public RateLimiter(final double permitsPerSecond) {
+        if (permitsPerSecond < 0) {
+            throw new IllegalArgumentException("The rate cannot be negative: " + permitsPerSecond);
+        }
+        nanosPerPermit = permitsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / permitsPerSecond : 0;
+        nextFreeNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until the given number of permits are available.
+     */
+    public void acquire(final int permits) throws InterruptedException {
+        if (nanosPerPermit == 0) {
+            return;
+        }
+        final long now = System.nanoTime();
+        if (nextFreeNanos < now - MAX_BURST_NANOS) {
+            nextFreeNanos = now - MAX_BURST_NANOS;
+        }
+        final long waitNanos = nextFreeNanos - now;
+        nextFreeNanos += (long)(permits * nanosPerPermit);
+        if (waitNanos > 0) {
+            LockSupport.parkNanos(this, waitNanos);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+}
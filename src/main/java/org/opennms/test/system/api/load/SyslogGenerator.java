@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+import org.opennms.test.system.api.TestEnvironment;
+
+/**
+ * Sends syslog messages over UDP at a given rate.
+ *
+ * The templates are used in a round-robin fashion, and are written directly into
+ * the buffers of the sending threads.
+ */
+public class SyslogGenerator extends DatagramLoadGenerator<SyslogGenerator> {
+
+    /**
+     * The port the Minion's syslog listener binds to by default.
+     */
+    public static final int MINION_SYSLOG_PORT = 1514;
+
+    private final SyslogTemplate[] templates;
+
+    public SyslogGenerator(final InetSocketAddress target, final SyslogTemplate... templates) {
+        super("syslog-generator", target);
+        if (templates.length == 0) {
+            throw new IllegalArgumentException("At least one template is required.");
+        }
+        this.templates = new SyslogTemplate[templates.length];
+        for (int i = 0; i < templates.length; i++) {
+            this.templates[i] = templates[i].compile();
+        }
+    }
+
+    /**
+     * Sends the messages to the default syslog port of the given Minion.
+     */
+    public static SyslogGenerator forMinion(final TestEnvironment env, final ContainerAlias alias, final SyslogTemplate... templates) {
+        return forContainer(env, alias, MINION_SYSLOG_PORT, templates);
+    }
+
+    public static SyslogGenerator forContainer(final TestEnvironment env, final ContainerAlias alias, final int port, final SyslogTemplate... templates) {
+        return new SyslogGenerator(env.getServiceAddress(alias, port, "udp"), templates);
+    }
+
+    @Override
+    protected void encode(final long sequence, final ByteBuffer buffer) {
+        templates[(int)(sequence % templates.length)].encode(sequence, System.currentTimeMillis(), buffer);
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.function.LongUnaryOperator;
+import java.util.function.UnaryOperator;
+
+/**
+ * A template for syslog messages in the RFC 3164 or RFC 5424 format.
+ *
+ * The message may reference fields as <code>${name}</code>. <code>${sequence}</code> is
+ * replaced with the sequence number of the message, other fields either pick one of
+ * their choices, or compute a number, from the sequence number. The template is split
+ * into pre-encoded segments once, so that messages are written straight into the
+ * sender's buffer.
+ */
+public class SyslogTemplate {
+
+    public static enum Format {
+        RFC3164,
+        RFC5424
+    }
+
+    private static final DateTimeFormatter RFC3164_TIMESTAMP = DateTimeFormatter.ofPattern("MMM ppd HH:mm:ss", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static final DateTimeFormatter RFC5424_TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss", Locale.US).withZone(ZoneOffset.UTC);
+
+    private final Format format;
+    private final String message;
+    private final TemplateFields fields = new TemplateFields();
+    private int facility = 1;
+    private int severity = 6;
+    private String hostname = "localhost";
+    private String appName = "stest";
+    private String procId = null;
+    private String msgId = null;
+
+    private byte[] prefix;
+    private byte[] header;
+    private TemplateFields.Compiled body;
+    private CachedTimestamp timestamp;
+
+    public SyslogTemplate(final Format format, final String message) {
+        this.format = format;
+        this.message = message;
+    }
+
+    public SyslogTemplate withFacility(final int facility) {
+        this.facility = facility;
+        return this;
+    }
+
+    public SyslogTemplate withSeverity(final int severity) {
+        this.severity = severity;
+        return this;
+    }
+
+    public SyslogTemplate withHostname(final String hostname) {
+        this.hostname = hostname;
+        return this;
+    }
+
+    /**
+     * Also used as the tag of RFC 3164 messages.
+     */
+    public SyslogTemplate withAppName(final String appName) {
+        this.appName = appName;
+        return this;
+    }
+
+    public SyslogTemplate withProcId(final String procId) {
+        this.procId = procId;
+        return this;
+    }
+
+    /**
+     * Only used by RFC 5424 messages.
+     */
+    public SyslogTemplate withMsgId(final String msgId) {
+        this.msgId = msgId;
+        return this;
+    }
+
+    /**
+     * Replaces <code>${name}</code> with one of the given choices, in turn.
+     */
+    public SyslogTemplate withField(final String name, final String... choices) {
+        fields.add(name, choices);
+        return this;
+    }
+
+    /**
+     * Replaces <code>${name}</code> with the number computed from the sequence number of the message.
+     */
+    public SyslogTemplate withField(final String name, final LongUnaryOperator valueForSequence) {
+        fields.add(name, valueForSequence);
+        return this;
+    }
+
+    /**
+     * Splits the message into its segments.
+     *
+     * @throws IllegalArgumentException if the message references an unknown field
+     */
+    SyslogTemplate compile() {
+        timestamp = new CachedTimestamp(format == Format.RFC3164 ? RFC3164_TIMESTAMP : RFC5424_TIMESTAMP);
+        final int pri = facility * 8 + severity;
+        final String nil = "-";
+        if (format == Format.RFC3164) {
+            prefix = ("<" + pri + ">").getBytes(StandardCharsets.US_ASCII);
+            header = (" " + hostname + " " + appName + (procId != null ? "[" + procId + "]" : "") + ": ").getBytes(StandardCharsets.UTF_8);
+        } else {
+            prefix = ("<" + pri + ">1 ").getBytes(StandardCharsets.US_ASCII);
+            header = (" " + hostname + " " + appName + " " + (procId != null ? procId : nil) + " "
+                    + (msgId != null ? msgId : nil) + " " + nil + " ").getBytes(StandardCharsets.UTF_8);
+        }
+
+        body = fields.compile(message, UnaryOperator.identity());
+        return this;
+    }
+
+    /**
+     * Writes the message with the given sequence number to the buffer.
+     */
+    void encode(final long sequence, final long nowMillis, final ByteBuffer buffer) {
+        buffer.put(prefix);
+        timestamp.put(buffer, nowMillis);
+        if (format == Format.RFC5424) {
+            CachedTimestamp.putMillis(buffer, nowMillis);
+            buffer.put((byte)'Z');
+        }
+        buffer.put(header);
+        body.write(sequence, buffer);
+    }
+}
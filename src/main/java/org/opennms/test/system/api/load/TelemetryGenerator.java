@@ -0,0 +1,434 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+import org.opennms.test.system.api.TestEnvironment;
+
+/**
+ * Sends flow telemetry, in the NetFlow v5, NetFlow v9, IPFIX or sFlow format, at a given rate.
+ *
+ * The flows are drawn from a {@link FlowPopulation}. Every packet carries a fixed number of
+ * flows, so the rate can be given either in packets or in flows per second. NetFlow v9 and
+ * IPFIX packets are preceded by their template on the first packet of every sender thread,
+ * and on every {@link #TEMPLATE_INTERVAL}th packet after that.
+ */
+public class TelemetryGenerator extends DatagramLoadGenerator<TelemetryGenerator> {
+
+    /**
+     * The number of packets after which the templates are sent again.
+     */
+    public static final int TEMPLATE_INTERVAL = 20;
+
+    private static final int TEMPLATE_ID = 256;
+
+    private static final long EXPORTER_UPTIME_MS = 60 * 60 * 1000;
+
+    /**
+     * The formats, along with the ports their listeners use in the containers.
+     */
+    public static enum Protocol {
+        NETFLOW5(50000, 30),
+        NETFLOW9(50001, 25),
+        IPFIX(50002, 25),
+        SFLOW(50003, 10);
+
+        private final int defaultPort;
+        private final int maxFlowsPerPacket;
+
+        private Protocol(final int defaultPort, final int maxFlowsPerPacket) {
+            this.defaultPort = defaultPort;
+            this.maxFlowsPerPacket = maxFlowsPerPacket;
+        }
+
+        public int getDefaultPort() {
+            return defaultPort;
+        }
+
+        /**
+         * @return the number of flows that fit in a packet without fragmentation
+         */
+        public int getMaxFlowsPerPacket() {
+            return maxFlowsPerPacket;
+        }
+    }
+
+    /**
+     * The NetFlow v9 fields, as type and length, shared with IPFIX except for the timestamps.
+     */
+    private static final int[][] NETFLOW9_FIELDS = {
+        { 1, 4 },   // IN_BYTES
+        { 2, 4 },   // IN_PKTS
+        { 4, 1 },   // PROTOCOL
+        { 5, 1 },   // SRC_TOS
+        { 6, 1 },   // TCP_FLAGS
+        { 7, 2 },   // L4_SRC_PORT
+        { 8, 4 },   // IPV4_SRC_ADDR
+        { 9, 1 },   // SRC_MASK
+        { 10, 2 },  // INPUT_SNMP
+        { 11, 2 },  // L4_DST_PORT
+        { 12, 4 },  // IPV4_DST_ADDR
+        { 13, 1 },  // DST_MASK
+        { 14, 2 },  // OUTPUT_SNMP
+        { 15, 4 },  // IPV4_NEXT_HOP
+        { 16, 2 },  // SRC_AS
+        { 17, 2 },  // DST_AS
+        { 21, 4 },  // LAST_SWITCHED
+        { 22, 4 },  // FIRST_SWITCHED
+    };
+
+    private static final int[][] IPFIX_FIELDS;
+    static {
+        IPFIX_FIELDS = new int[NETFLOW9_FIELDS.length][];
+        for (int i = 0; i < NETFLOW9_FIELDS.length; i++) {
+            IPFIX_FIELDS[i] = NETFLOW9_FIELDS[i].clone();
+        }
+        // flowEndMilliseconds and flowStartMilliseconds instead of the uptime based timestamps
+        IPFIX_FIELDS[IPFIX_FIELDS.length - 2] = new int[] { 153, 8 };
+        IPFIX_FIELDS[IPFIX_FIELDS.length - 1] = new int[] { 152, 8 };
+    }
+
+    private final Protocol protocol;
+    private final FlowPopulation population;
+    private final ThreadLocal<FlowPopulation.Flow> flows = ThreadLocal.withInitial(FlowPopulation.Flow::new);
+    private int flowsPerPacket;
+    private int agentAddress;
+    private int samplingRate = 1000;
+    private int threads = 1;
+    private volatile long startMillis;
+
+    public TelemetryGenerator(final InetSocketAddress target, final Protocol protocol, final FlowPopulation population) {
+        super(protocol.name().toLowerCase() + "-generator", target);
+        this.protocol = protocol;
+        this.population = population;
+        this.flowsPerPacket = protocol.getMaxFlowsPerPacket();
+        withAgentAddress("10.0.0.1");
+    }
+
+    /**
+     * Sends the flows to the default port of the given protocol on the given container.
+     */
+    public static TelemetryGenerator forContainer(final TestEnvironment env, final ContainerAlias alias, final Protocol protocol, final FlowPopulation population) {
+        return forContainer(env, alias, protocol.getDefaultPort(), protocol, population);
+    }
+
+    public static TelemetryGenerator forContainer(final TestEnvironment env, final ContainerAlias alias, final int port, final Protocol protocol, final FlowPopulation population) {
+        return new TelemetryGenerator(env.getServiceAddress(alias, port, "udp"), protocol, population);
+    }
+
+    public TelemetryGenerator withFlowsPerPacket(final int flowsPerPacket) {
+        if (flowsPerPacket < 1 || flowsPerPacket > protocol.getMaxFlowsPerPacket()) {
+            throw new IllegalArgumentException(String.format("%s supports 1 to %d flows per packet: %d",
+                    protocol, protocol.getMaxFlowsPerPacket(), flowsPerPacket));
+        }
+        this.flowsPerPacket = flowsPerPacket;
+        return this;
+    }
+
+    /**
+     * @param flowsPerSecond the total rate, which is converted to packets per second
+     */
+    public TelemetryGenerator withFlowRate(final double flowsPerSecond) {
+        return withRate(flowsPerSecond / flowsPerPacket);
+    }
+
+    @Override
+    public TelemetryGenerator withThreads(final int threads) {
+        super.withThreads(threads);
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * The address of the sFlow agent.
+     */
+    public TelemetryGenerator withAgentAddress(final String address) {
+        try {
+            agentAddress = ByteBuffer.wrap(InetAddress.getByName(address).getAddress()).getInt();
+        } catch (final UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid address: " + address, e);
+        }
+        return this;
+    }
+
+    /**
+     * The sFlow sampling rate.
+     */
+    public TelemetryGenerator withSamplingRate(final int samplingRate) {
+        this.samplingRate = samplingRate;
+        return this;
+    }
+
+    public int getFlowsPerPacket() {
+        return flowsPerPacket;
+    }
+
+    @Override
+    protected void onStart() {
+        startMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    protected void encode(final long sequence, final ByteBuffer buffer) {
+        final long now = System.currentTimeMillis();
+        final FlowPopulation.Flow flow = flows.get();
+        switch (protocol) {
+        case NETFLOW5:
+            encodeNetflow5(sequence, now, flow, buffer);
+            break;
+        case NETFLOW9:
+            encodeNetflow9(sequence, now, flow, buffer);
+            break;
+        case IPFIX:
+            encodeIpfix(sequence, now, flow, buffer);
+            break;
+        case SFLOW:
+            encodeSflow(sequence, now, flow, buffer);
+            break;
+        }
+    }
+
+    private boolean includeTemplate(final long sequence) {
+        return (sequence / threads) % TEMPLATE_INTERVAL == 0;
+    }
+
+    /**
+     * The exporter pretends to have been up for an hour when the generator starts, so that
+     * the start of the first flows falls within its uptime.
+     */
+    private int uptime(final long millis) {
+        return (int)(millis - startMillis + EXPORTER_UPTIME_MS);
+    }
+
+    private void encodeNetflow5(final long sequence, final long now, final FlowPopulation.Flow flow, final ByteBuffer buffer) {
+        buffer.putShort((short)5);
+        buffer.putShort((short)flowsPerPacket);
+        buffer.putInt(uptime(now));
+        buffer.putInt((int)(now / 1000));
+        buffer.putInt((int)(now % 1000 * 1000000));
+        buffer.putInt((int)(sequence * flowsPerPacket));
+        buffer.put((byte)0); // engine type
+        buffer.put((byte)0); // engine id
+        buffer.putShort((short)0); // sampling interval
+        for (int i = 0; i < flowsPerPacket; i++) {
+            population.fill(sequence * flowsPerPacket + i, now, flow);
+            buffer.putInt(flow.srcAddr);
+            buffer.putInt(flow.dstAddr);
+            buffer.putInt(flow.nextHop);
+            buffer.putShort((short)flow.inputIf);
+            buffer.putShort((short)flow.outputIf);
+            buffer.putInt((int)flow.packets);
+            buffer.putInt((int)flow.bytes);
+            buffer.putInt(uptime(flow.firstMillis));
+            buffer.putInt(uptime(flow.lastMillis));
+            buffer.putShort((short)flow.srcPort);
+            buffer.putShort((short)flow.dstPort);
+            buffer.put((byte)0);
+            buffer.put((byte)flow.tcpFlags);
+            buffer.put((byte)flow.protocol);
+            buffer.put((byte)flow.tos);
+            buffer.putShort((short)flow.srcAs);
+            buffer.putShort((short)flow.dstAs);
+            buffer.put((byte)flow.srcMask);
+            buffer.put((byte)flow.dstMask);
+            buffer.putShort((short)0);
+        }
+    }
+
+    private void encodeNetflow9(final long sequence, final long now, final FlowPopulation.Flow flow, final ByteBuffer buffer) {
+        final boolean template = includeTemplate(sequence);
+        buffer.putShort((short)9);
+        buffer.putShort((short)(flowsPerPacket + (template ? 1 : 0)));
+        buffer.putInt(uptime(now));
+        buffer.putInt((int)(now / 1000));
+        buffer.putInt((int)sequence);
+        buffer.putInt(0); // source id
+        if (template) {
+            putTemplateSet(buffer, 0, NETFLOW9_FIELDS);
+        }
+        final int setStart = buffer.position();
+        buffer.putShort((short)TEMPLATE_ID);
+        buffer.putShort((short)0);
+        for (int i = 0; i < flowsPerPacket; i++) {
+            population.fill(sequence * flowsPerPacket + i, now, flow);
+            putRecord(buffer, flow);
+            buffer.putInt(uptime(flow.lastMillis));
+            buffer.putInt(uptime(flow.firstMillis));
+        }
+        endSet(buffer, setStart, true);
+    }
+
+    private void encodeIpfix(final long sequence, final long now, final FlowPopulation.Flow flow, final ByteBuffer buffer) {
+        final int messageStart = buffer.position();
+        buffer.putShort((short)10);
+        buffer.putShort((short)0);
+        buffer.putInt((int)(now / 1000));
+        buffer.putInt((int)(sequence * flowsPerPacket));
+        buffer.putInt(0); // observation domain
+        if (includeTemplate(sequence)) {
+            putTemplateSet(buffer, 2, IPFIX_FIELDS);
+        }
+        final int setStart = buffer.position();
+        buffer.putShort((short)TEMPLATE_ID);
+        buffer.putShort((short)0);
+        for (int i = 0; i < flowsPerPacket; i++) {
+            population.fill(sequence * flowsPerPacket + i, now, flow);
+            putRecord(buffer, flow);
+            buffer.putLong(flow.lastMillis);
+            buffer.putLong(flow.firstMillis);
+        }
+        // IPFIX sets are not padded
+        endSet(buffer, setStart, false);
+        buffer.putShort(messageStart + 2, (short)(buffer.position() - messageStart));
+    }
+
+    /**
+     * Writes the fields that NetFlow v9 and IPFIX have in common, everything except the timestamps.
+     */
+    private static void putRecord(final ByteBuffer buffer, final FlowPopulation.Flow flow) {
+        buffer.putInt((int)flow.bytes);
+        buffer.putInt((int)flow.packets);
+        buffer.put((byte)flow.protocol);
+        buffer.put((byte)flow.tos);
+        buffer.put((byte)flow.tcpFlags);
+        buffer.putShort((short)flow.srcPort);
+        buffer.putInt(flow.srcAddr);
+        buffer.put((byte)flow.srcMask);
+        buffer.putShort((short)flow.inputIf);
+        buffer.putShort((short)flow.dstPort);
+        buffer.putInt(flow.dstAddr);
+        buffer.put((byte)flow.dstMask);
+        buffer.putShort((short)flow.outputIf);
+        buffer.putInt(flow.nextHop);
+        buffer.putShort((short)flow.srcAs);
+        buffer.putShort((short)flow.dstAs);
+    }
+
+    private static void putTemplateSet(final ByteBuffer buffer, final int setId, final int[][] fields) {
+        final int setStart = buffer.position();
+        buffer.putShort((short)setId);
+        buffer.putShort((short)0);
+        buffer.putShort((short)TEMPLATE_ID);
+        buffer.putShort((short)fields.length);
+        for (final int[] field : fields) {
+            buffer.putShort((short)field[0]);
+            buffer.putShort((short)field[1]);
+        }
+        endSet(buffer, setStart, false);
+    }
+
+    private static void endSet(final ByteBuffer buffer, final int setStart, final boolean pad) {
+        if (pad) {
+            while ((buffer.position() - setStart) % 4 != 0) {
+                buffer.put((byte)0);
+            }
+        }
+        buffer.putShort(setStart + 2, (short)(buffer.position() - setStart));
+    }
+
+    private void encodeSflow(final long sequence, final long now, final FlowPopulation.Flow flow, final ByteBuffer buffer) {
+        buffer.putInt(5); // version
+        buffer.putInt(1); // IPv4 agent address
+        buffer.putInt(agentAddress);
+        buffer.putInt(0); // sub agent id
+        buffer.putInt((int)sequence);
+        buffer.putInt(uptime(now));
+        buffer.putInt(flowsPerPacket);
+        for (int i = 0; i < flowsPerPacket; i++) {
+            final long index = sequence * flowsPerPacket + i;
+            population.fill(index, now, flow);
+
+            // Flow sample
+            final int sampleStart = buffer.position();
+            buffer.putInt(1);
+            buffer.putInt(0);
+            buffer.putInt((int)index);
+            buffer.putInt(flow.inputIf); // source id: ifIndex
+            buffer.putInt(samplingRate);
+            buffer.putInt((int)(index * samplingRate)); // sample pool
+            buffer.putInt(0); // drops
+            buffer.putInt(flow.inputIf);
+            buffer.putInt(flow.outputIf);
+            buffer.putInt(1); // records
+
+            // Raw packet header
+            final int recordStart = buffer.position();
+            buffer.putInt(1);
+            buffer.putInt(0);
+            buffer.putInt(1); // Ethernet
+            final int l4Length = flow.protocol == FlowPopulation.PROTOCOL_TCP ? 20 : 8;
+            final int ipLength = (int)Math.min(65535, Math.max(20 + l4Length, flow.bytes / Math.max(1, flow.packets)));
+            buffer.putInt(14 + ipLength + 4); // frame length, including the FCS
+            buffer.putInt(4); // stripped FCS
+            final int headerLength = 14 + 20 + l4Length;
+            buffer.putInt(headerLength);
+            putPacketHeader(buffer, flow, ipLength, l4Length);
+            while ((buffer.position() - recordStart) % 4 != 0) {
+                buffer.put((byte)0);
+            }
+            buffer.putInt(recordStart + 4, buffer.position() - recordStart - 8);
+            buffer.putInt(sampleStart + 4, buffer.position() - sampleStart - 8);
+        }
+    }
+
+    private static void putPacketHeader(final ByteBuffer buffer, final FlowPopulation.Flow flow, final int ipLength, final int l4Length) {
+        // Ethernet
+        buffer.putInt(0x02000000).putShort((short)0x0001); // destination MAC
+        buffer.putInt(0x02000000).putShort((short)0x0002); // source MAC
+        buffer.putShort((short)0x0800);
+        // IPv4, without a checksum
+        buffer.put((byte)0x45);
+        buffer.put((byte)flow.tos);
+        buffer.putShort((short)ipLength);
+        buffer.putInt(0); // identification, flags and fragment offset
+        buffer.put((byte)64);
+        buffer.put((byte)flow.protocol);
+        buffer.putShort((short)0);
+        buffer.putInt(flow.srcAddr);
+        buffer.putInt(flow.dstAddr);
+        // TCP or UDP
+        buffer.putShort((short)flow.srcPort);
+        buffer.putShort((short)flow.dstPort);
+        if (l4Length == 20) {
+            buffer.putInt(0); // sequence number
+            buffer.putInt(0); // acknowledgment number
+            buffer.put((byte)0x50); // data offset
+            buffer.put((byte)flow.tcpFlags);
+            buffer.putShort((short)65535); // window
+            buffer.putInt(0); // checksum and urgent pointer
+        } else {
+            buffer.putShort((short)(ipLength - 20));
+            buffer.putShort((short)0);
+        }
+    }
+}
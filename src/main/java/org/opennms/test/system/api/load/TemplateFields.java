@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongUnaryOperator;
+import java.util.function.UnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The fields that can be referenced as <code>${name}</code> in the text of a template.
+ *
+ * <code>${sequence}</code> is replaced with the sequence number of the message, other
+ * fields either pick one of their choices, or compute a number, from the sequence number.
+ * Texts are split into pre-encoded segments once, so that messages are written straight
+ * into the sender's buffer.
+ */
+class TemplateFields {
+
+    private static final Pattern FIELD = Pattern.compile("\\$\\{([A-Za-z0-9_]+)\\}");
+
+    static final String SEQUENCE_FIELD = "sequence";
+
+    /**
+     * A text, split into its segments.
+     */
+    static class Compiled {
+        private final Segment[] segments;
+
+        private Compiled(final Segment[] segments) {
+            this.segments = segments;
+        }
+
+        void write(final long sequence, final ByteBuffer buffer) {
+            for (final Segment segment : segments) {
+                segment.write(sequence, buffer);
+            }
+        }
+    }
+
+    /**
+     * A part of a text, either a literal or a field.
+     */
+    private static class Segment {
+        private final byte[] literal;
+        private final byte[][] choices;
+        private final LongUnaryOperator number;
+
+        private Segment(final byte[] literal, final byte[][] choices, final LongUnaryOperator number) {
+            this.literal = literal;
+            this.choices = choices;
+            this.number = number;
+        }
+
+        private void write(final long sequence, final ByteBuffer buffer) {
+            if (literal != null) {
+                buffer.put(literal);
+            } else if (choices != null) {
+                buffer.put(choices[(int)(sequence % choices.length)]);
+            } else {
+                Ascii.putLong(buffer, number.applyAsLong(sequence));
+            }
+        }
+    }
+
+    private final Map<String, String[]> choicesByName = new HashMap<>();
+
+    private final Map<String, LongUnaryOperator> numbersByName = new HashMap<>();
+
+    TemplateFields() {
+        numbersByName.put(SEQUENCE_FIELD, s -> s);
+    }
+
+    void add(final String name, final String... choices) {
+        if (choices.length == 0) {
+            throw new IllegalArgumentException("At least one choice is required for field " + name);
+        }
+        numbersByName.remove(name);
+        choicesByName.put(name, choices.clone());
+    }
+
+    void add(final String name, final LongUnaryOperator valueForSequence) {
+        choicesByName.remove(name);
+        numbersByName.put(name, valueForSequence);
+    }
+
+    /**
+     * Splits the given text into its segments.
+     *
+     * @param escape applied to the choices of the fields, the text itself is used as is
+     * @throws IllegalArgumentException if the text references an unknown field
+     */
+    Compiled compile(final String text, final UnaryOperator<String> escape) {
+        final List<Segment> segments = new ArrayList<>();
+        final Matcher matcher = FIELD.matcher(text);
+        int last = 0;
+        while (matcher.find()) {
+            if (matcher.start() > last) {
+                segments.add(literal(text.substring(last, matcher.start())));
+            }
+            final String name = matcher.group(1);
+            if (choicesByName.containsKey(name)) {
+                final String[] choices = choicesByName.get(name);
+                final byte[][] encoded = new byte[choices.length][];
+                for (int i = 0; i < choices.length; i++) {
+                    encoded[i] = escape.apply(choices[i]).getBytes(StandardCharsets.UTF_8);
+                }
+                segments.add(new Segment(null, encoded, null));
+            } else if (numbersByName.containsKey(name)) {
+                segments.add(new Segment(null, null, numbersByName.get(name)));
+            } else {
+                throw new IllegalArgumentException("Unknown field in template: " + matcher.group());
+            }
+            last = matcher.end();
+        }
+        if (last < text.length()) {
+            segments.add(literal(text.substring(last)));
+        }
+        return new Compiled(segments.toArray(new Segment[segments.size()]));
+    }
+
+    private static Segment literal(final String text) {
+        return new Segment(text.getBytes(StandardCharsets.UTF_8), null, null);
+    }
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+import org.opennms.test.system.api.TestEnvironment;
+
+/**
+ * Sends SNMP traps at a given rate.
+ *
+ * The templates are encoded once, and are used in a round-robin fashion. Every
+ * message is a copy of its encoded template, with the mutable values patched in.
+ */
+public class TrapGenerator extends DatagramLoadGenerator<TrapGenerator> {
+
+    /**
+     * The port OpenNMS' trapd binds to by default.
+     */
+    public static final int TRAP_PORT = 162;
+
+    /**
+     * The port the Minion's trap listener binds to by default.
+     */
+    public static final int MINION_TRAP_PORT = 1162;
+
+    private final TrapTemplate.Encoded[] templates;
+
+    private volatile long startNanos;
+
+    public TrapGenerator(final InetSocketAddress target, final TrapTemplate... templates) {
+        super("trap-generator", target);
+        if (templates.length == 0) {
+            throw new IllegalArgumentException("At least one template is required.");
+        }
+        this.templates = new TrapTemplate.Encoded[templates.length];
+        for (int i = 0; i < templates.length; i++) {
+            this.templates[i] = templates[i].encode();
+        }
+    }
+
+    /**
+     * Sends the traps to the default trap port of the given container, i.e. OpenNMS or one of the Minions.
+     */
+    public static TrapGenerator forContainer(final TestEnvironment env, final ContainerAlias alias, final TrapTemplate... templates) {
+        return forContainer(env, alias, getTrapPort(alias), templates);
+    }
+
+    public static TrapGenerator forContainer(final TestEnvironment env, final ContainerAlias alias, final int port, final TrapTemplate... templates) {
+        return new TrapGenerator(env.getServiceAddress(alias, port, "udp"), templates);
+    }
+
+    /**
+     * @return the port the trap listener of the given container binds to by default
+     */
+    public static int getTrapPort(final ContainerAlias alias) {
+        switch (alias) {
+        case MINION:
+        case MINION_SAME_LOCATION:
+        case MINION_OTHER_LOCATION:
+            return MINION_TRAP_PORT;
+        default:
+            return TRAP_PORT;
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        startNanos = System.nanoTime();
+    }
+
+    @Override
+    protected void encode(final long sequence, final ByteBuffer buffer) {
+        final long uptimeTicks = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) / 10;
+        templates[(int)(sequence % templates.length)].encode(sequence, uptimeTicks, buffer);
+    }
+}
@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import java.net.Inet4Address;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * A template for SNMPv1 or SNMPv2c traps, which is BER encoded once.
+ *
+ * Values that change from one message to the next, such as the request id,
+ * the uptime and the mutable varbinds, are encoded with a fixed width, so that
+ * they can be patched into a copy of the encoded template without re-encoding it.
+ */
+public class TrapTemplate {
+
+    private static final byte INTEGER = 0x02;
+    private static final byte OCTET_STRING = 0x04;
+    private static final byte OBJECT_IDENTIFIER = 0x06;
+    private static final byte SEQUENCE = 0x30;
+    private static final byte IP_ADDRESS = 0x40;
+    private static final byte TIMETICKS = 0x43;
+    private static final byte TRAP_V1 = (byte)0xa4;
+    private static final byte TRAP_V2 = (byte)0xa7;
+
+    private static final String SYS_UPTIME_OID = ".1.3.6.1.2.1.1.3.0";
+    private static final String SNMP_TRAP_OID = ".1.3.6.1.6.3.1.1.4.1.0";
+
+    /**
+     * The types of varbinds that can be mutated. Signed integers are limited to 4 bytes
+     * by most decoders, while the unsigned types need a leading zero to cover their range.
+     */
+    public static enum VarbindType {
+        INTEGER(TrapTemplate.INTEGER, 4),
+        COUNTER32((byte)0x41, 5),
+        GAUGE32((byte)0x42, 5),
+        TIMETICKS(TrapTemplate.TIMETICKS, 5);
+
+        private final byte tag;
+        private final int width;
+
+        private VarbindType(final byte tag, final int width) {
+            this.tag = tag;
+            this.width = width;
+        }
+    }
+
+    /**
+     * A node of the BER tree. Mutable values are written with a fixed width, and
+     * their offsets are recorded when the tree is serialized.
+     */
+    private static class Node {
+        private final byte tag;
+        private final byte[] value;
+        private final List<Node> children;
+        private final LongUnaryOperator mutator;
+        private int offset = -1;
+
+        private Node(final byte tag, final byte[] value, final LongUnaryOperator mutator) {
+            this.tag = tag;
+            this.value = value;
+            this.children = null;
+            this.mutator = mutator;
+        }
+
+        private Node(final byte tag, final Node... children) {
+            this.tag = tag;
+            this.value = null;
+            this.children = Arrays.asList(children);
+            this.mutator = null;
+        }
+
+        private Node(final byte tag, final List<Node> children) {
+            this.tag = tag;
+            this.value = null;
+            this.children = children;
+            this.mutator = null;
+        }
+
+        private int contentLength() {
+            if (value != null) {
+                return value.length;
+            }
+            int length = 0;
+            for (final Node child : children) {
+                length += child.encodedLength();
+            }
+            return length;
+        }
+
+        private int encodedLength() {
+            final int contentLength = contentLength();
+            return 1 + lengthOfLength(contentLength) + contentLength;
+        }
+
+        private void writeTo(final ByteBuffer out, final List<Node> mutable) {
+            out.put(tag);
+            writeLength(out, contentLength());
+            if (value != null) {
+                if (mutator != null) {
+                    offset = out.position();
+                    mutable.add(this);
+                }
+                out.put(value);
+            } else {
+                for (final Node child : children) {
+                    child.writeTo(out, mutable);
+                }
+            }
+        }
+    }
+
+    /**
+     * The encoded template, ready to be copied and patched.
+     */
+    static class Encoded {
+        private final byte[] bytes;
+        private final int[] offsets;
+        private final int[] widths;
+        private final LongUnaryOperator[] mutators;
+        private final boolean[] uptime;
+
+        private Encoded(final byte[] bytes, final List<Node> mutable, final Node uptimeNode) {
+            this.bytes = bytes;
+            offsets = new int[mutable.size()];
+            widths = new int[mutable.size()];
+            mutators = new LongUnaryOperator[mutable.size()];
+            uptime = new boolean[mutable.size()];
+            for (int i = 0; i < mutable.size(); i++) {
+                final Node node = mutable.get(i);
+                offsets[i] = node.offset;
+                widths[i] = node.value.length;
+                mutators[i] = node.mutator;
+                uptime[i] = node == uptimeNode;
+            }
+        }
+
+        int size() {
+            return bytes.length;
+        }
+
+        /**
+         * Writes the message with the given sequence number to the buffer.
+         */
+        void encode(final long sequence, final long uptimeTicks, final ByteBuffer buffer) {
+            final int base = buffer.position();
+            buffer.put(bytes);
+            for (int i = 0; i < offsets.length; i++) {
+                final long value = uptime[i] ? uptimeTicks : mutators[i].applyAsLong(sequence);
+                // Big endian, the leading byte of the unsigned types stays zero
+                for (int j = 0, shift = 0; j < Math.min(4, widths[i]); j++, shift += 8) {
+                    buffer.put(base + offsets[i] + widths[i] - 1 - j, (byte)(value >>> shift));
+                }
+            }
+        }
+    }
+
+    private final byte version;
+    private final String community;
+    private final List<Node> pduHeader = new ArrayList<>();
+    private final List<Node> varbinds = new ArrayList<>();
+    private final Node uptimeNode;
+
+    private TrapTemplate(final byte version, final String community, final Node uptimeNode) {
+        this.version = version;
+        this.community = community;
+        this.uptimeNode = uptimeNode;
+    }
+
+    /**
+     * An SNMPv2c trap with the given trap OID. The request id is set to the sequence
+     * number of the message, and sysUpTime to the time since the generator started.
+     */
+    public static TrapTemplate v2c(final String community, final String trapOid) {
+        final Node uptime = fixedWidth(TIMETICKS, VarbindType.TIMETICKS.width, s -> 0);
+        final TrapTemplate template = new TrapTemplate((byte)1, community, uptime);
+        template.pduHeader.add(fixedWidth(INTEGER, 4, s -> s & 0x7fffffff));
+        template.pduHeader.add(new Node(INTEGER, new byte[] { 0 }, null));
+        template.pduHeader.add(new Node(INTEGER, new byte[] { 0 }, null));
+        template.varbinds.add(varbind(SYS_UPTIME_OID, uptime));
+        template.varbinds.add(varbind(SNMP_TRAP_OID, new Node(OBJECT_IDENTIFIER, encodeOid(trapOid), null)));
+        return template;
+    }
+
+    /**
+     * An SNMPv1 trap. The timestamp is set to the time since the generator started.
+     */
+    public static TrapTemplate v1(final String community, final String enterpriseOid, final Inet4Address agentAddress, final int generic, final int specific) {
+        final Node uptime = fixedWidth(TIMETICKS, VarbindType.TIMETICKS.width, s -> 0);
+        final TrapTemplate template = new TrapTemplate((byte)0, community, uptime);
+        template.pduHeader.add(new Node(OBJECT_IDENTIFIER, encodeOid(enterpriseOid), null));
+        template.pduHeader.add(new Node(IP_ADDRESS, agentAddress.getAddress(), null));
+        template.pduHeader.add(new Node(INTEGER, encodeInteger(generic), null));
+        template.pduHeader.add(new Node(INTEGER, encodeInteger(specific), null));
+        template.pduHeader.add(uptime);
+        return template;
+    }
+
+    public TrapTemplate withVarbind(final String oid, final String value) {
+        varbinds.add(varbind(oid, new Node(OCTET_STRING, value.getBytes(StandardCharsets.UTF_8), null)));
+        return this;
+    }
+
+    public TrapTemplate withVarbind(final String oid, final VarbindType type, final long value) {
+        return withMutableVarbind(oid, type, s -> value);
+    }
+
+    /**
+     * Adds a varbind whose value is computed from the sequence number of every message.
+     */
+    public TrapTemplate withMutableVarbind(final String oid, final VarbindType type, final LongUnaryOperator valueForSequence) {
+        varbinds.add(varbind(oid, fixedWidth(type.tag, type.width, valueForSequence)));
+        return this;
+    }
+
+    /**
+     * Adds a Counter32 varbind set to the sequence number of every message.
+     */
+    public TrapTemplate withSequenceVarbind(final String oid) {
+        return withMutableVarbind(oid, VarbindType.COUNTER32, s -> s);
+    }
+
+    Encoded encode() {
+        final List<Node> pdu = new ArrayList<>(pduHeader);
+        pdu.add(new Node(SEQUENCE, varbinds));
+        final Node message = new Node(SEQUENCE,
+                new Node(INTEGER, new byte[] { version }, null),
+                new Node(OCTET_STRING, community.getBytes(StandardCharsets.UTF_8), null),
+                new Node(version == 0 ? TRAP_V1 : TRAP_V2, pdu));
+        final ByteBuffer out = ByteBuffer.allocate(message.encodedLength());
+        final List<Node> mutable = new ArrayList<>();
+        message.writeTo(out, mutable);
+        return new Encoded(out.array(), mutable, uptimeNode);
+    }
+
+    private static Node varbind(final String oid, final Node value) {
+        return new Node(SEQUENCE, new Node(OBJECT_IDENTIFIER, encodeOid(oid), null), value);
+    }
+
+    private static Node fixedWidth(final byte tag, final int width, final LongUnaryOperator mutator) {
+        return new Node(tag, new byte[width], mutator);
+    }
+
+    private static byte[] encodeInteger(final int value) {
+        // Minimal two's complement encoding
+        int length = 4;
+        while (length > 1 && ((value >> (8 * (length - 1) - 1)) == 0 || (value >> (8 * (length - 1) - 1)) == -1)) {
+            length--;
+        }
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[length - 1 - i] = (byte)(value >> (8 * i));
+        }
+        return bytes;
+    }
+
+    static byte[] encodeOid(final String oid) {
+        final String[] arcs = (oid.startsWith(".") ? oid.substring(1) : oid).split("\\.");
+        if (arcs.length < 2) {
+            throw new IllegalArgumentException("Invalid OID: " + oid);
+        }
+        final ByteBuffer out = ByteBuffer.allocate(arcs.length * 5);
+        writeArc(out, Long.parseLong(arcs[0]) * 40 + Long.parseLong(arcs[1]));
+        for (int i = 2; i < arcs.length; i++) {
+            writeArc(out, Long.parseLong(arcs[i]));
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    private static void writeArc(final ByteBuffer out, final long arc) {
+        int groups = 1;
+        while ((arc >>> (7 * groups)) != 0) {
+            groups++;
+        }
+        for (int i = groups - 1; i >= 0; i--) {
+            final byte b = (byte)((arc >>> (7 * i)) & 0x7f);
+            out.put(i > 0 ? (byte)(b | 0x80) : b);
+        }
+    }
+
+    private static int lengthOfLength(final int length) {
+        if (length < 0x80) {
+            return 1;
+        } else if (length <= 0xff) {
+            return 2;
+        } else if (length <= 0xffff) {
+            return 3;
+        }
+        return 4;
+    }
+
+    private static void writeLength(final ByteBuffer out, final int length) {
+        if (length < 0x80) {
+            out.put((byte)length);
+        } else if (length <= 0xff) {
+            out.put((byte)0x81).put((byte)length);
+        } else if (length <= 0xffff) {
+            out.put((byte)0x82).put((byte)(length >> 8)).put((byte)length);
+        } else {
+            out.put((byte)0x83).put((byte)(length >> 16)).put((byte)(length >> 8)).put((byte)length);
+        }
+    }
+}
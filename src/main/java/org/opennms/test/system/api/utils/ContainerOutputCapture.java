@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.spotify.docker.client.LogMessage;
+import com.spotify.docker.client.LogStream;
+
+/**
+ * Streams the stdout/stderr frames of a container to disk, without ever
+ * holding more than a single frame in memory.
+ *
+ * The output can optionally be gzipped on the fly, and capped in size:
+ * once a file reaches the maximum size it is either rotated (when more than
+ * one file is kept) or any further output is discarded.
+ */
+public class ContainerOutputCapture implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContainerOutputCapture.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    /**
+     * Flushes the compressed output of all of the captures that are following a container.
+     */
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "container-output-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path path;
+
+    private final boolean compress;
+
+    private final long maxBytes;
+
+    private final int maxFiles;
+
+    private final byte[] scratch = new byte[BUFFER_SIZE];
+
+    private FileChannel channel;
+
+    private GZIPOutputStream gzip;
+
+    private long bytesInFile = 0;
+
+    private long bytesWritten = 0;
+
+    private long bytesDiscarded = 0;
+
+    private boolean unflushed = false;
+
+    /**
+     * @param path the file to write to, ".gz" is appended to the name when compressing
+     * @param compress gzip the output
+     * @param maxBytes maximum number of (uncompressed) bytes per file, or 0 for no limit
+     * @param maxFiles the number of files to keep when rotating, a value of 1 or less
+     *                 discards any output past the maximum size
+     */
+    public ContainerOutputCapture(final Path path, final boolean compress, final long maxBytes, final int maxFiles) throws IOException {
+        this.path = compress ? Paths.get(path.toString() + ".gz") : path;
+        this.compress = compress;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        open();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Total number of bytes written, before compression.
+     */
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Number of bytes that were discarded because the size cap was reached.
+     */
+    public synchronized long getBytesDiscarded() {
+        return bytesDiscarded;
+    }
+
+    /**
+     * Writes the remaining contents of the given buffer.
+     */
+    public synchronized void write(final ByteBuffer content) throws IOException {
+        final int length = content.remaining();
+        if (maxBytes > 0 && bytesInFile > 0 && bytesInFile + length > maxBytes) {
+            if (maxFiles > 1) {
+                rotate();
+            } else {
+                bytesDiscarded += length;
+                content.position(content.limit());
+                return;
+            }
+        }
+
+        if (compress) {
+            while (content.hasRemaining()) {
+                final int n = Math.min(content.remaining(), scratch.length);
+                content.get(scratch, 0, n);
+                gzip.write(scratch, 0, n);
+            }
+            unflushed = true;
+        } else {
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+        }
+        bytesInFile += length;
+        bytesWritten += length;
+    }
+
+    /**
+     * Flushes any buffered output to disk.
+     */
+    public synchronized void flush() throws IOException {
+        if (gzip != null) {
+            gzip.flush();
+        }
+        unflushed = false;
+    }
+
+    /**
+     * Copies all of the frames from the given stream until it ends.
+     *
+     * When following the output of a running container, compressed output is flushed
+     * every second from another thread, even while the container is idle, so that the
+     * file remains readable if the JVM is killed.
+     */
+    public void copy(final LogStream logStream) throws IOException {
+        final ScheduledFuture<?> flusher = compress
+                ? FLUSHER.scheduleWithFixedDelay(this::flushIfNeeded, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS)
+                : null;
+        try {
+            while (logStream.hasNext()) {
+                final LogMessage message = logStream.next();
+                write(message.content());
+            }
+        } finally {
+            if (flusher != null) {
+                flusher.cancel(false);
+            }
+        }
+    }
+
+    private synchronized void flushIfNeeded() {
+        if (!unflushed) {
+            return;
+        }
+        try {
+            flush();
+        } catch (final IOException e) {
+            LOG.warn("Failed to flush {}: {}", path, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (bytesDiscarded > 0) {
+            final String marker = String.format("%n[%d bytes of output were discarded]%n", bytesDiscarded);
+            final ByteBuffer buffer = ByteBuffer.wrap(marker.getBytes(StandardCharsets.UTF_8));
+            bytesDiscarded = 0;
+            if (compress) {
+                gzip.write(buffer.array());
+            } else {
+                channel.write(buffer);
+            }
+        }
+        closeFile();
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (compress) {
+            gzip = new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE, true);
+        }
+        bytesInFile = 0;
+    }
+
+    private void closeFile() throws IOException {
+        unflushed = false;
+        if (gzip != null) {
+            gzip.close();
+            gzip = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Shifts the existing files i.e. output.log -> output.log.1 -> output.log.2,
+     * dropping the oldest one, and starts a new file.
+     */
+    private void rotate() throws IOException {
+        closeFile();
+        Files.deleteIfExists(getRotatedPath(maxFiles - 1));
+        for (int i = maxFiles - 2; i >= 1; i--) {
+            final Path from = getRotatedPath(i);
+            if (Files.exists(from)) {
+                Files.move(from, getRotatedPath(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(path, getRotatedPath(1), StandardCopyOption.REPLACE_EXISTING);
+        LOG.debug("Rotated {}", path);
+        open();
+    }
+
+    private Path getRotatedPath(final int index) {
+        final String name = path.getFileName().toString();
+        final String rotated = compress ? name.substring(0, name.length() - 3) + "." + index + ".gz" : name + "." + index;
+        return path.resolveSibling(rotated);
+    }
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Speaks just enough of the CQL native protocol (v4) to determine whether or not
+ * a Cassandra node is accepting queries.
+ *
+ * The handshake issues an OPTIONS request, followed by a STARTUP request and
+ * finally a query against the system.local table.
+ *
+ * @see <a href="https://github.com/apache/cassandra/blob/cassandra-3.11/doc/native_protocol_v4.spec">native_protocol_v4.spec</a>
+ */
+public class CqlHandshake {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CqlHandshake.class);
+
+    private static final byte PROTOCOL_VERSION = 0x04;
+
+    private static final byte OPCODE_ERROR = 0x00;
+    private static final byte OPCODE_STARTUP = 0x01;
+    private static final byte OPCODE_READY = 0x02;
+    private static final byte OPCODE_AUTHENTICATE = 0x03;
+    private static final byte OPCODE_OPTIONS = 0x05;
+    private static final byte OPCODE_SUPPORTED = 0x06;
+    private static final byte OPCODE_QUERY = 0x07;
+    private static final byte OPCODE_RESULT = 0x08;
+
+    private static final short CONSISTENCY_ONE = 0x0001;
+
+    private static final String QUERY = "SELECT release_version FROM system.local";
+
+    /**
+     * Performs the handshake against the given address.
+     *
+     * @return true if the node answered a query, or if it requires authentication
+     *  (in which case it is up, but we can't go any further)
+     */
+    public static boolean isAcceptingQueries(final InetSocketAddress addr, final int timeoutMs) throws IOException {
+        try (final Socket socket = new Socket()) {
+            socket.connect(addr, timeoutMs);
+            socket.setSoTimeout(timeoutMs);
+            final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            final DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            writeFrame(out, 0, OPCODE_OPTIONS, new byte[0]);
+            if (readFrame(in) != OPCODE_SUPPORTED) {
+                return false;
+            }
+
+            final ByteArrayOutputStream startup = new ByteArrayOutputStream();
+            final DataOutputStream startupBody = new DataOutputStream(startup);
+            startupBody.writeShort(1);
+            writeString(startupBody, "CQL_VERSION");
+            writeString(startupBody, "3.0.0");
+            writeFrame(out, 1, OPCODE_STARTUP, startup.toByteArray());
+            final byte startupResponse = readFrame(in);
+            if (startupResponse == OPCODE_AUTHENTICATE) {
+                LOG.debug("Cassandra @ {} requires authentication, assuming it is ready.", addr);
+                return true;
+            } else if (startupResponse != OPCODE_READY) {
+                return false;
+            }
+
+            final ByteArrayOutputStream query = new ByteArrayOutputStream();
+            final DataOutputStream queryBody = new DataOutputStream(query);
+            final byte[] queryBytes = QUERY.getBytes(StandardCharsets.UTF_8);
+            queryBody.writeInt(queryBytes.length);
+            queryBody.write(queryBytes);
+            queryBody.writeShort(CONSISTENCY_ONE);
+            queryBody.writeByte(0);
+            writeFrame(out, 2, OPCODE_QUERY, query.toByteArray());
+            return readFrame(in) == OPCODE_RESULT;
+        }
+    }
+
+    private static void writeFrame(final DataOutputStream out, final int stream, final byte opcode, final byte[] body) throws IOException {
+        out.writeByte(PROTOCOL_VERSION);
+        out.writeByte(0); // flags
+        out.writeShort(stream);
+        out.writeByte(opcode);
+        out.writeInt(body.length);
+        out.write(body);
+        out.flush();
+    }
+
+    /**
+     * Reads a complete frame and returns its opcode.
+     */
+    private static byte readFrame(final DataInputStream in) throws IOException {
+        in.readByte(); // version
+        in.readByte(); // flags
+        in.readShort(); // stream
+        final byte opcode = in.readByte();
+        final int length = in.readInt();
+        final byte[] body = new byte[length];
+        in.readFully(body);
+        if (opcode == OPCODE_ERROR && length >= 6) {
+            // [int code][string message]
+            final int messageLength = ((body[4] & 0xff) << 8) | (body[5] & 0xff);
+            LOG.debug("Cassandra returned an error: {}", new String(body, 6, Math.min(messageLength, length - 6), StandardCharsets.UTF_8));
+        }
+        return opcode;
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+}
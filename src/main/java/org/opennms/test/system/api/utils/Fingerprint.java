@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes a SHA-256 fingerprint over strings and files.
+ */
+public class Fingerprint {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final MessageDigest digest;
+
+    public Fingerprint() {
+        digest = newDigest();
+    }
+
+    public Fingerprint update(final String value) {
+        final byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+        updateLength(bytes.length);
+        digest.update(bytes);
+        return this;
+    }
+
+    public String toHex() {
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 digest of the given file.
+     */
+    public static String of(final Path file) throws IOException {
+        final MessageDigest fileDigest = newDigest();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        try (final InputStream is = Files.newInputStream(file)) {
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                fileDigest.update(buffer, 0, n);
+            }
+        }
+        return toHex(fileDigest.digest());
+    }
+
+    private void updateLength(final long length) {
+        for (int i = 56; i >= 0; i -= 8) {
+            digest.update((byte)(length >>> i));
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this JVM.", e);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
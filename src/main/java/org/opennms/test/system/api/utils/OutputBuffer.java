@@ -0,0 +1,388 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.utils;
+
+import java.io.EOFException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Collects the output of a channel in a bounded ring buffer.
+ *
+ * JSch pushes the bytes into the buffer from its session thread as they arrive,
+ * so nobody needs to poll the channel for available bytes. The bytes are decoded
+ * as UTF-8 with a stateful decoder, so that multi-byte characters split across
+ * packets are decoded correctly. The buffer starts small and grows up to its
+ * capacity, after which the oldest characters are discarded.
+ *
+ * Consumers can block until a pattern appears in the output, or until the
+ * channel is closed. Waiting for a pattern only scans the output that arrived
+ * since the last attempt, along with the last {@link #MAX_MATCH_LENGTH} characters
+ * before it, so longer matches that span several writes may not be found.
+ */
+public class OutputBuffer extends OutputStream {
+
+    /**
+     * In characters.
+     */
+    public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+    /**
+     * The longest match that is guaranteed to be found by {@link #awaitPattern(Pattern, long, TimeUnit)}.
+     */
+    public static final int MAX_MATCH_LENGTH = 4 * 1024;
+
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+
+    private static final int DECODE_BUFFER_SIZE = 8 * 1024;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * Holds the trailing bytes of an incomplete character between writes.
+     */
+    private final ByteBuffer undecoded = ByteBuffer.allocate(DECODE_BUFFER_SIZE);
+
+    private final CharBuffer decoded = CharBuffer.allocate(DECODE_BUFFER_SIZE);
+
+    private final byte[] singleByte = new byte[1];
+
+    private final int capacity;
+
+    private char[] ring;
+
+    private int head = 0;
+
+    private int size = 0;
+
+    /**
+     * The number of characters appended so far, so that positions remain valid while the ring wraps around.
+     */
+    private long appended = 0;
+
+    private long discarded = 0;
+
+    private boolean closed = false;
+
+    public OutputBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public OutputBuffer(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        ring = new char[Math.min(capacity, INITIAL_CAPACITY)];
+    }
+
+    @Override
+    public void write(final int b) {
+        lock.lock();
+        try {
+            singleByte[0] = (byte)b;
+            write(singleByte, 0, 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            while (len > 0) {
+                final int n = Math.min(len, undecoded.remaining());
+                undecoded.put(b, off, n);
+                off += n;
+                len -= n;
+                undecoded.flip();
+                decode(false);
+                undecoded.compact();
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decodes the remaining bytes and wakes up any waiters.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            undecoded.flip();
+            decode(true);
+            undecoded.clear();
+            while (decoder.flush(decoded).isOverflow()) {
+                appendDecoded();
+            }
+            appendDecoded();
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of characters that were discarded because the buffer was full
+     */
+    public long getDiscarded() {
+        lock.lock();
+        try {
+            return discarded;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the buffered output, leaving it in the buffer
+     */
+    public String peek() {
+        lock.lock();
+        try {
+            return contents().toString();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the buffered output, removing it from the buffer
+     */
+    public String drain() {
+        lock.lock();
+        try {
+            final String output = contents().toString();
+            head = 0;
+            size = 0;
+            return output;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the given pattern matches the buffered output.
+     *
+     * @return the matching text
+     * @throws EOFException if the channel was closed without the pattern appearing
+     * @throws TimeoutException if the pattern did not appear in time
+     */
+    public String awaitPattern(final Pattern pattern, final long timeout, final TimeUnit unit) throws InterruptedException, TimeoutException, EOFException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            // Where the next scan starts, relative to all of the output appended so far
+            long scanFrom = appended - size;
+            while (true) {
+                final long start = appended - size;
+                final CharSequence contents = contents();
+                final Matcher matcher = pattern.matcher(contents)
+                        .region((int)(Math.max(scanFrom, start) - start), contents.length())
+                        // Lets anchors and lookarounds see the characters before the region
+                        .useTransparentBounds(true)
+                        .useAnchoringBounds(false);
+                if (matcher.find()) {
+                    return matcher.group();
+                }
+                scanFrom = appended - MAX_MATCH_LENGTH;
+                if (closed) {
+                    throw new EOFException("The channel was closed before the output matched " + pattern);
+                }
+                if (nanos <= 0) {
+                    throw new TimeoutException("The output did not match " + pattern + " within " + unit.toMillis(timeout) + "ms.");
+                }
+                nanos = changed.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until the channel is closed.
+     *
+     * @return true if the channel was closed, false if the time elapsed
+     */
+    public boolean awaitClosed(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!closed) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = changed.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void decode(final boolean endOfInput) {
+        while (true) {
+            final CoderResult result = decoder.decode(undecoded, decoded, endOfInput);
+            appendDecoded();
+            if (!result.isOverflow()) {
+                return;
+            }
+        }
+    }
+
+    private void appendDecoded() {
+        decoded.flip();
+        int n = decoded.remaining();
+        if (size + n > ring.length && ring.length < capacity) {
+            grow(size + n);
+        }
+        appended += n;
+        if (n > ring.length) {
+            // Only the tail fits
+            discarded += size + (n - ring.length);
+            decoded.position(decoded.position() + n - ring.length);
+            head = 0;
+            size = 0;
+            n = ring.length;
+        } else if (size + n > ring.length) {
+            final int overflow = size + n - ring.length;
+            head = (head + overflow) % ring.length;
+            size -= overflow;
+            discarded += overflow;
+        }
+
+        final int tail = (head + size) % ring.length;
+        final int first = Math.min(n, ring.length - tail);
+        decoded.get(ring, tail, first);
+        decoded.get(ring, 0, n - first);
+        size += n;
+        decoded.clear();
+    }
+
+    /**
+     * Replaces the ring with a larger one, of at most the capacity.
+     */
+    private void grow(final int minimum) {
+        int length = ring.length;
+        while (length < minimum && length < capacity) {
+            length = (int)Math.min(capacity, length * 2L);
+        }
+        final char[] larger = new char[length];
+        final int first = Math.min(size, ring.length - head);
+        System.arraycopy(ring, head, larger, 0, first);
+        System.arraycopy(ring, 0, larger, first, size - first);
+        ring = larger;
+        head = 0;
+    }
+
+    /**
+     * A view over the contents of the ring, only valid while holding the lock.
+     */
+    private CharSequence contents() {
+        return new RingView(0, size);
+    }
+
+    private class RingView implements CharSequence {
+        private final int start;
+        private final int length;
+
+        private RingView(final int start, final int length) {
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(final int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+            final int position = head + start + index;
+            return ring[position < ring.length ? position : position - ring.length];
+        }
+
+        @Override
+        public CharSequence subSequence(final int from, final int to) {
+            if (from < 0 || to > length || from > to) {
+                throw new IndexOutOfBoundsException(from + ", " + to);
+            }
+            return new RingView(start + from, to - from);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder(length);
+            final int begin = (head + start) % ring.length;
+            final int first = Math.min(length, ring.length - begin);
+            sb.append(ring, begin, first);
+            sb.append(ring, 0, length - first);
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.exceptions.DockerException;
+
+/**
+ * A tar archive of overlay files, generated on the fly while it is streamed to a container.
+ *
+ * The archive is written to a pipe by a background thread, as it is being read, so neither
+ * the archive nor the list of files is ever fully held on disk or in memory. All of the
+ * entries are owned by root; the bootstrap scripts fix the ownership where needed.
+ *
+ * The archive is extracted at the root of the file system, with the destination as the
+ * prefix of every entry, so the destination does not need to exist in the container.
+ */
+public class OverlayArchive {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OverlayArchive.class);
+
+    private static final int PIPE_SIZE = 64 * 1024;
+
+    private static interface Source {
+        void writeTo(TarArchiveOutputStream tar) throws IOException;
+    }
+
+    private final String destination;
+
+    // The destination relative to the root of the file system, ending with a slash unless empty
+    private final String prefix;
+
+    private final List<Source> sources = new ArrayList<>();
+
+    /**
+     * @param destination the absolute path of the directory in the container in which the archive is extracted
+     */
+    public OverlayArchive(final String destination) {
+        if (!destination.startsWith("/")) {
+            throw new IllegalArgumentException("The destination must be an absolute path: " + destination);
+        }
+        this.destination = destination;
+        final String relative = destination.replaceAll("^/+|/+$", "");
+        this.prefix = relative.isEmpty() ? "" : relative + "/";
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    /**
+     * Adds the contents of the given directory to the root of the archive.
+     * The directory is only walked once the archive is streamed.
+     *
+     * @param directory the directory, ignored if null
+     */
+    public OverlayArchive addDirectory(final Path directory) {
+        if (directory != null) {
+            sources.add(tar -> {
+                try (final Stream<Path> paths = Files.walk(directory)) {
+                    final Iterator<Path> it = paths.iterator();
+                    while (it.hasNext()) {
+                        final Path path = it.next();
+                        if (!path.equals(directory)) {
+                            putFile(tar, path, directory.relativize(path).toString().replace('\\', '/'));
+                        }
+                    }
+                }
+            });
+        }
+        return this;
+    }
+
+    /**
+     * Adds the given file to the archive, under the given name.
+     */
+    public OverlayArchive addFile(final Path file, final String name) {
+        sources.add(tar -> putFile(tar, file, name));
+        return this;
+    }
+
+    /**
+     * Adds a file with the given contents to the archive.
+     */
+    public OverlayArchive addFile(final String name, final String contents) {
+        final byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+        sources.add(tar -> {
+            final TarArchiveEntry entry = newEntry(name);
+            entry.setSize(bytes.length);
+            tar.putArchiveEntry(entry);
+            tar.write(bytes);
+            tar.closeArchiveEntry();
+        });
+        return this;
+    }
+
+    /**
+     * Streams the archive into the given container, which may be created but not yet started.
+     */
+    public void copyTo(final DockerClient docker, final String containerId) throws DockerException, InterruptedException, IOException {
+        final long start = System.currentTimeMillis();
+        try (final InputStream is = open()) {
+            docker.copyToContainer(is, containerId, "/");
+        }
+        LOG.info("Copied overlay to {}:{} in {}ms.", containerId, destination, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Starts generating the archive in the background.
+     *
+     * Closing the returned stream waits for the generator to finish, and
+     * rethrows any error it encountered. When the generator fails, the archive
+     * is left unterminated, so that reading the rest of it fails instead of
+     * returning a truncated archive.
+     */
+    public InputStream open() throws IOException {
+        final PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+        final PipedOutputStream out = new PipedOutputStream(in);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        final Thread writer = new Thread(() -> {
+            final TarArchiveOutputStream tar = new TarArchiveOutputStream(out);
+            try {
+                tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+                tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+                for (final Source source : sources) {
+                    source.writeTo(tar);
+                }
+                // Writes the end of the archive
+                tar.close();
+            } catch (final Throwable t) {
+                // Not closed, so the reader sees a broken pipe once this thread is gone
+                failure.set(t);
+            }
+        }, "overlay-archive-" + destination);
+        writer.setDaemon(true);
+        writer.start();
+
+        return new FilterInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                try {
+                    writer.join();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while generating the overlay archive.", e);
+                }
+                if (failure.get() != null) {
+                    throw new IOException("Failed to generate the overlay archive.", failure.get());
+                }
+            }
+        };
+    }
+
+    private void putFile(final TarArchiveOutputStream tar, final Path path, final String name) throws IOException {
+        final boolean directory = Files.isDirectory(path);
+        final TarArchiveEntry entry = newEntry(directory ? name + "/" : name);
+        if (directory) {
+            tar.putArchiveEntry(entry);
+            tar.closeArchiveEntry();
+            return;
+        }
+        entry.setSize(Files.size(path));
+        entry.setModTime(Files.getLastModifiedTime(path).toMillis());
+        entry.setMode(Files.isExecutable(path) ? 0100755 : 0100644);
+        tar.putArchiveEntry(entry);
+        Files.copy(path, tar);
+        tar.closeArchiveEntry();
+    }
+
+    private TarArchiveEntry newEntry(final String name) {
+        final TarArchiveEntry entry = new TarArchiveEntry(prefix + name);
+        entry.setUserId(0);
+        entry.setGroupId(0);
+        entry.setUserName("root");
+        entry.setGroupName("root");
+        return entry;
+    }
+}
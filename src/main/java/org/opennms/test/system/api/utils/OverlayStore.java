@@ -0,0 +1,311 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A content-addressed store for overlay files.
+ *
+ * Every distinct file is copied into the store once, under the hash of its contents,
+ * and then hard linked into the overlay directories of the containers that use it.
+ * The hashes are cached by file, size and modification time across runs, so unchanged
+ * files are neither read nor copied again, and overlay directories that are already
+ * up to date are left untouched.
+ *
+ * Hard links require the store and the overlay directories to be on the same file
+ * system; files are copied instead when linking fails.
+ *
+ * The shared store lives in target/overlay-store, so it is cleared by <code>mvn clean</code>.
+ * Objects that are no longer linked from any overlay directory are pruned when the
+ * shared store is first used by a JVM, see {@link #prune(long)}.
+ */
+public class OverlayStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OverlayStore.class);
+
+    private static final Path DEFAULT_ROOT = Paths.get("target", "overlay-store");
+
+    /**
+     * Objects are only pruned once their links have not changed for this long, so that
+     * objects that were just added by another JVM, but not linked yet, are kept.
+     */
+    private static final long DEFAULT_PRUNE_AGE_MS = TimeUnit.DAYS.toMillis(1);
+
+    private static OverlayStore s_instance;
+
+    private final Path objects;
+
+    private final Path indexFile;
+
+    private final Map<String, String> index = new ConcurrentHashMap<>();
+
+    private boolean linkingSupported = true;
+
+    public OverlayStore(final Path root) throws IOException {
+        this.objects = root.toAbsolutePath().resolve("objects");
+        this.indexFile = root.toAbsolutePath().resolve("index.properties");
+        Files.createDirectories(objects);
+        if (Files.isRegularFile(indexFile)) {
+            final Properties props = new Properties();
+            try (final InputStream is = Files.newInputStream(indexFile)) {
+                props.load(is);
+            } catch (final IOException | IllegalArgumentException e) {
+                LOG.warn("Ignoring corrupt overlay store index {}.", indexFile, e);
+            }
+            props.stringPropertyNames().forEach(key -> index.put(key, props.getProperty(key)));
+        }
+    }
+
+    /**
+     * Returns the store shared by all of the environments in this JVM, in target/overlay-store.
+     */
+    public static synchronized OverlayStore getInstance() throws IOException {
+        if (s_instance == null) {
+            s_instance = new OverlayStore(DEFAULT_ROOT);
+            s_instance.prune(DEFAULT_PRUNE_AGE_MS);
+        }
+        return s_instance;
+    }
+
+    /**
+     * Makes the target directory mirror the source directory, linking the files
+     * from the store. Files in the target that are missing from the source are removed.
+     *
+     * @param source the source directory, or null to empty the target
+     * @return the number of files that were linked or copied
+     */
+    public synchronized int materialize(final Path source, final Path target) throws IOException {
+        final long start = System.currentTimeMillis();
+        Files.createDirectories(target);
+
+        final Set<Path> expected = new HashSet<>();
+        final Set<Path> expectedDirectories = new HashSet<>();
+        int updated = 0;
+        if (source != null) {
+            final List<Path> files;
+            try (final Stream<Path> paths = Files.walk(source)) {
+                files = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+            }
+            for (final Path file : files) {
+                final Path relative = source.relativize(file);
+                final Path to = target.resolve(relative.toString());
+                expected.add(to);
+                for (Path parent = to.getParent(); parent != null && !parent.equals(target); parent = parent.getParent()) {
+                    expectedDirectories.add(parent);
+                }
+
+                final Path object = add(file);
+                if (Files.exists(to) && Files.isSameFile(to, object)) {
+                    continue;
+                }
+                LOG.debug("Linking {} to {}", file, to);
+                Files.createDirectories(to.getParent());
+                Files.deleteIfExists(to);
+                link(object, to);
+                updated++;
+            }
+        }
+
+        // Remove the files that are no longer part of the overlay
+        final List<Path> stale;
+        try (final Stream<Path> paths = Files.walk(target)) {
+            stale = paths.filter(p -> !p.equals(target) && !expected.contains(p) && !expectedDirectories.contains(p))
+                    .sorted(Comparator.reverseOrder())
+                    .collect(Collectors.toList());
+        }
+        for (final Path path : stale) {
+            LOG.debug("Removing stale overlay file {}", path);
+            Files.deleteIfExists(path);
+        }
+
+        saveIndex();
+        LOG.info("Materialized overlay {} in {}: {} file(s) updated, {} removed in {}ms.", source, target, updated, stale.size(), System.currentTimeMillis() - start);
+        return updated;
+    }
+
+    /**
+     * Computes a fingerprint of the given directory using the cached file hashes,
+     * so that unchanged files are not read again.
+     *
+     * @param directory the directory, or null
+     */
+    public synchronized String fingerprint(final Path directory) throws IOException {
+        final Fingerprint fingerprint = new Fingerprint();
+        if (directory == null || !Files.isDirectory(directory)) {
+            return fingerprint.update("<none>").toHex();
+        }
+        final List<Path> files;
+        try (final Stream<Path> paths = Files.walk(directory)) {
+            files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        for (final Path file : files) {
+            fingerprint.update(directory.relativize(file).toString().replace('\\', '/')).update(hash(file));
+        }
+        saveIndex();
+        return fingerprint.toHex();
+    }
+
+    /**
+     * Adds the given file to the store, unless a file with the same contents is already present.
+     *
+     * @return the path of the file in the store
+     */
+    public synchronized Path add(final Path file) throws IOException {
+        final String hash = hash(file);
+        final Path object = objects.resolve(hash.substring(0, 2)).resolve(hash);
+        if (!Files.exists(object)) {
+            Files.createDirectories(object.getParent());
+            // Copy to a temporary file first, so that other JVMs never see a partial object
+            final Path temp = Files.createTempFile(object.getParent(), hash, ".tmp");
+            try {
+                Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                Files.move(temp, object, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        return object;
+    }
+
+    /**
+     * Removes the objects that are no longer linked from any overlay directory, and
+     * the cached hashes that refer to them.
+     *
+     * An object is unreferenced when the store holds its only link. This cannot be
+     * told when the file system doesn't report link counts, or when the overlay files
+     * were copied instead of linked, in which case nothing is removed.
+     *
+     * @param minAgeMs how long the links of an object must have been unchanged for it to be removed
+     * @return the number of objects that were removed
+     */
+    public synchronized int prune(final long minAgeMs) throws IOException {
+        if (!linkingSupported) {
+            return 0;
+        }
+        final List<Path> files;
+        try (final Stream<Path> paths = Files.walk(objects)) {
+            files = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        final long cutoff = System.currentTimeMillis() - minAgeMs;
+        final Set<String> removed = new HashSet<>();
+        for (final Path file : files) {
+            final int links;
+            final FileTime changed;
+            try {
+                links = (Integer)Files.getAttribute(file, "unix:nlink");
+                // The status change time is updated whenever a link is added or removed
+                changed = (FileTime)Files.getAttribute(file, "unix:ctime");
+            } catch (final UnsupportedOperationException | IllegalArgumentException e) {
+                LOG.debug("Link counts are not available, not pruning the overlay store: {}", e.getMessage());
+                return 0;
+            }
+            if (links == 1 && changed.toMillis() < cutoff) {
+                Files.deleteIfExists(file);
+                removed.add(file.getFileName().toString());
+            }
+        }
+        if (!removed.isEmpty()) {
+            index.values().removeIf(value -> removed.contains(value.substring(value.lastIndexOf(':') + 1)));
+            saveIndex();
+            LOG.info("Pruned {} unreferenced object(s) from the overlay store.", removed.size());
+        }
+        return removed.size();
+    }
+
+    /**
+     * Returns the hash of the file's contents, reusing the cached value if the
+     * file's size and modification time have not changed. The executable bit is part
+     * of the hash, since it is shared by all of the links to an object.
+     *
+     * Files are identified by their file key (i.e. device and inode) when available,
+     * so that files staged through a hard link in a new temporary directory on every
+     * run are still recognized.
+     */
+    private String hash(final Path file) throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        final String key = attrs.fileKey() != null ? attrs.fileKey().toString() : file.toAbsolutePath().toString();
+        final String stamp = attrs.size() + ":" + attrs.lastModifiedTime().toMillis() + ":";
+        final String cached = index.get(key);
+        if (cached != null && cached.startsWith(stamp)) {
+            return cached.substring(stamp.length());
+        }
+        final String hash = Fingerprint.of(file) + (Files.isExecutable(file) ? "x" : "");
+        index.put(key, stamp + hash);
+        return hash;
+    }
+
+    private void link(final Path object, final Path to) throws IOException {
+        if (linkingSupported) {
+            try {
+                Files.createLink(to, object);
+                return;
+            } catch (final FileSystemException | UnsupportedOperationException e) {
+                LOG.info("Unable to link {} to {}, copying overlay files instead: {}", object, to, e.getMessage());
+                linkingSupported = false;
+            }
+        }
+        Files.copy(object, to, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    private void saveIndex() throws IOException {
+        final Properties props = new Properties();
+        props.putAll(index);
+        final Path temp = Files.createTempFile(indexFile.getParent(), "index", ".tmp");
+        try {
+            try (final OutputStream os = Files.newOutputStream(temp)) {
+                props.store(os, "Overlay file hashes by file key: size:mtime:sha256");
+            }
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Generates synthetic requisitions for scale tests.
+ *
+ * The nodes are split into batches of a fixed size, and each batch is its own
+ * requisition (foreign source), so that the batches can be uploaded and imported
+ * independently. The nodes are assigned to the targets in a round-robin fashion,
+ * so pointing the targets at real agents, i.e. the SNMPD and TOMCAT containers,
+ * makes the resulting collection load real.
+ *
+ * The XML for a batch is only generated when it is requested.
+ */
+public class RequisitionGenerator {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * An interface the generated nodes point at.
+     */
+    public static class Target {
+        private final String ipAddress;
+        private final boolean snmpPrimary;
+        private final List<String> services;
+
+        public Target(final String ipAddress, final boolean snmpPrimary, final String... services) {
+            this.ipAddress = Objects.requireNonNull(ipAddress);
+            this.snmpPrimary = snmpPrimary;
+            this.services = Collections.unmodifiableList(Arrays.asList(services));
+        }
+
+        public String getIpAddress() {
+            return ipAddress;
+        }
+
+        public boolean isSnmpPrimary() {
+            return snmpPrimary;
+        }
+
+        public List<String> getServices() {
+            return services;
+        }
+    }
+
+    private final String prefix;
+    private final int nodeCount;
+    private final List<Target> targets = new ArrayList<>();
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * @param prefix the prefix of the foreign sources and node labels
+     * @param nodeCount the total number of nodes to generate
+     */
+    public RequisitionGenerator(final String prefix, final int nodeCount) {
+        if (nodeCount < 1) {
+            throw new IllegalArgumentException("At least one node is required: " + nodeCount);
+        }
+        this.prefix = Objects.requireNonNull(prefix);
+        this.nodeCount = nodeCount;
+    }
+
+    public RequisitionGenerator withTarget(final Target target) {
+        targets.add(target);
+        return this;
+    }
+
+    /**
+     * Points nodes at an SNMP agent.
+     */
+    public RequisitionGenerator withSnmpTarget(final String ipAddress) {
+        return withTarget(new Target(ipAddress, true, "ICMP", "SNMP"));
+    }
+
+    /**
+     * Points nodes at an HTTP server listening on port 8080.
+     */
+    public RequisitionGenerator withHttpTarget(final String ipAddress) {
+        return withTarget(new Target(ipAddress, false, "ICMP", "HTTP-8080"));
+    }
+
+    public RequisitionGenerator batchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("The batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getBatchCount() {
+        return (nodeCount + batchSize - 1) / batchSize;
+    }
+
+    public String getForeignSource(final int batch) {
+        return String.format("%s-%d", prefix, batch);
+    }
+
+    public int getNodeCount(final int batch) {
+        checkBatch(batch);
+        return Math.min(batchSize, nodeCount - batch * batchSize);
+    }
+
+    /**
+     * @return the requisition XML for the given batch
+     */
+    public String toXml(final int batch) {
+        checkBatch(batch);
+        if (targets.isEmpty()) {
+            throw new IllegalStateException("No targets were added.");
+        }
+
+        final String foreignSource = escape(getForeignSource(batch));
+        final int first = batch * batchSize;
+        final int last = first + getNodeCount(batch);
+        // Roughly the size of a node with a single interface and two services
+        final StringBuilder xml = new StringBuilder(256 * (last - first) + 256);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        xml.append("<model-import xmlns=\"http://xmlns.opennms.org/xsd/config/model-import\" foreign-source=\"")
+            .append(foreignSource).append("\">\n");
+        for (int i = first; i < last; i++) {
+            final Target target = targets.get(i % targets.size());
+            final String label = escape(String.format("%s-node-%d", prefix, i));
+            xml.append("  <node foreign-id=\"").append(i).append("\" node-label=\"").append(label).append("\">\n");
+            xml.append("    <interface ip-addr=\"").append(escape(target.getIpAddress()))
+                .append("\" status=\"1\" snmp-primary=\"").append(target.isSnmpPrimary() ? "P" : "N").append("\">\n");
+            for (final String service : target.getServices()) {
+                xml.append("      <monitored-service service-name=\"").append(escape(service)).append("\"/>\n");
+            }
+            xml.append("    </interface>\n");
+            xml.append("  </node>\n");
+        }
+        xml.append("</model-import>\n");
+        return xml.toString();
+    }
+
+    /**
+     * @return a foreign source definition for the given batch without any detectors or
+     *         policies, so that the nodes are provisioned with the services listed above
+     */
+    public String toForeignSourceXml(final int batch) {
+        checkBatch(batch);
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<foreign-source xmlns=\"http://xmlns.opennms.org/xsd/config/foreign-source\" name=\"" + escape(getForeignSource(batch)) + "\">\n"
+                + "  <scan-interval>1d</scan-interval>\n"
+                + "  <detectors/>\n"
+                + "  <policies/>\n"
+                + "</foreign-source>\n";
+    }
+
+    private void checkBatch(final int batch) {
+        if (batch < 0 || batch >= getBatchCount()) {
+            throw new IndexOutOfBoundsException("No such batch: " + batch);
+        }
+    }
+
+    private static String escape(final String value) {
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '&': sb.append("&amp;"); break;
+            case '<': sb.append("&lt;"); break;
+            case '>': sb.append("&gt;"); break;
+            case '"': sb.append("&quot;"); break;
+            case '\'': sb.append("&apos;"); break;
+            default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -28,14 +28,46 @@
 package org.opennms.test.system.api.utils;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.client.Invocation;
-import javax.ws.rs.client.WebTarget;
-
-import org.apache.cxf.common.util.Base64Utility;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -43,8 +75,10 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 /**
  * A ReST API client for OpenNMS.
  *
- * Uses CXF to perform automatic marshaling/unmarshaling of request and
- * response objects.
+ * All of the clients for a given address share a single HTTP client, along
+ * with its pool of keep-alive connections, so creating a client is cheap and
+ * polling does not leak connections. Responses are mapped with a shared
+ * {@link ObjectMapper}.
  *
  * @author jwhite
  */
@@ -53,39 +87,344 @@ public class RestClient {
     private static final String DEFAULT_USERNAME = "admin";
 
     private static final String DEFAULT_PASSWORD = "admin";
-    
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+
+    private static final int CONNECT_TIMEOUT_MS = 5*1000;
+
+    private static final int SOCKET_TIMEOUT_MS = 60*1000;
+
+    /**
+     * Used when the server does not tell us how long it keeps the connections open.
+     */
+    private static final long DEFAULT_KEEP_ALIVE_MS = 30*1000;
+
+    private static final Logger LOG = LoggerFactory.getLogger(RestClient.class);
+
+    private static final long PROVISIONING_POLL_MS = 1000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final Map<InetSocketAddress, SharedClient> CLIENTS = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger(0);
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(r -> {
+        final Thread thread = new Thread(r, "rest-client-" + THREAD_COUNTER.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The HTTP client and connection pool shared by all of the clients for an address.
+     */
+    private static class SharedClient {
+        private final PoolingHttpClientConnectionManager connectionManager;
+        private final CloseableHttpClient httpClient;
+
+        private SharedClient() {
+            connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setDefaultMaxPerRoute(DEFAULT_MAX_CONNECTIONS);
+            connectionManager.setMaxTotal(DEFAULT_MAX_CONNECTIONS);
+            httpClient = HttpClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setKeepAliveStrategy((response, context) -> {
+                        final long keepAliveMs = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                        return keepAliveMs > 0 ? keepAliveMs : DEFAULT_KEEP_ALIVE_MS;
+                    })
+                    .evictExpiredConnections()
+                    .evictIdleConnections(DEFAULT_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS)
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setConnectTimeout(CONNECT_TIMEOUT_MS)
+                            .setConnectionRequestTimeout(SOCKET_TIMEOUT_MS)
+                            .setSocketTimeout(SOCKET_TIMEOUT_MS)
+                            .build())
+                    .build();
+        }
+
+        private synchronized void ensureCapacity(final int maxConnections) {
+            if (maxConnections > connectionManager.getDefaultMaxPerRoute()) {
+                connectionManager.setDefaultMaxPerRoute(maxConnections);
+                connectionManager.setMaxTotal(maxConnections);
+            }
+        }
+
+        private void close() {
+            try {
+                httpClient.close();
+            } catch (final IOException e) {
+                // pass
+            }
+        }
+    }
+
+    /**
+     * The outcome of {@link RestClient#provision(RequisitionGenerator, int, long, TimeUnit)}.
+     */
+    public static class ProvisioningResult {
+        private final int nodeCount;
+        private final long uploadMs;
+        private final long durationMs;
+
+        private ProvisioningResult(final int nodeCount, final long uploadMs, final long durationMs) {
+            this.nodeCount = nodeCount;
+            this.uploadMs = uploadMs;
+            this.durationMs = durationMs;
+        }
+
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        /**
+         * @return the time it took to upload the requisitions and trigger the imports
+         */
+        public long getUploadMs() {
+            return uploadMs;
+        }
+
+        /**
+         * @return the time it took until all of the nodes were provisioned
+         */
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public double getNodesPerSecond() {
+            return nodeCount * 1000d / Math.max(1, durationMs);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Provisioned %d nodes in %dms (uploaded in %dms, %.1f nodes/s)", nodeCount, durationMs, uploadMs, getNodesPerSecond());
+        }
+    }
+
     private final InetSocketAddress addr;
 
+    private final String baseUrl;
+
     private final String authorizationHeader;
 
+    private final SharedClient sharedClient;
+
     public RestClient(InetSocketAddress addr) {
         this(addr, DEFAULT_USERNAME, DEFAULT_PASSWORD);
     }
 
     public RestClient(InetSocketAddress addr, String username, String password) {
+        this(addr, username, password, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param maxConnections the number of connections to keep open to the address, which
+     *        limits the number of concurrent requests. The pool is shared with the other
+     *        clients for the same address, and only ever grows.
+     */
+    public RestClient(InetSocketAddress addr, String username, String password, int maxConnections) {
         this.addr = addr;
-        authorizationHeader = "Basic " + Base64Utility.encode((username + ":" + password).getBytes());
+        baseUrl = String.format("http://%s:%d/opennms/rest/", addr.getHostString(), addr.getPort());
+        authorizationHeader = "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+        sharedClient = CLIENTS.computeIfAbsent(addr, a -> new SharedClient());
+        sharedClient.ensureCapacity(maxConnections);
     }
 
-    public String getDisplayVersion() {
-        final WebTarget target = getTarget().path("info");
-        final String json = getBuilder(target).get(String.class);
+    public InetSocketAddress getAddress() {
+        return addr;
+    }
 
-        final ObjectMapper mapper = new ObjectMapper();
+    public String getDisplayVersion() {
         try {
-            JsonNode actualObj = mapper.readTree(json);
-            return actualObj.get("displayVersion").asText();
+            return get("info", JsonNode.class).get("displayVersion").asText();
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public CompletableFuture<String> getDisplayVersionAsync() {
+        return async(this::getDisplayVersion);
+    }
+
+    /**
+     * Retrieves the given resource, relative to /opennms/rest/.
+     *
+     * @param type the type the JSON response is mapped to, or {@link String} for the raw response
+     * @throws HttpResponseException if the server did not respond with a 2xx status
+     */
+    public <T> T get(final String path, final Class<T> type) throws IOException {
+        final HttpGet request = new HttpGet(baseUrl + path);
+        if (type != String.class) {
+            request.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+        }
+        return execute(request, response -> {
+            final String body = getBody(response);
+            return type == String.class ? type.cast(body) : MAPPER.readValue(body, type);
+        });
+    }
+
+    public <T> CompletableFuture<T> getAsync(final String path, final Class<T> type) {
+        return async(() -> get(path, type));
+    }
+
+    /**
+     * @param body the request body, or null if there is none
+     * @return the status code
+     * @throws HttpResponseException if the server did not respond with a 2xx status
+     */
+    public int post(final String path, final String body, final ContentType contentType) throws IOException {
+        return send(new HttpPost(baseUrl + path), body, contentType);
+    }
+
+    public CompletableFuture<Integer> postAsync(final String path, final String body, final ContentType contentType) {
+        return async(() -> post(path, body, contentType));
+    }
+
+    /**
+     * @param body the request body, or null if there is none
+     * @return the status code
+     * @throws HttpResponseException if the server did not respond with a 2xx status
+     */
+    public int put(final String path, final String body, final ContentType contentType) throws IOException {
+        return send(new HttpPut(baseUrl + path), body, contentType);
+    }
+
+    public CompletableFuture<Integer> putAsync(final String path, final String body, final ContentType contentType) {
+        return async(() -> put(path, body, contentType));
+    }
+
+    /**
+     * Uploads the requisitions from the given generator, imports them, and waits until
+     * all of the nodes were provisioned.
+     *
+     * Each batch is imported as soon as it was uploaded, so that OpenNMS starts
+     * provisioning while the remaining batches are still being uploaded.
+     *
+     * @param concurrency the maximum number of batches being uploaded at once
+     * @throws TimeoutException if the nodes were not all provisioned in time
+     */
+    public ProvisioningResult provision(final RequisitionGenerator generator, final int concurrency, final long timeout, final TimeUnit unit) throws IOException, InterruptedException, TimeoutException {
+        sharedClient.ensureCapacity(concurrency);
+        final long start = System.currentTimeMillis();
+        final long deadline = start + unit.toMillis(timeout);
+
+        LOG.info("Uploading {} nodes in {} requisition(s) to {}", generator.getNodeCount(), generator.getBatchCount(), addr);
+        final Semaphore permits = new Semaphore(concurrency);
+        final List<CompletableFuture<Void>> uploads = new ArrayList<>(generator.getBatchCount());
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        for (int i = 0; i < generator.getBatchCount(); i++) {
+            final int batch = i;
+            permits.acquire();
+            // Stop at the first failed upload, which is set before its permit is released
+            if (failed.get()) {
+                break;
+            }
+            uploads.add(async(() -> {
+                final String foreignSource = generator.getForeignSource(batch);
+                post("foreignSources", generator.toForeignSourceXml(batch), ContentType.APPLICATION_XML);
+                post("requisitions", generator.toXml(batch), ContentType.APPLICATION_XML);
+                put("requisitions/" + foreignSource + "/import?rescanExisting=false", null, null);
+                return (Void)null;
+            }).whenComplete((v, e) -> {
+                if (e != null) {
+                    failed.set(true);
+                }
+                permits.release();
+            }));
         }
+        try {
+            CompletableFuture.allOf(uploads.toArray(new CompletableFuture<?>[0])).join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw e;
+        }
+        final long uploadMs = System.currentTimeMillis() - start;
+
+        int provisioned = 0;
+        while (true) {
+            provisioned = getNodeCount(generator.getPrefix());
+            final long elapsedMs = System.currentTimeMillis() - start;
+            LOG.info("Provisioned {}/{} nodes after {}ms ({} nodes/s)", provisioned, generator.getNodeCount(),
+                    elapsedMs, String.format("%.1f", provisioned * 1000d / Math.max(1, elapsedMs)));
+            if (provisioned >= generator.getNodeCount()) {
+                break;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                throw new TimeoutException(String.format("Only %d of %d nodes were provisioned within %dms.",
+                        provisioned, generator.getNodeCount(), unit.toMillis(timeout)));
+            }
+            Thread.sleep(PROVISIONING_POLL_MS);
+        }
+
+        final ProvisioningResult result = new ProvisioningResult(provisioned, uploadMs, System.currentTimeMillis() - start);
+        LOG.info("{}", result);
+        return result;
+    }
+
+    /**
+     * @return the number of nodes in the foreign sources generated with the given prefix
+     */
+    public int getNodeCount(final String prefix) throws IOException {
+        final String foreignSources = URLEncoder.encode(prefix + "-%", StandardCharsets.UTF_8.name());
+        return get("nodes?limit=1&comparator=like&foreignSource=" + foreignSources, JsonNode.class).get("totalCount").asInt();
+    }
+
+    /**
+     * Serializes the given object as JSON.
+     */
+    public static String toJson(final Object value) throws IOException {
+        return MAPPER.writeValueAsString(value);
+    }
+
+    /**
+     * Closes the shared HTTP clients, along with their connections.
+     */
+    public static void closeAll() {
+        CLIENTS.values().removeIf(client -> {
+            client.close();
+            return true;
+        });
+    }
+
+    private int send(final HttpEntityEnclosingRequestBase request, final String body, final ContentType contentType) throws IOException {
+        if (body != null) {
+            request.setEntity(new StringEntity(body, contentType));
+        }
+        return execute(request, response -> {
+            getBody(response);
+            return response.getStatusLine().getStatusCode();
+        });
+    }
+
+    private <T> T execute(final HttpRequestBase request, final ResponseHandler<T> handler) throws IOException {
+        request.setHeader(HttpHeaders.AUTHORIZATION, authorizationHeader);
+        // The handler consumes the entity, which releases the connection back to the pool
+        return sharedClient.httpClient.execute(request, handler);
     }
- 
-    private WebTarget getTarget() {
-        final Client client = ClientBuilder.newClient();
-        return client.target(String.format("http://%s:%d/opennms/rest", addr.getHostString(), addr.getPort()));
+
+    private static String getBody(final HttpResponse response) throws IOException {
+        final HttpEntity entity = response.getEntity();
+        final String body = entity != null ? EntityUtils.toString(entity, StandardCharsets.UTF_8) : null;
+        final StatusLine status = response.getStatusLine();
+        if (status.getStatusCode() < 200 || status.getStatusCode() >= 300) {
+            throw new HttpResponseException(status.getStatusCode(), status.getReasonPhrase() + (body != null ? ": " + body : ""));
+        }
+        return body;
+    }
+
+    @FunctionalInterface
+    private static interface Call<T> {
+        T call() throws IOException;
     }
 
-    private Invocation.Builder getBuilder(final WebTarget target) {
-        return target.request().header("Authorization", authorizationHeader);
+    private static <T> CompletableFuture<T> async(final Call<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (final IOException e) {
+                throw new CompletionException(e);
+            }
+        }, EXECUTOR);
     }
 }
@@ -28,25 +28,35 @@
 package org.opennms.test.system.api.utils;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.net.InetSocketAddress;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
 
 import org.opennms.test.system.api.jsch.SLF4JLogger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.ChannelExec;
 import com.jcraft.jsch.ChannelShell;
 import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
+import com.jcraft.jsch.JSchException;
 
 /**
  * A simple SSH client wrapper used to run shell commands.
  *
+ * Sessions are borrowed from the {@link SshSessionPool}, so closing the
+ * client only closes the channel, and keeps the session open for reuse.
+ *
  * @author jwhite
  */
 public class SshClient implements AutoCloseable {
@@ -60,14 +70,99 @@ public class SshClient implements AutoCloseable {
 
     public static final int DEFAULT_TIMEOUT_MS = 5*1000;
 
-    private final JSch jsch = new JSch();
-    private Session session;
-    private Channel channel;
-    private InputStream stdout;
-    private InputStream stderr;
+    public static final long DEFAULT_EXEC_TIMEOUT_MS = 2*60*1000;
+
+    /**
+     * The outcome of a command run with {@link SshClient#exec(String)}.
+     */
+    public static class CommandResult {
+        private final String command;
+        private final String stdout;
+        private final String stderr;
+        private final int exitStatus;
+        private final long durationMs;
+
+        public CommandResult(final String command, final String stdout, final String stderr, final int exitStatus, final long durationMs) {
+            this.command = command;
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.exitStatus = exitStatus;
+            this.durationMs = durationMs;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        /**
+         * @return the output of the command, or null if it was streamed
+         */
+        public String getStdout() {
+            return stdout;
+        }
+
+        /**
+         * @return the error output of the command, or null if it was streamed
+         */
+        public String getStderr() {
+            return stderr;
+        }
+
+        /**
+         * @return the exit status of the command, or -1 if the server did not report one
+         */
+        public int getExitStatus() {
+            return exitStatus;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public boolean isSuccess() {
+            return exitStatus == 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("CommandResult[command=%s, exitStatus=%d, durationMs=%d]", command, exitStatus, durationMs);
+        }
+    }
+
+    /**
+     * Passes the output through to the given stream, and signals the given latch once
+     * JSch closes it. The given stream itself is left open.
+     */
+    private static class CloseSignalingOutputStream extends FilterOutputStream {
+        private final CountDownLatch latch;
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private CloseSignalingOutputStream(final OutputStream out, final CountDownLatch latch) {
+            super(out);
+            this.latch = latch;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+        }
 
-    private final StringBuffer stdoutBuff = new StringBuffer();
-    private final StringBuffer stderrBuff = new StringBuffer();
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) {
+                try {
+                    out.flush();
+                } finally {
+                    latch.countDown();
+                }
+            }
+        }
+    }
+
+    private SshSessionPool.Lease lease;
+    private Channel channel;
+    private OutputBuffer stdout;
+    private OutputBuffer stderr;
 
     private final InetSocketAddress addr;
     private final String username;
@@ -85,36 +180,155 @@ public class SshClient implements AutoCloseable {
         // We only support one shell at a time
         close();
 
-        session = jsch.getSession(username, addr.getHostString(), addr.getPort());
-        session.setPassword(password.getBytes());
-        java.util.Properties config = new java.util.Properties();
-        config.put("StrictHostKeyChecking", "no");
-        session.setConfig(config);
-        session.connect();
-
-        channel = session.openChannel("shell");
-        ((ChannelShell)channel).setPtySize(500, 100, 1920, 1080);
-        stdout = channel.getInputStream();
-        stderr = channel.getExtInputStream();
-        channel.connect(timeout);
+        lease = acquireSession();
+        try {
+            connectShell();
+        } catch (final JSchException e) {
+            // The session went down since it was last checked, try again with a new one
+            LOG.debug("Failed to open a shell on a pooled session. Reconnecting.", e);
+            if (channel != null) {
+                channel.disconnect();
+            }
+            lease.invalidate();
+            lease.close();
+            lease = acquireSession();
+            connectShell();
+        }
 
         OutputStream ops = channel.getOutputStream();
         PrintStream ps = new PrintStream(ops, true);
         return ps;
     }
 
+    /**
+     * Runs a single command on an exec channel and waits for it to complete.
+     */
+    public CommandResult exec(final String command) throws Exception {
+        return exec(command, DEFAULT_EXEC_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a single command on an exec channel and waits for it to complete.
+     *
+     * @throws TimeoutException if the command did not complete in time
+     */
+    public CommandResult exec(final String command, final long timeout, final TimeUnit unit) throws Exception {
+        final ByteArrayOutputStream stdoutBytes = new ByteArrayOutputStream();
+        final ByteArrayOutputStream stderrBytes = new ByteArrayOutputStream();
+        final CommandResult result = exec(command, stdoutBytes, stderrBytes, timeout, unit);
+        return new CommandResult(command, stdoutBytes.toString("UTF-8"), stderrBytes.toString("UTF-8"), result.getExitStatus(), result.getDurationMs());
+    }
+
+    /**
+     * Runs a single command on an exec channel, streaming its output to the given
+     * streams as it arrives, and waits for it to complete. The streams are not closed.
+     *
+     * The channel is independent of the shell, so commands can be run concurrently
+     * from multiple threads.
+     *
+     * @throws TimeoutException if the command did not complete in time
+     */
+    public CommandResult exec(final String command, final OutputStream stdout, final OutputStream stderr, final long timeout, final TimeUnit unit) throws Exception {
+        final long start = System.currentTimeMillis();
+        // JSch closes the error stream once the channel is closed, which happens after the exit status was received
+        final CountDownLatch closed = new CountDownLatch(2);
+
+        SshSessionPool.Lease execLease = acquireSession();
+        ChannelExec execChannel = null;
+        try {
+            try {
+                execChannel = connectExec(execLease, command, stdout, stderr, closed);
+            } catch (final JSchException e) {
+                LOG.debug("Failed to open an exec channel on a pooled session. Reconnecting.", e);
+                execLease.invalidate();
+                execLease.close();
+                execLease = acquireSession();
+                execChannel = connectExec(execLease, command, stdout, stderr, closed);
+            }
+
+            if (!closed.await(timeout, unit)) {
+                throw new TimeoutException("Command '" + command + "' did not complete within " + unit.toMillis(timeout) + "ms.");
+            }
+            final CommandResult result = new CommandResult(command, null, null, execChannel.getExitStatus(), System.currentTimeMillis() - start);
+            LOG.debug("Ran '{}' on {}: {}", command, addr, result);
+            return result;
+        } finally {
+            if (execChannel != null) {
+                execChannel.disconnect();
+            }
+            execLease.close();
+        }
+    }
+
+    private ChannelExec connectExec(final SshSessionPool.Lease execLease, final String command, final OutputStream stdout, final OutputStream stderr, final CountDownLatch closed) throws JSchException {
+        final ChannelExec execChannel = (ChannelExec)execLease.getSession().openChannel("exec");
+        execChannel.setCommand(command);
+        execChannel.setInputStream(null);
+        execChannel.setOutputStream(new CloseSignalingOutputStream(stdout, closed), false);
+        execChannel.setExtOutputStream(new CloseSignalingOutputStream(stderr, closed), false);
+        try {
+            execChannel.connect(timeout);
+        } catch (final JSchException e) {
+            execChannel.disconnect();
+            throw e;
+        }
+        return execChannel;
+    }
+
+    private SshSessionPool.Lease acquireSession() throws JSchException {
+        // The key exchange and authentication take longer than opening a channel
+        return SshSessionPool.getDefault().acquire(addr, username, password, Math.max(timeout, DEFAULT_TIMEOUT_MS));
+    }
+
+    private void connectShell() throws JSchException, IOException {
+        channel = lease.getSession().openChannel("shell");
+        ((ChannelShell)channel).setPtySize(500, 100, 1920, 1080);
+        // JSch pushes the output into the buffers from its session thread, and closes them with the channel
+        stdout = new OutputBuffer();
+        stderr = new OutputBuffer();
+        channel.setOutputStream(stdout);
+        channel.setExtOutputStream(stderr);
+        channel.connect(timeout);
+    }
+
+    /**
+     * @return the output received since the last call
+     */
     public String getStdout() throws IOException {
-        // Prepend the contents of the buffer, which may be have populated by isShellClosed()
-        final String stdoutContents = stdoutBuff.toString() + readAvailableBytes(stdout);
-        stdoutBuff.setLength(0);
-        return stdoutContents;
+        return stdout == null ? null : stdout.drain();
     }
 
+    /**
+     * @return the error output received since the last call
+     */
     public String getStderr() throws IOException {
-        // Prepend the contents of the buffer, which may be have populated by isShellClosed()
-        final String stderrContents = stderrBuff.toString() + readAvailableBytes(stderr);
-        stderrBuff.setLength(0);
-        return stderrContents;
+        return stderr == null ? null : stderr.drain();
+    }
+
+    /**
+     * Blocks until the given pattern appears in the output of the shell. The
+     * output is left in the buffer.
+     *
+     * @return the matching text
+     * @throws EOFException if the shell was closed without the pattern appearing
+     * @throws TimeoutException if the pattern did not appear in time
+     */
+    public String awaitStdout(final Pattern pattern, final long timeout, final TimeUnit unit) throws InterruptedException, TimeoutException, EOFException {
+        if (stdout == null) {
+            throw new IllegalStateException("No shell is open.");
+        }
+        return stdout.awaitPattern(pattern, timeout, unit);
+    }
+
+    /**
+     * Blocks until the shell's channel is closed, i.e. after an exit/logout
+     * command was issued in the shell.
+     *
+     * @return true if the channel was closed, false if the time elapsed
+     */
+    public boolean awaitShellClosed(final long timeout, final TimeUnit unit) throws InterruptedException {
+        // The error stream is only closed along with the channel, unlike the output stream which is closed on EOF
+        return stderr == null || stderr.awaitClosed(timeout, unit);
     }
 
     public void setTimeout(int timeoutInMs) {
@@ -127,9 +341,9 @@ public class SshClient implements AutoCloseable {
             channel.disconnect();
             channel = null;
         }
-        if (session != null) {
-            session.disconnect();
-            session = null;
+        if (lease != null) {
+            lease.close();
+            lease = null;
         }
     }
 
@@ -141,48 +355,7 @@ public class SshClient implements AutoCloseable {
      * in the shell.
      */
     public boolean isShellClosed() {
-        if (channel == null) {
-            return true;
-        }
-
-        // In certain cases the shell won't close unless we read the available
-        // bytes from the stdout and stderr streams.
-        try {
-            stdoutBuff.append(getStdout());
-        } catch (IOException e) {
-            // pass
-        }
-
-        try {
-            stderrBuff.append(getStderr());
-        } catch (IOException e) {
-            // pass
-        }
-
-        return channel.isClosed();
-    }
-
-    /**
-     * Read all of the available bytes on the given stream and converts them
-     * to a string.
-     *
-     * Note that this may cause problems if a multi-byte character is not
-     * completely read.
-     */
-    private static String readAvailableBytes(InputStream is) throws IOException {
-        if (is == null) {
-            return null;
-        }
-
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        final int BUF_LEN = 1024;
-        final byte[] buffer = new byte[BUF_LEN];
-        int avail = 0;
-        while ((avail = is.available()) > 0) {
-            int length = is.read(buffer, 0, Math.min(BUF_LEN, avail));
-            baos.write(buffer, 0, length);
-        }
-        return baos.toString("UTF-8");
+        return channel == null || channel.isClosed();
     }
 
     public Callable<Boolean> isShellClosedCallable() {
@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.utils;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+/**
+ * Keeps authenticated SSH sessions open, so that only the first command sent
+ * to a given shell pays for the key exchange and the authentication.
+ *
+ * There is a single session per address and credentials, on which any number of
+ * channels can be opened concurrently. Sessions are checked before they are
+ * handed out, reconnected when they went down, and disconnected once they have
+ * been idle for a while.
+ */
+public class SshSessionPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SshSessionPool.class);
+
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Idle sessions are probed with a keep alive before being handed out again
+     */
+    private static final long HEALTH_CHECK_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private static final int SERVER_ALIVE_INTERVAL_MS = 15 * 1000;
+
+    private static final SshSessionPool DEFAULT = new SshSessionPool(DEFAULT_IDLE_TIMEOUT_MS);
+
+    private final JSch jsch = new JSch();
+
+    private final Map<String, PooledSession> sessions = new ConcurrentHashMap<>();
+
+    private final long idleTimeoutMs;
+
+    private final ScheduledExecutorService evictor;
+
+    private static class PooledSession {
+        private final String name;
+        private final AtomicInteger users = new AtomicInteger(0);
+        private volatile Session session;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private PooledSession(final String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A session borrowed from the pool. Closing the lease returns the session to the pool.
+     */
+    public class Lease implements AutoCloseable {
+        private final PooledSession pooled;
+        private final Session session;
+        private boolean closed = false;
+
+        private Lease(final PooledSession pooled, final Session session) {
+            this.pooled = pooled;
+            this.session = session;
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        /**
+         * Disconnects the session, so that the next lease gets a new one.
+         * Used when the session turned out to be broken.
+         */
+        public void invalidate() {
+            synchronized (pooled) {
+                if (pooled.session == session) {
+                    pooled.session = null;
+                }
+            }
+            session.disconnect();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                pooled.lastUsed = System.currentTimeMillis();
+                pooled.users.decrementAndGet();
+            }
+        }
+    }
+
+    public SshSessionPool(final long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "ssh-session-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long period = Math.max(1000, idleTimeoutMs / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdleSessions, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the pool shared by all of the SSH clients.
+     */
+    public static SshSessionPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Borrows a connected session for the given address and credentials,
+     * connecting a new one if needed.
+     */
+    public Lease acquire(final InetSocketAddress addr, final String username, final String password, final int timeoutMs) throws JSchException {
+        final String name = username + "@" + addr.getHostString() + ":" + addr.getPort();
+        // The password is part of the key, so that a client with the wrong password never gets a session authenticated by another one
+        final String key = name + "#" + new Fingerprint().update(password).toHex();
+        final PooledSession pooled = sessions.computeIfAbsent(key, k -> new PooledSession(name));
+        synchronized (pooled) {
+            Session session = pooled.session;
+            if (session != null && !isHealthy(pooled, session)) {
+                LOG.debug("SSH session to {} is down. Reconnecting.", name);
+                session.disconnect();
+                session = null;
+            }
+            if (session == null) {
+                session = connect(addr, username, password, timeoutMs);
+                pooled.session = session;
+            }
+            pooled.users.incrementAndGet();
+            pooled.lastUsed = System.currentTimeMillis();
+            return new Lease(pooled, session);
+        }
+    }
+
+    /**
+     * Disconnects all of the sessions.
+     */
+    public void clear() {
+        for (final PooledSession pooled : sessions.values()) {
+            synchronized (pooled) {
+                if (pooled.session != null) {
+                    pooled.session.disconnect();
+                    pooled.session = null;
+                }
+            }
+        }
+    }
+
+    private Session connect(final InetSocketAddress addr, final String username, final String password, final int timeoutMs) throws JSchException {
+        final long start = System.currentTimeMillis();
+        final Session session = jsch.getSession(username, addr.getHostString(), addr.getPort());
+        session.setPassword(password.getBytes());
+        final Properties config = new Properties();
+        config.put("StrictHostKeyChecking", "no");
+        session.setConfig(config);
+        session.setServerAliveInterval(SERVER_ALIVE_INTERVAL_MS);
+        session.setServerAliveCountMax(3);
+        session.connect(timeoutMs);
+        LOG.debug("Connected to {}@{}:{} in {}ms.", username, addr.getHostString(), addr.getPort(), System.currentTimeMillis() - start);
+        return session;
+    }
+
+    private static boolean isHealthy(final PooledSession pooled, final Session session) {
+        if (!session.isConnected()) {
+            return false;
+        }
+        if (System.currentTimeMillis() - pooled.lastUsed > HEALTH_CHECK_INTERVAL_MS) {
+            try {
+                session.sendKeepAliveMsg();
+            } catch (final Exception e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void evictIdleSessions() {
+        final long now = System.currentTimeMillis();
+        for (final PooledSession pooled : sessions.values()) {
+            synchronized (pooled) {
+                if (pooled.session != null && pooled.users.get() == 0
+                        && (now - pooled.lastUsed > idleTimeoutMs || !pooled.session.isConnected())) {
+                    LOG.debug("Evicting idle SSH session to {}.", pooled.name);
+                    pooled.session.disconnect();
+                    pooled.session = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.test.system.api.NewTestEnvironment.ContainerAlias;
+import org.opennms.test.system.api.StartupScheduler.Node;
+import org.opennms.test.system.api.StartupScheduler.Phase;
+
+public class StartupSchedulerTest {
+
+    private final List<String> steps = Collections.synchronizedList(new ArrayList<>());
+
+    private StartupScheduler.Step record(final String step) {
+        return () -> steps.add(step);
+    }
+
+    private Node add(final StartupScheduler scheduler, final ContainerAlias alias) {
+        return scheduler.add(alias, record(alias + " spawned"), record(alias + " ready"));
+    }
+
+    @Test
+    public void groupsContainersByLevel() {
+        final StartupScheduler scheduler = new StartupScheduler();
+        add(scheduler, ContainerAlias.OPENNMS)
+            .dependsOn(ContainerAlias.POSTGRES, Phase.READY)
+            .dependsOn(ContainerAlias.SNMPD, Phase.SPAWNED);
+        add(scheduler, ContainerAlias.MINION).dependsOn(ContainerAlias.OPENNMS, Phase.READY);
+        add(scheduler, ContainerAlias.POSTGRES);
+        add(scheduler, ContainerAlias.SNMPD);
+        add(scheduler, ContainerAlias.TOMCAT);
+        // Not part of the schedule
+        add(scheduler, ContainerAlias.SENTINEL).dependsOn(ContainerAlias.KAFKA, Phase.READY);
+
+        assertEquals(Arrays.asList(
+                Arrays.asList(ContainerAlias.POSTGRES, ContainerAlias.SNMPD, ContainerAlias.TOMCAT, ContainerAlias.SENTINEL),
+                Arrays.asList(ContainerAlias.OPENNMS),
+                Arrays.asList(ContainerAlias.MINION)), scheduler.getPlan());
+        assertEquals(1, scheduler.getNode(ContainerAlias.OPENNMS).getLevel());
+        assertEquals(2, scheduler.getNode(ContainerAlias.MINION).getLevel());
+    }
+
+    @Test
+    public void keepsTheStrongestDependency() {
+        final StartupScheduler scheduler = new StartupScheduler();
+        final Node node = add(scheduler, ContainerAlias.OPENNMS)
+            .dependsOn(ContainerAlias.POSTGRES, Phase.READY)
+            .dependsOn(ContainerAlias.POSTGRES, Phase.SPAWNED);
+        assertEquals(Phase.READY, node.getDependencies().get(ContainerAlias.POSTGRES));
+    }
+
+    @Test
+    public void rejectsCycles() {
+        final StartupScheduler scheduler = new StartupScheduler();
+        add(scheduler, ContainerAlias.POSTGRES);
+        add(scheduler, ContainerAlias.OPENNMS).dependsOn(ContainerAlias.MINION, Phase.SPAWNED);
+        add(scheduler, ContainerAlias.MINION).dependsOn(ContainerAlias.OPENNMS, Phase.READY);
+        try {
+            scheduler.getPlan();
+            fail("The cycle was not detected");
+        } catch (final IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("[OPENNMS, MINION]"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicates() {
+        final StartupScheduler scheduler = new StartupScheduler();
+        add(scheduler, ContainerAlias.POSTGRES);
+        add(scheduler, ContainerAlias.POSTGRES);
+    }
+
+    @Test(timeout = 10000)
+    public void honorsThePhases() throws Exception {
+        final CountDownLatch snmpdReady = new CountDownLatch(1);
+        final StartupScheduler scheduler = new StartupScheduler();
+        add(scheduler, ContainerAlias.POSTGRES);
+        scheduler.add(ContainerAlias.SNMPD, record("SNMPD spawned"), () -> {
+            // Only released once OPENNMS was spawned, which only needs SNMPD to be spawned
+            snmpdReady.await();
+            steps.add("SNMPD ready");
+        });
+        scheduler.add(ContainerAlias.OPENNMS, () -> {
+            steps.add("OPENNMS spawned");
+            snmpdReady.countDown();
+        }, record("OPENNMS ready"))
+            .dependsOn(ContainerAlias.POSTGRES, Phase.READY)
+            .dependsOn(ContainerAlias.SNMPD, Phase.SPAWNED);
+        add(scheduler, ContainerAlias.MINION).dependsOn(ContainerAlias.OPENNMS, Phase.READY);
+
+        scheduler.execute();
+
+        assertTrue(steps.indexOf("POSTGRES ready") < steps.indexOf("OPENNMS spawned"));
+        assertTrue(steps.indexOf("SNMPD spawned") < steps.indexOf("OPENNMS spawned"));
+        assertTrue(steps.indexOf("OPENNMS spawned") < steps.indexOf("SNMPD ready"));
+        assertTrue(steps.indexOf("OPENNMS ready") < steps.indexOf("MINION spawned"));
+        assertEquals(8, steps.size());
+        for (final Node node : scheduler.getNodes()) {
+            assertTrue(node.toString(), node.getReadyAtMs() >= node.getSpawnedAtMs());
+            assertTrue(node.toString(), node.getSpawnedAtMs() >= node.getStartedAtMs());
+        }
+        assertTrue(scheduler.getDurationMs() >= 0);
+    }
+
+    @Test(timeout = 10000)
+    public void findsTheCriticalPath() throws Exception {
+        final StartupScheduler scheduler = new StartupScheduler();
+        scheduler.add(ContainerAlias.POSTGRES, record("POSTGRES spawned"), () -> Thread.sleep(200));
+        add(scheduler, ContainerAlias.SNMPD);
+        // The timings are in milliseconds, so every step takes long enough to tell them apart
+        scheduler.add(ContainerAlias.OPENNMS, record("OPENNMS spawned"), () -> Thread.sleep(50))
+            .dependsOn(ContainerAlias.POSTGRES, Phase.READY)
+            .dependsOn(ContainerAlias.SNMPD, Phase.READY);
+        add(scheduler, ContainerAlias.TOMCAT);
+
+        scheduler.execute();
+
+        assertEquals(Arrays.asList(ContainerAlias.POSTGRES, ContainerAlias.OPENNMS),
+                scheduler.getCriticalPath().stream().map(Node::getAlias).collect(Collectors.toList()));
+    }
+
+    @Test(timeout = 10000)
+    public void stopsAtTheFirstFailure() throws Exception {
+        final IOException failure = new IOException("postgres did not start");
+        final StartupScheduler scheduler = new StartupScheduler();
+        scheduler.add(ContainerAlias.POSTGRES, () -> { throw failure; }, null);
+        add(scheduler, ContainerAlias.OPENNMS).dependsOn(ContainerAlias.POSTGRES, Phase.SPAWNED);
+        scheduler.add(ContainerAlias.SNMPD, record("SNMPD spawned"), () -> TimeUnit.MINUTES.sleep(1));
+        try {
+            scheduler.execute();
+            fail("The failure was not rethrown");
+        } catch (final IOException e) {
+            assertSame(failure, e);
+        }
+        assertTrue(steps.toString(), !steps.contains("OPENNMS spawned"));
+        assertEquals(-1, scheduler.getNode(ContainerAlias.OPENNMS).getStartedAtMs());
+    }
+}
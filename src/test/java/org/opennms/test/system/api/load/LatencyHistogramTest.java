@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void isExactForSmallValues() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 256; value++) {
+            histogram.record(value);
+        }
+        assertEquals(256, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(255, histogram.getMax());
+        assertEquals(127.5, histogram.getMean(), 0.0);
+        for (long value = 0; value < 256; value++) {
+            assertEquals(value, histogram.getValueAtPercentile((value + 1) * 100.0 / 256));
+        }
+    }
+
+    @Test
+    public void staysWithinOnePercent() {
+        final Random random = new Random(42);
+        final long[] values = new long[100000];
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            // Spread over many powers of two
+            values[i] = (long)Math.pow(2, random.nextDouble() * 40);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (final double percentile : new double[] { 1, 10, 50, 90, 99, 99.9, 99.99 }) {
+            final long expected = values[(int)Math.ceil(percentile / 100 * values.length) - 1];
+            final long actual = histogram.getValueAtPercentile(percentile);
+            assertTrue("p" + percentile + " is " + actual + " instead of " + expected, actual >= expected);
+            assertTrue("p" + percentile + " is " + actual + " instead of " + expected, actual - expected <= expected / 100);
+        }
+    }
+
+    @Test
+    public void isCappedAtTheMaximum() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.record(1001);
+        assertEquals(1001, histogram.getValueAtPercentile(100));
+        assertEquals(1001, histogram.getValueAtPercentile(50));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void addsHistograms() {
+        final LatencyHistogram first = new LatencyHistogram();
+        final LatencyHistogram second = new LatencyHistogram();
+        for (long value = 1; value <= 100; value++) {
+            first.record(value);
+            second.record(value * 1000);
+        }
+        first.add(second);
+        assertEquals(200, first.getCount());
+        assertEquals(1, first.getMin());
+        assertEquals(100000, first.getMax());
+        assertEquals(100, first.getValueAtPercentile(50));
+        assertEquals(100, second.getCount());
+
+        first.reset();
+        assertEquals(0, first.getCount());
+        assertEquals(0, first.getMin());
+        assertEquals(0, first.getValueAtPercentile(99));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeValues() {
+        new LatencyHistogram().record(-1);
+    }
+}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+import org.opennms.test.system.api.load.TelemetryGenerator.Protocol;
+
+public class TelemetryGeneratorTest {
+
+    /**
+     * The largest UDP payload that fits in a 1500 byte Ethernet frame.
+     */
+    private static final int MAX_UNFRAGMENTED = 1500 - 20 - 8;
+
+    private static final int FIELD_COUNT = 18;
+
+    private static final int NETFLOW9_RECORD_LENGTH = 45;
+
+    private static final int IPFIX_RECORD_LENGTH = 53;
+
+    private static ByteBuffer encode(final Protocol protocol, final int flowsPerPacket, final long sequence) {
+        final TelemetryGenerator generator = new TelemetryGenerator(new InetSocketAddress("127.0.0.1", protocol.getDefaultPort()),
+                protocol, new FlowPopulation()).withFlowsPerPacket(flowsPerPacket);
+        generator.onStart();
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        generator.encode(sequence, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void encodesNetflow5() {
+        final ByteBuffer packet = encode(Protocol.NETFLOW5, 7, 3);
+        assertEquals(24 + 7 * 48, packet.remaining());
+        assertEquals(5, packet.getShort(0));
+        assertEquals(7, packet.getShort(2));
+        // The flow sequence counts the flows of the previous packets
+        assertEquals(3 * 7, packet.getInt(16));
+    }
+
+    @Test
+    public void encodesNetflow9WithTemplate() {
+        final ByteBuffer packet = encode(Protocol.NETFLOW9, 3, 0);
+        assertEquals(9, packet.getShort());
+        // The template counts as a record
+        assertEquals(4, packet.getShort());
+        packet.position(20);
+
+        assertTemplateSet(packet, 0, 22);
+
+        final int dataStart = packet.position();
+        assertEquals(256, packet.getShort());
+        final int dataLength = packet.getShort();
+        // Padded to a multiple of 4 bytes
+        assertEquals(4 + 3 * NETFLOW9_RECORD_LENGTH + 1, dataLength);
+        assertEquals(dataStart + dataLength, packet.limit());
+    }
+
+    @Test
+    public void encodesNetflow9WithoutTemplate() {
+        final ByteBuffer packet = encode(Protocol.NETFLOW9, 4, 1);
+        assertEquals(4, packet.getShort(2));
+        assertEquals(1, packet.getInt(12));
+        assertEquals(256, packet.getShort(20));
+        assertEquals(4 + 4 * NETFLOW9_RECORD_LENGTH, packet.getShort(22));
+        assertEquals(20 + 4 + 4 * NETFLOW9_RECORD_LENGTH, packet.limit());
+    }
+
+    @Test
+    public void encodesIpfixWithTemplate() {
+        final ByteBuffer packet = encode(Protocol.IPFIX, 3, 0);
+        assertEquals(10, packet.getShort());
+        assertEquals(packet.limit(), packet.getShort());
+        packet.position(16);
+
+        assertTemplateSet(packet, 2, 152);
+
+        final int dataStart = packet.position();
+        assertEquals(256, packet.getShort());
+        // Not padded
+        assertEquals(4 + 3 * IPFIX_RECORD_LENGTH, packet.getShort());
+        assertEquals(dataStart + 4 + 3 * IPFIX_RECORD_LENGTH, packet.limit());
+    }
+
+    @Test
+    public void encodesIpfixWithoutTemplate() {
+        final ByteBuffer packet = encode(Protocol.IPFIX, 2, 1);
+        assertEquals(16 + 4 + 2 * IPFIX_RECORD_LENGTH, packet.limit());
+        assertEquals(packet.limit(), packet.getShort(2));
+        assertEquals(2, packet.getInt(8));
+        assertEquals(256, packet.getShort(16));
+    }
+
+    @Test
+    public void encodesSflow() {
+        final ByteBuffer packet = encode(Protocol.SFLOW, 3, 2);
+        assertEquals(5, packet.getInt());
+        assertEquals(1, packet.getInt());
+        assertEquals(0x0a000001, packet.getInt());
+        assertEquals(0, packet.getInt());
+        assertEquals(2, packet.getInt());
+        packet.getInt(); // uptime
+        assertEquals(3, packet.getInt());
+        for (int i = 0; i < 3; i++) {
+            // Flow sample
+            assertEquals(1, packet.getInt());
+            final int sampleLength = packet.getInt();
+            final int sampleEnd = packet.position() + sampleLength;
+            assertEquals(2 * 3 + i, packet.getInt());
+            packet.position(packet.position() + 24);
+            assertEquals(1, packet.getInt());
+
+            // Raw packet header
+            assertEquals(1, packet.getInt());
+            final int recordLength = packet.getInt();
+            assertEquals(0, recordLength % 4);
+            assertEquals(sampleEnd, packet.position() + recordLength);
+            assertEquals(1, packet.getInt());
+            packet.getInt(); // frame length
+            assertEquals(4, packet.getInt());
+            final int headerLength = packet.getInt();
+            assertTrue(headerLength == 14 + 20 + 20 || headerLength == 14 + 20 + 8);
+            assertEquals(0x0800, packet.getShort(packet.position() + 12));
+            assertEquals(0x45, packet.get(packet.position() + 14));
+            assertTrue(16 + headerLength <= recordLength);
+            packet.position(sampleEnd);
+        }
+        assertFalse(packet.hasRemaining());
+    }
+
+    @Test
+    public void fitsInAFrame() {
+        for (final Protocol protocol : Protocol.values()) {
+            final int size = encode(protocol, protocol.getMaxFlowsPerPacket(), 0).remaining();
+            assertTrue(protocol + " packets take " + size + " bytes", size <= MAX_UNFRAGMENTED);
+        }
+    }
+
+    /**
+     * Checks the template set at the current position, and moves past it.
+     */
+    private static void assertTemplateSet(final ByteBuffer packet, final int setId, final int firstTimestampType) {
+        final int start = packet.position();
+        assertEquals(setId, packet.getShort());
+        assertEquals(4 + 4 + FIELD_COUNT * 4, packet.getShort());
+        assertEquals(256, packet.getShort());
+        assertEquals(FIELD_COUNT, packet.getShort());
+        int recordLength = 0;
+        for (int i = 0; i < FIELD_COUNT; i++) {
+            final int type = packet.getShort();
+            recordLength += packet.getShort();
+            if (i == FIELD_COUNT - 1) {
+                assertEquals(firstTimestampType, type);
+            }
+        }
+        assertEquals(setId == 0 ? NETFLOW9_RECORD_LENGTH : IPFIX_RECORD_LENGTH, recordLength);
+        assertEquals(start + 4 + 4 + FIELD_COUNT * 4, packet.position());
+    }
+}
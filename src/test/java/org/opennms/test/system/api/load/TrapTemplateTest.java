@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.load;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TrapTemplateTest {
+
+    /**
+     * A decoded BER element, with its children if it is constructed.
+     */
+    private static class Tlv {
+        private final int tag;
+        private final byte[] value;
+        private final List<Tlv> children = new ArrayList<>();
+
+        private Tlv(final int tag, final byte[] value) {
+            this.tag = tag;
+            this.value = value;
+        }
+
+        private Tlv child(final int index) {
+            return children.get(index);
+        }
+
+        private long asLong() {
+            long result = value[0] < 0 ? -1 : 0;
+            for (final byte b : value) {
+                result = (result << 8) | (b & 0xff);
+            }
+            return result;
+        }
+
+        private String asOid() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append('.').append(value[0] / 40).append('.').append(value[0] % 40);
+            long arc = 0;
+            for (int i = 1; i < value.length; i++) {
+                arc = (arc << 7) | (value[i] & 0x7f);
+                if ((value[i] & 0x80) == 0) {
+                    sb.append('.').append(arc);
+                    arc = 0;
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private static Tlv decode(final ByteBuffer buffer) {
+        final int tag = buffer.get() & 0xff;
+        int length = buffer.get() & 0xff;
+        if ((length & 0x80) != 0) {
+            final int lengthBytes = length & 0x7f;
+            length = 0;
+            for (int i = 0; i < lengthBytes; i++) {
+                length = (length << 8) | (buffer.get() & 0xff);
+            }
+        }
+        final byte[] value = new byte[length];
+        buffer.get(value);
+        final Tlv tlv = new Tlv(tag, value);
+        // Constructed, i.e. SEQUENCE or a PDU
+        if ((tag & 0x20) != 0) {
+            final ByteBuffer content = ByteBuffer.wrap(value);
+            while (content.hasRemaining()) {
+                tlv.children.add(decode(content));
+            }
+        }
+        return tlv;
+    }
+
+    private static Tlv encode(final TrapTemplate template, final long sequence, final long uptimeTicks) {
+        final TrapTemplate.Encoded encoded = template.encode();
+        final ByteBuffer buffer = ByteBuffer.allocate(encoded.size());
+        encoded.encode(sequence, uptimeTicks, buffer);
+        buffer.flip();
+        final Tlv message = decode(buffer);
+        assertFalse("Trailing bytes after the message", buffer.hasRemaining());
+        return message;
+    }
+
+    @Test
+    public void encodesV2cTrap() {
+        final TrapTemplate template = TrapTemplate.v2c("public", ".1.3.6.1.4.1.5813.1.1")
+                .withVarbind(".1.3.6.1.4.1.5813.20.1.1", "load test")
+                .withSequenceVarbind(".1.3.6.1.4.1.5813.20.1.2")
+                .withMutableVarbind(".1.3.6.1.4.1.5813.20.1.3", TrapTemplate.VarbindType.INTEGER, s -> -s);
+
+        final Tlv message = encode(template, 300000, 4242);
+        assertEquals(0x30, message.tag);
+        assertEquals(3, message.children.size());
+        assertEquals(1, message.child(0).asLong());
+        assertArrayEquals("public".getBytes(StandardCharsets.US_ASCII), message.child(1).value);
+
+        final Tlv pdu = message.child(2);
+        assertEquals(0xa7, pdu.tag);
+        assertEquals(300000, pdu.child(0).asLong());
+        assertEquals(0, pdu.child(1).asLong());
+        assertEquals(0, pdu.child(2).asLong());
+
+        final Tlv varbinds = pdu.child(3);
+        assertEquals(5, varbinds.children.size());
+        assertVarbind(varbinds.child(0), ".1.3.6.1.2.1.1.3.0", 0x43);
+        assertEquals(4242, varbinds.child(0).child(1).asLong());
+        assertVarbind(varbinds.child(1), ".1.3.6.1.6.3.1.1.4.1.0", 0x06);
+        assertEquals(".1.3.6.1.4.1.5813.1.1", varbinds.child(1).child(1).asOid());
+        assertVarbind(varbinds.child(2), ".1.3.6.1.4.1.5813.20.1.1", 0x04);
+        assertArrayEquals("load test".getBytes(StandardCharsets.US_ASCII), varbinds.child(2).child(1).value);
+        assertVarbind(varbinds.child(3), ".1.3.6.1.4.1.5813.20.1.2", 0x41);
+        assertEquals(300000, varbinds.child(3).child(1).asLong());
+        assertVarbind(varbinds.child(4), ".1.3.6.1.4.1.5813.20.1.3", 0x02);
+        assertEquals(-300000, varbinds.child(4).child(1).asLong());
+    }
+
+    @Test
+    public void patchesEveryMessage() {
+        final TrapTemplate.Encoded encoded = TrapTemplate.v2c("public", ".1.3.6.1.4.1.5813.1.1")
+                .withSequenceVarbind(".1.3.6.1.4.1.5813.20.1.2")
+                .encode();
+        final ByteBuffer buffer = ByteBuffer.allocate(encoded.size() * 2);
+        encoded.encode(1, 10, buffer);
+        encoded.encode(0xfffffffeL, 20, buffer);
+        buffer.flip();
+
+        final Tlv first = decode(buffer);
+        final Tlv second = decode(buffer);
+        assertEquals(1, first.child(2).child(0).asLong());
+        assertEquals(1, first.child(2).child(3).child(2).child(1).asLong());
+        // The request id stays positive, the counter covers the unsigned range
+        assertEquals(0x7ffffffeL, second.child(2).child(0).asLong());
+        assertEquals(0xfffffffeL, second.child(2).child(3).child(2).child(1).asLong());
+        assertEquals(20, second.child(2).child(3).child(0).child(1).asLong());
+    }
+
+    @Test
+    public void encodesV1Trap() throws Exception {
+        final Inet4Address agent = (Inet4Address)InetAddress.getByName("10.0.0.1");
+        final TrapTemplate template = TrapTemplate.v1("public", ".1.3.6.1.4.1.5813", agent, 6, 1)
+                .withVarbind(".1.3.6.1.4.1.5813.20.1.1", "v1");
+
+        final Tlv message = encode(template, 7, 1234);
+        assertEquals(0, message.child(0).asLong());
+        final Tlv pdu = message.child(2);
+        assertEquals(0xa4, pdu.tag);
+        assertEquals(".1.3.6.1.4.1.5813", pdu.child(0).asOid());
+        assertEquals(0x40, pdu.child(1).tag);
+        assertArrayEquals(agent.getAddress(), pdu.child(1).value);
+        assertEquals(6, pdu.child(2).asLong());
+        assertEquals(1, pdu.child(3).asLong());
+        assertEquals(0x43, pdu.child(4).tag);
+        assertEquals(1234, pdu.child(4).asLong());
+        assertEquals(1, pdu.child(5).children.size());
+        assertVarbind(pdu.child(5).child(0), ".1.3.6.1.4.1.5813.20.1.1", 0x04);
+    }
+
+    @Test
+    public void encodesLongLengths() {
+        final StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            value.append('x');
+        }
+        final Tlv message = encode(TrapTemplate.v2c("public", ".1.3.6.1.4.1.5813.1.1").withVarbind(".1.3.6.1.4.1.5813.20.1.1", value.toString()), 1, 1);
+        assertEquals(300, message.child(2).child(3).child(2).child(1).value.length);
+    }
+
+    @Test
+    public void encodesLargeOidArcs() {
+        assertEquals(".1.3.6.1.4.1.2147483647.128.16383.16384",
+                decode(ByteBuffer.wrap(wrapOid(TrapTemplate.encodeOid(".1.3.6.1.4.1.2147483647.128.16383.16384")))).asOid());
+    }
+
+    private static byte[] wrapOid(final byte[] oid) {
+        final ByteBuffer buffer = ByteBuffer.allocate(oid.length + 2);
+        buffer.put((byte)0x06).put((byte)oid.length).put(oid);
+        return buffer.array();
+    }
+
+    private static void assertVarbind(final Tlv varbind, final String oid, final int valueTag) {
+        assertEquals(0x30, varbind.tag);
+        assertEquals(0x06, varbind.child(0).tag);
+        assertEquals(oid, varbind.child(0).asOid());
+        assertEquals(valueTag, varbind.child(1).tag);
+    }
+}
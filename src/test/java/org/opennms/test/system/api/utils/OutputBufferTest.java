@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.test.system.api.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.EOFException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class OutputBufferTest {
+
+    @Test
+    public void decodesCharactersSplitAcrossWrites() {
+        final byte[] bytes = "aé€😀b".getBytes(StandardCharsets.UTF_8);
+        final OutputBuffer buffer = new OutputBuffer();
+        // One byte at a time, so that every multi-byte character is split
+        for (final byte b : bytes) {
+            buffer.write(new byte[] { b }, 0, 1);
+        }
+        assertEquals("aé€😀b", buffer.peek());
+    }
+
+    @Test
+    public void replacesIncompleteCharacterOnClose() {
+        final OutputBuffer buffer = new OutputBuffer();
+        final byte[] euro = "€".getBytes(StandardCharsets.UTF_8);
+        buffer.write(euro, 0, 2);
+        assertEquals("", buffer.peek());
+        buffer.close();
+        assertEquals("�", buffer.peek());
+    }
+
+    @Test
+    public void growsUpToTheCapacityAndDiscardsTheOldest() {
+        final OutputBuffer buffer = new OutputBuffer(10000);
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            final String line = i + "\n";
+            expected.append(line);
+            buffer.write(line.getBytes(StandardCharsets.US_ASCII), 0, line.length());
+        }
+        final String output = buffer.peek();
+        assertEquals(10000, output.length());
+        assertEquals(expected.substring(expected.length() - 10000), output);
+        assertEquals(expected.length() - 10000, buffer.getDiscarded());
+    }
+
+    @Test
+    public void drainEmptiesTheBuffer() {
+        final OutputBuffer buffer = new OutputBuffer(16);
+        write(buffer, "0123456789");
+        write(buffer, "abcdefghij");
+        assertEquals("456789abcdefghij", buffer.drain());
+        assertEquals("", buffer.peek());
+        write(buffer, "xyz");
+        assertEquals("xyz", buffer.peek());
+    }
+
+    @Test(timeout = 10000)
+    public void findsPatternsSpanningWrites() throws Exception {
+        final OutputBuffer buffer = new OutputBuffer();
+        final Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 1000; i++) {
+                    write(buffer, "line " + i + "\n");
+                }
+                Thread.sleep(50);
+                write(buffer, "karaf@r");
+                Thread.sleep(50);
+                write(buffer, "oot()>");
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        writer.start();
+        assertEquals("karaf@root()>", buffer.awaitPattern(Pattern.compile("karaf@root\\(\\)>"), 5, TimeUnit.SECONDS));
+        writer.join();
+    }
+
+    @Test
+    public void lookbehindSeesOutputBeforeTheScannedTail() throws Exception {
+        final OutputBuffer buffer = new OutputBuffer();
+        write(buffer, "prefix:");
+        try {
+            buffer.awaitPattern(Pattern.compile("(?<=prefix:)value"), 0, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            // expected, nothing to match yet
+        }
+        write(buffer, "value");
+        assertEquals("value", buffer.awaitPattern(Pattern.compile("(?<=prefix:)value"), 0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void timesOutWithoutMatch() throws Exception {
+        final OutputBuffer buffer = new OutputBuffer();
+        write(buffer, "nothing to see");
+        buffer.awaitPattern(Pattern.compile("prompt>"), 50, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = EOFException.class)
+    public void failsOnceClosedWithoutMatch() throws Exception {
+        final OutputBuffer buffer = new OutputBuffer();
+        write(buffer, "bye");
+        buffer.close();
+        buffer.awaitPattern(Pattern.compile("prompt>"), 5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void awaitClosedReturnsOnceClosed() throws Exception {
+        final OutputBuffer buffer = new OutputBuffer();
+        assertTrue(!buffer.awaitClosed(10, TimeUnit.MILLISECONDS));
+        buffer.close();
+        assertTrue(buffer.awaitClosed(10, TimeUnit.MILLISECONDS));
+        assertTrue(buffer.isClosed());
+    }
+
+    private static void write(final OutputBuffer buffer, final String text) {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        buffer.write(bytes, 0, bytes.length);
+    }
+}